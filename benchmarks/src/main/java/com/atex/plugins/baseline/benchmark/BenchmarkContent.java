@@ -0,0 +1,75 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import com.atex.plugins.baseline.content.ContentBasePolicy;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.client.OutputTemplate;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+/**
+ * Content policy answering the calls made by
+ * {@link ContentBasePolicy#getPathSegmentString()} and
+ * {@link ContentBasePolicy#isPreviewable()} from fixed values and an
+ * {@link InMemoryCMServer}.
+ */
+public class BenchmarkContent extends ContentBasePolicy {
+
+    private final VersionedContentId contentId;
+    private final ContentId parentId;
+    private final ContentId inputTemplateId;
+    private final OutputTemplate outputTemplate;
+    private final String name;
+    private final PolicyCMServer cmServer;
+
+    public BenchmarkContent(VersionedContentId contentId, ContentId parentId, ContentId inputTemplateId,
+            OutputTemplate outputTemplate, String name, PolicyCMServer cmServer) {
+        this.contentId = contentId;
+        this.parentId = parentId;
+        this.inputTemplateId = inputTemplateId;
+        this.outputTemplate = outputTemplate;
+        this.name = name;
+        this.cmServer = cmServer;
+    }
+
+    public VersionedContentId getContentId() {
+        return contentId;
+    }
+
+    public ContentId getParentId() {
+        return parentId;
+    }
+
+    public ContentId getInputTemplateId() {
+        return inputTemplateId;
+    }
+
+    public OutputTemplate getOutputTemplate(String mode) {
+        return outputTemplate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Policy getChildPolicy(String childName) {
+        return null;
+    }
+
+    public PolicyCMServer getCMServer() {
+        return cmServer;
+    }
+
+    protected boolean isCommittedVersion() {
+        return true;
+    }
+}
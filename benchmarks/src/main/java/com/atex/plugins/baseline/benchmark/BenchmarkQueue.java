@@ -0,0 +1,51 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import com.atex.plugins.baseline.collection.PublishingQueuePolicyManual;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.collections.ContentList;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+/**
+ * Publishing queue reading its list and policies from an
+ * {@link InMemoryCMServer} instead of a real content.
+ */
+public class BenchmarkQueue extends PublishingQueuePolicyManual {
+
+    private final VersionedContentId contentId;
+    private final ContentList contentList;
+    private final PolicyCMServer cmServer;
+    private final boolean committed;
+
+    public BenchmarkQueue(VersionedContentId contentId, ContentList contentList, PolicyCMServer cmServer,
+            boolean committed) {
+        this.contentId = contentId;
+        this.contentList = contentList;
+        this.cmServer = cmServer;
+        this.committed = committed;
+    }
+
+    public VersionedContentId getContentId() {
+        return contentId;
+    }
+
+    public PolicyCMServer getCMServer() {
+        return cmServer;
+    }
+
+    protected ContentList getSourceContentList() {
+        return contentList;
+    }
+
+    protected boolean isCommittedVersion() {
+        return committed;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates
+ * are reported next to throughput. Accepts the regular JMH command line
+ * options, e.g. a benchmark name pattern or <code>-p depth=5</code>.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLineOptions);
+        options.addProfiler(GCProfiler.class);
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atex.plugins.baseline.content.ContentBasePolicy;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.client.InputTemplate;
+import com.polopoly.cm.client.OutputTemplate;
+import com.polopoly.siteengine.structure.Page;
+
+/**
+ * Benchmarks {@link ContentBasePolicy#getPathSegmentString()} and
+ * {@link ContentBasePolicy#isPreviewable()} of an article placed on a page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentBaseBenchmark {
+
+    private BenchmarkContent article;
+
+    @Setup
+    public void setUp() {
+        InMemoryCMServer server = new InMemoryCMServer();
+
+        ContentId pageId = new ContentId(1, 10);
+        server.put(pageId, Stubs.policy(Stubs.content(pageId, null), Page.class));
+
+        ContentId inputTemplateId = new ContentId(14, 10);
+        server.put(inputTemplateId, Stubs.proxy(new Stubs.Answers().answer("getAvailableOutputTemplateModes",
+                new String[] { "mobile", "www" }), InputTemplate.class));
+
+        OutputTemplate outputTemplate = (OutputTemplate) Stubs.proxy(new Stubs.Answers(), OutputTemplate.class);
+
+        article = new BenchmarkContent(new VersionedContentId(1, 20, 1), pageId, inputTemplateId, outputTemplate,
+                "Årets bästa Nyhet: Översvämningar & Stormar i Göteborg", server.getCMServer());
+    }
+
+    @Benchmark
+    public String getPathSegmentString() throws CMException {
+        return article.getPathSegmentString();
+    }
+
+    @Benchmark
+    public boolean isPreviewable() {
+        return article.isPreviewable();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+/**
+ * In-memory stand-in for {@link PolicyCMServer}. Policies and contents are
+ * registered by content id and returned by <code>getPolicy</code> and
+ * <code>getContent</code> regardless of the requested version, and symbolic
+ * ids translate to the registered version. Every fetch and translation is
+ * counted, so benchmarks can report the number of CM round trips an operation
+ * would have cost.
+ */
+public class InMemoryCMServer implements InvocationHandler {
+
+    private final ConcurrentHashMap<ContentId, Object> objects = new ConcurrentHashMap<ContentId, Object>();
+
+    private final ConcurrentHashMap<ContentId, Integer> versions = new ConcurrentHashMap<ContentId, Integer>();
+
+    private final AtomicLong fetches = new AtomicLong();
+
+    private final PolicyCMServer cmServer;
+
+    public InMemoryCMServer() {
+        cmServer = (PolicyCMServer) Proxy.newProxyInstance(InMemoryCMServer.class.getClassLoader(),
+                new Class<?>[] { PolicyCMServer.class }, this);
+    }
+
+    public PolicyCMServer getCMServer() {
+        return cmServer;
+    }
+
+    /**
+     * Registers the policy or content returned for the given id.
+     */
+    public void put(ContentId id, Object policyOrContent) {
+        objects.put(id.getContentId(), policyOrContent);
+        versions.put(id.getContentId(), id instanceof VersionedContentId ? id.getVersion() : 1);
+    }
+
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+
+        if ((name.equals("getPolicy") || name.equals("getContent")) && args != null && args.length == 1
+                && args[0] instanceof ContentId) {
+            fetches.incrementAndGet();
+            Object object = objects.get(((ContentId) args[0]).getContentId());
+            if (object == null) {
+                throw new IllegalStateException("No content registered for " + args[0]);
+            }
+            return object;
+        }
+        if (name.equals("translateSymbolicContentId") && args != null && args.length == 1) {
+            fetches.incrementAndGet();
+            ContentId id = (ContentId) args[0];
+            Integer version = versions.get(id.getContentId());
+            if (version == null) {
+                throw new IllegalStateException("No content registered for " + id);
+            }
+            return new VersionedContentId(id.getMajor(), id.getMinor(), version);
+        }
+        if (name.equals("getCurrentCaller") || name.equals("setCurrentCaller")) {
+            // Every caller may read everything
+            return null;
+        }
+        if (name.equals("hashCode") && args == null) {
+            return System.identityHashCode(proxy);
+        }
+        if (name.equals("equals") && args != null && args.length == 1) {
+            return proxy == args[0];
+        }
+        if (name.equals("toString") && args == null) {
+            return "InMemoryCMServer[" + objects.size() + " contents]";
+        }
+        throw new UnsupportedOperationException("Not supported by the in-memory cm server: " + method);
+    }
+}
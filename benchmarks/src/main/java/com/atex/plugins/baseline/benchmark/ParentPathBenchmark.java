@@ -0,0 +1,98 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atex.plugins.baseline.util.ParentPathCache;
+import com.atex.plugins.baseline.util.ParentPathResolver;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.client.ContentRead;
+import com.polopoly.siteengine.structure.SiteRoot;
+
+/**
+ * Benchmarks {@link ParentPathResolver#getParentPath} for articles at varying
+ * depths below a site root. The cold benchmark clears the path cache before
+ * every lookup and so measures a full walk, the warm benchmark measures
+ * lookups of sibling articles with a populated cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParentPathBenchmark {
+
+    private static final int ARTICLES = 1000;
+
+    @Param({ "2", "5", "10" })
+    public int depth;
+
+    private InMemoryCMServer server;
+    private ParentPathCache cache;
+    private ParentPathResolver resolver;
+    private ContentRead[] articles;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        server = new InMemoryCMServer();
+        cache = new ParentPathCache(ARTICLES * 2);
+        resolver = new ParentPathResolver(cache);
+
+        int minor = 1;
+        ContentId parentId = new ContentId(1, minor++);
+        ContentRead root = Stubs.content(parentId, null);
+        server.put(parentId, Stubs.policy(root, SiteRoot.class));
+
+        for (int level = 1; level < depth; level++) {
+            ContentId id = new ContentId(1, minor++);
+            server.put(id, Stubs.policy(Stubs.content(id, parentId)));
+            parentId = id;
+        }
+
+        articles = new ContentRead[ARTICLES];
+        for (int i = 0; i < ARTICLES; i++) {
+            ContentId id = new ContentId(1, minor++);
+            articles[i] = Stubs.content(id, parentId);
+            server.put(id, Stubs.policy(articles[i]));
+        }
+    }
+
+    private ContentRead nextArticle() {
+        next = (next + 1) % ARTICLES;
+        return articles[next];
+    }
+
+    @Benchmark
+    public ContentId[] cold() throws CMException {
+        cache.clear();
+        return resolver.getParentPath(nextArticle(), server.getCMServer());
+    }
+
+    @Benchmark
+    public ContentId[] warm() throws CMException {
+        return resolver.getParentPath(nextArticle(), server.getCMServer());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atex.plugins.baseline.collection.PublishingQueuePolicyBase;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.ContentReference;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+/**
+ * Benchmarks {@link PublishingQueuePolicyBase#getFeedables()}, the paged
+ * variant rendering the first 20 items, the cache key and the represented
+ * content of manual queues, for queues of 10 to 10 000 entries. Every fourth
+ * entry is not feedable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishingQueueBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean committed;
+
+    private BenchmarkQueue queue;
+
+    @Setup
+    public void setUp() {
+        InMemoryCMServer server = new InMemoryCMServer();
+
+        List<ContentReference> references = new ArrayList<ContentReference>(size);
+        for (int i = 0; i < size; i++) {
+            ContentId id = new ContentId(1, 1000 + i);
+            if (i % 4 == 3) {
+                server.put(id, Stubs.policy(Stubs.content(id, null)));
+            } else {
+                server.put(id, Stubs.policy(Stubs.content(id, null), Feedable.class));
+            }
+            references.add(new ContentReference(id, null));
+        }
+
+        queue = new BenchmarkQueue(new VersionedContentId(1, 100, 1), Stubs.contentList(references),
+                server.getCMServer(), committed);
+    }
+
+    @Benchmark
+    public List<Feedable> getFeedables() throws CMException {
+        return queue.getFeedables();
+    }
+
+    @Benchmark
+    public List<Feedable> getFirstFeedables() throws CMException {
+        return queue.getFeedables(0, 20);
+    }
+
+    @Benchmark
+    public Object getCacheKey() throws CMException {
+        return queue.getCacheKey();
+    }
+
+    @Benchmark
+    public Collection<ContentId> getRepresentedContent() {
+        return queue.getRepresentedContent();
+    }
+}
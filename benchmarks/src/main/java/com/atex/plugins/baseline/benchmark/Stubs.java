@@ -0,0 +1,118 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.ContentReference;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.client.ContentRead;
+import com.polopoly.cm.collections.ContentList;
+import com.polopoly.cm.policy.Policy;
+
+/**
+ * Creates minimal stand-ins for Polopoly interfaces. Only the methods used by
+ * the benchmarked code are answered, anything else fails loudly so that a
+ * benchmark never silently measures an unexpected code path.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * Invocation handler answering methods by name with fixed values.
+     */
+    static final class Answers implements InvocationHandler {
+        private final Map<String, Object> answers = new HashMap<String, Object>();
+
+        Answers answer(String methodName, Object value) {
+            answers.put(methodName, value);
+            return this;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (answers.containsKey(name)) {
+                return answers.get(name);
+            }
+            if (name.equals("hashCode") && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("equals") && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if (name.equals("toString") && args == null) {
+                return "Stub" + answers.keySet();
+            }
+            throw new UnsupportedOperationException("Not stubbed: " + method);
+        }
+    }
+
+    static Object proxy(Answers answers, Class<?>... interfaces) {
+        return Proxy.newProxyInstance(Stubs.class.getClassLoader(), interfaces, answers);
+    }
+
+    /**
+     * Creates a content with the given parent as security parent and no
+     * insert parent.
+     */
+    static ContentRead content(ContentId id, ContentId parentId) {
+        return (ContentRead) proxy(new Answers()
+                .answer("getContentId", new VersionedContentId(id.getMajor(), id.getMinor(), 1))
+                .answer("getContentReference", null)
+                .answer("getSecurityParentId", parentId), ContentRead.class);
+    }
+
+    /**
+     * Creates a policy of the given content, implementing the given marker
+     * interfaces, e.g. SiteRoot or Feedable.
+     */
+    static Policy policy(ContentRead content, Class<?>... markers) {
+        Class<?>[] interfaces = new Class<?>[markers.length + 1];
+        interfaces[0] = Policy.class;
+        System.arraycopy(markers, 0, interfaces, 1, markers.length);
+        return (Policy) proxy(new Answers().answer("getContent", content), interfaces);
+    }
+
+    /**
+     * Creates a content list of the given references.
+     */
+    static ContentList contentList(final List<ContentReference> references) {
+        return (ContentList) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { ContentList.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("size")) {
+                            return references.size();
+                        }
+                        if (name.equals("getEntry")) {
+                            return references.get((Integer) args[0]);
+                        }
+                        if (name.equals("getListIterator")) {
+                            return references.listIterator();
+                        }
+                        if (name.equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        if (name.equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        throw new UnsupportedOperationException("Not stubbed: " + method);
+                    }
+                });
+    }
+}
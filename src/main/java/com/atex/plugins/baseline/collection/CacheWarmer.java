@@ -0,0 +1,375 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.atex.plugins.baseline.content.ContentBasePolicy;
+import com.atex.plugins.baseline.util.DaemonThreadFactory;
+import com.atex.plugins.baseline.util.ParentPathResolver;
+import com.atex.plugins.baseline.util.PolicyBatchLoader;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.ContentIdFactory;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.collections.ContentListProvider;
+import com.polopoly.cm.collections.ContentListRead;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.siteengine.standard.feed.Feedable;
+import com.polopoly.siteengine.structure.Page;
+
+/**
+ * Fills the baseline caches before a front node starts serving requests. Every
+ * configured site is walked from its site root down through its pages, loading
+ * the first members of the content list of each page and resolving their
+ * parent paths. For every configured publishing queue the content list model
+ * is created and the first members are loaded, with their parent paths.
+ * <p>
+ * The work is spread over a bounded thread pool and stopped when the time
+ * budget is spent, so a slow CM server delays the rollout by at most the
+ * budget. Work still running when the budget is spent is interrupted.
+ * Progress can be followed through {@link #getProgress()}.
+ * <p>
+ * The warmer is run at startup by the {@link CacheWarmerListener}, or by the
+ * application owning the cm server calling {@link #warmUp()} before reporting
+ * the node as ready. It can be configured from system properties with
+ * {@link #fromSystemProperties(PolicyCMServer)}.
+ */
+public class CacheWarmer {
+
+    public static final String SITE_ROOTS_PROPERTY = "com.atex.plugins.baseline.cacheWarmer.siteRoots";
+
+    public static final String QUEUES_PROPERTY = "com.atex.plugins.baseline.cacheWarmer.queues";
+
+    public static final String MAX_QUEUES_PROPERTY = "com.atex.plugins.baseline.cacheWarmer.maxQueues";
+
+    public static final String MEMBERS_PROPERTY = "com.atex.plugins.baseline.cacheWarmer.members";
+
+    public static final String THREADS_PROPERTY = "com.atex.plugins.baseline.cacheWarmer.threads";
+
+    public static final String BUDGET_PROPERTY = "com.atex.plugins.baseline.cacheWarmer.budget";
+
+    private static final int DEFAULT_MAX_QUEUES = 50;
+
+    private static final int DEFAULT_MEMBERS = 50;
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private static final long DEFAULT_BUDGET = 60000L;
+
+    private static final Logger LOG = Logger.getLogger(CacheWarmer.class.getName());
+
+    private final PolicyCMServer cmServer;
+
+    private final int members;
+
+    private final int threads;
+
+    private final long budget;
+
+    private final List<ContentId> siteRootIds = new ArrayList<ContentId>();
+
+    private final List<ContentId> queueIds = new ArrayList<ContentId>();
+
+    private volatile WarmUpProgress progress;
+
+    /**
+     * @param cmServer
+     *            the cm server to load contents from
+     * @param members
+     *            the number of list entries to load per page and queue
+     * @param threads
+     *            the number of warm-up threads
+     * @param budget
+     *            the maximum time to spend, in milliseconds
+     */
+    public CacheWarmer(PolicyCMServer cmServer, int members, int threads, long budget) {
+        this.cmServer = cmServer;
+        this.members = members;
+        this.threads = threads;
+        this.budget = budget;
+    }
+
+    /**
+     * Creates a warmer configured by the system properties
+     * <code>com.atex.plugins.baseline.cacheWarmer.siteRoots</code> and
+     * <code>.queues</code> (comma separated content ids, queues in order of
+     * importance), <code>.maxQueues</code> (the number of queues to warm up),
+     * <code>.members</code>, <code>.threads</code> and <code>.budget</code>
+     * (in milliseconds).
+     */
+    public static CacheWarmer fromSystemProperties(PolicyCMServer cmServer) {
+        CacheWarmer warmer = new CacheWarmer(cmServer, Integer.getInteger(MEMBERS_PROPERTY, DEFAULT_MEMBERS),
+                Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS), Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET)
+                        .longValue());
+
+        for (ContentId id : parseIds(System.getProperty(SITE_ROOTS_PROPERTY))) {
+            warmer.addSiteRoot(id);
+        }
+        List<ContentId> queues = parseIds(System.getProperty(QUEUES_PROPERTY));
+        int maxQueues = Integer.getInteger(MAX_QUEUES_PROPERTY, DEFAULT_MAX_QUEUES);
+        for (int i = 0; i < queues.size() && i < maxQueues; i++) {
+            warmer.addQueue(queues.get(i));
+        }
+        return warmer;
+    }
+
+    private static List<ContentId> parseIds(String value) {
+        if (value == null || value.trim().length() == 0) {
+            return Collections.emptyList();
+        }
+        List<ContentId> ids = new ArrayList<ContentId>();
+        String[] parts = value.split(",");
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.length() == 0) {
+                continue;
+            }
+            try {
+                ids.add(ContentIdFactory.createContentId(part));
+            } catch (IllegalArgumentException e) {
+                LOG.warning("Ignoring invalid content id '" + part + "' in cache warmer configuration");
+            }
+        }
+        return ids;
+    }
+
+    public void addSiteRoot(ContentId siteRootId) {
+        siteRootIds.add(siteRootId);
+    }
+
+    public void addQueue(ContentId queueId) {
+        queueIds.add(queueId);
+    }
+
+    /**
+     * Gets the progress of the current or last warm-up.
+     * 
+     * @return the progress, or null if no warm-up has been started
+     */
+    public WarmUpProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Warms up the caches, returning when done or when the time budget is
+     * spent.
+     * 
+     * @return the progress of the warm-up
+     */
+    public WarmUpProgress warmUp() {
+        final WarmUpProgress current = new WarmUpProgress(siteRootIds.size() + queueIds.size());
+        progress = current;
+        if (current.getTotal() == 0) {
+            current.finish(false);
+            return current;
+        }
+        LOG.info("Warming up caches for " + siteRootIds.size() + " site roots and " + queueIds.size() + " queues");
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory(
+                "baseline-cache-warmer-"));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final ContentId id : siteRootIds) {
+                futures.add(executor.submit(new WarmUpTask(id, current) {
+                    int warm() throws CMException {
+                        return warmSiteRoot(id);
+                    }
+                }));
+            }
+            for (final ContentId id : queueIds) {
+                futures.add(executor.submit(new WarmUpTask(id, current) {
+                    int warm() throws CMException {
+                        return warmQueue(id);
+                    }
+                }));
+            }
+
+            boolean timedOut = await(futures, deadline);
+            current.finish(timedOut);
+        } finally {
+            // Interrupts the tasks still running when the budget was spent
+            executor.shutdownNow();
+        }
+        LOG.info("Cache warm-up finished: " + current);
+        return current;
+    }
+
+    private boolean await(List<Future<?>> futures, long deadline) {
+        boolean interrupted = false;
+        boolean timedOut = false;
+        for (Future<?> future : futures) {
+            if (timedOut || interrupted) {
+                future.cancel(true);
+                continue;
+            }
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                LOG.warning("Cache warm-up time budget of " + budget + " ms spent, skipping the rest");
+                timedOut = true;
+                future.cancel(true);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                // Failures are counted and logged by the task
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return timedOut;
+    }
+
+    /**
+     * Walks a site breadth first from its site root, loading the first
+     * members of the content list of every page reached. The walk stops early
+     * when the warm-up is interrupted.
+     * 
+     * @return the number of loaded contents
+     */
+    int warmSiteRoot(ContentId siteRootId) throws CMException {
+        Policy siteRoot = cmServer.getPolicy(siteRootId);
+        new ParentPathResolver().getParentPath(siteRoot.getContent(), cmServer);
+
+        int loaded = 1;
+        Set<ContentId> visited = new HashSet<ContentId>();
+        visited.add(siteRoot.getContentId().getContentId());
+        LinkedList<Policy> pages = new LinkedList<Policy>();
+        pages.add(siteRoot);
+        while (!pages.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            Policy page = pages.removeFirst();
+            if (!(page instanceof ContentListProvider)) {
+                continue;
+            }
+            Policy[] policies = warmMembers(((ContentListProvider) page).getContentList());
+            for (int i = 0; i < policies.length; i++) {
+                if (policies[i] == null) {
+                    continue;
+                }
+                loaded++;
+                if (policies[i] instanceof Page && visited.add(policies[i].getContentId().getContentId())) {
+                    pages.add(policies[i]);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Loads a publishing queue, its content list model and its first members.
+     * 
+     * @return the number of loaded contents
+     */
+    int warmQueue(ContentId queueId) throws CMException {
+        Policy queue = cmServer.getPolicy(queueId);
+        if (queue instanceof ContentBasePolicy) {
+            ((ContentBasePolicy) queue).getParentIds();
+        }
+        if (!(queue instanceof PagedPublishingQueue)) {
+            return 1;
+        }
+        PagedPublishingQueue publishingQueue = (PagedPublishingQueue) queue;
+        publishingQueue.getContentList();
+
+        List<Feedable> feedables = publishingQueue.getFeedables(0, members);
+        List<ContentId> ids = new ArrayList<ContentId>(feedables.size());
+        List<ContentBasePolicy> policies = new ArrayList<ContentBasePolicy>(feedables.size());
+        for (Feedable feedable : feedables) {
+            if (feedable instanceof ContentBasePolicy) {
+                ContentBasePolicy policy = (ContentBasePolicy) feedable;
+                ids.add(policy.getContentId());
+                policies.add(policy);
+            }
+        }
+        seedParentIds(policies, new ParentPathResolver().getParentPaths(ids, cmServer));
+        return 1 + feedables.size();
+    }
+
+    /**
+     * Loads the first members of a content list and resolves their parent
+     * paths.
+     * 
+     * @return the loaded members, null for members that could not be loaded
+     */
+    private Policy[] warmMembers(ContentListRead contentList) throws CMException {
+        int size = Math.min(members, contentList.size());
+        ContentId[] ids = new ContentId[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = contentList.getEntry(i).getReferredContentId();
+        }
+        Policy[] loaded = PolicyBatchLoader.getInstance().loadPolicies(cmServer, ids);
+
+        List<ContentId> loadedIds = new ArrayList<ContentId>(size);
+        List<ContentBasePolicy> policies = new ArrayList<ContentBasePolicy>(size);
+        for (int i = 0; i < size; i++) {
+            if (loaded[i] != null) {
+                loadedIds.add(loaded[i].getContentId());
+            }
+            if (loaded[i] instanceof ContentBasePolicy) {
+                policies.add((ContentBasePolicy) loaded[i]);
+            }
+        }
+        seedParentIds(policies, new ParentPathResolver().getParentPaths(loadedIds, cmServer));
+        return loaded;
+    }
+
+    private void seedParentIds(List<ContentBasePolicy> policies, Map<ContentId, ContentId[]> paths) {
+        for (ContentBasePolicy policy : policies) {
+            ContentId[] path = paths.get(policy.getContentId());
+            if (path != null) {
+                policy.seedParentIds(path);
+            }
+        }
+    }
+
+    /**
+     * Warms up one site root or queue and records the outcome.
+     */
+    private abstract static class WarmUpTask implements Runnable {
+        private final ContentId id;
+        private final WarmUpProgress progress;
+
+        WarmUpTask(ContentId id, WarmUpProgress progress) {
+            this.id = id;
+            this.progress = progress;
+        }
+
+        abstract int warm() throws CMException;
+
+        public void run() {
+            try {
+                progress.completed(warm());
+                LOG.fine("Warmed up " + id.getContentIdString() + ", " + progress);
+            } catch (CMException e) {
+                progress.failed();
+                LOG.log(Level.WARNING, "Failed to warm up " + id.getContentIdString(), e);
+            } catch (RuntimeException e) {
+                progress.failed();
+                LOG.log(Level.WARNING, "Failed to warm up " + id.getContentIdString(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.polopoly.application.Application;
+import com.polopoly.application.servlet.ApplicationServletUtil;
+import com.polopoly.cm.client.CmClient;
+import com.polopoly.cm.client.CmClientBase;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+/**
+ * Servlet context listener running a {@link CacheWarmer} configured from
+ * system properties when the web application starts, so that the web
+ * application only starts serving requests once the caches are warm or the
+ * time budget is spent:
+ * 
+ * <pre>
+ * &lt;listener&gt;
+ *   &lt;listener-class&gt;com.atex.plugins.baseline.collection.CacheWarmerListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * 
+ * The listener must be registered after the listener initializing the
+ * Polopoly application, as the contents are loaded through its cm client.
+ */
+public class CacheWarmerListener implements ServletContextListener {
+
+    private static final Logger LOG = Logger.getLogger(CacheWarmerListener.class.getName());
+
+    public void contextInitialized(ServletContextEvent event) {
+        PolicyCMServer cmServer = getPolicyCMServer(event.getServletContext());
+        if (cmServer == null) {
+            LOG.warning("No cm client available, skipping cache warm-up");
+            return;
+        }
+        CacheWarmer.fromSystemProperties(cmServer).warmUp();
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+        // The warm-up is done when the context has been initialized
+    }
+
+    PolicyCMServer getPolicyCMServer(ServletContext servletContext) {
+        try {
+            Application application = ApplicationServletUtil.getApplication(servletContext);
+            if (application == null) {
+                return null;
+            }
+            CmClient cmClient = (CmClient) application.getApplicationComponent(CmClientBase.DEFAULT_COMPOUND_NAME);
+            return cmClient != null ? cmClient.getPolicyCMServer() : null;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to get the cm client of the web application", e);
+            return null;
+        }
+    }
+}
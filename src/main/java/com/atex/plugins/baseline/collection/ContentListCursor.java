@@ -0,0 +1,91 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+/**
+ * Continuation token of a {@link ContentListPaged}, pointing out where the
+ * next page starts. Besides the list position it carries an optional state
+ * string owned by the list implementation, e.g. a search cursor, letting the
+ * next page be fetched without re-running the full query.
+ * <p>
+ * A cursor can be turned into a string with {@link #toToken()} and back with
+ * {@link #parse(String)}, e.g. to be passed between AJAX requests.
+ */
+public final class ContentListCursor {
+
+    private static final char SEPARATOR = ':';
+
+    private final int offset;
+
+    private final String state;
+
+    /**
+     * @param offset
+     *            the list position the next page starts at
+     * @param state
+     *            implementation specific state, may be null
+     */
+    public ContentListCursor(int offset, String state) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        }
+        this.offset = offset;
+        this.state = state;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Implementation specific state, may be null.
+     */
+    public String getState() {
+        return state;
+    }
+
+    public String toToken() {
+        return state != null ? offset + String.valueOf(SEPARATOR) + state : String.valueOf(offset);
+    }
+
+    /**
+     * Parses a token created by {@link #toToken()}.
+     * 
+     * @throws IllegalArgumentException
+     *             if the token is malformed
+     */
+    public static ContentListCursor parse(String token) {
+        int separator = token.indexOf(SEPARATOR);
+        try {
+            if (separator < 0) {
+                return new ContentListCursor(Integer.parseInt(token), null);
+            }
+            return new ContentListCursor(Integer.parseInt(token.substring(0, separator)), token.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed content list cursor: " + token);
+        }
+    }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ContentListCursor)) {
+            return false;
+        }
+        ContentListCursor other = (ContentListCursor) obj;
+        return offset == other.offset && (state == null ? other.state == null : state.equals(other.state));
+    }
+
+    public int hashCode() {
+        return 31 * offset + (state != null ? state.hashCode() : 0);
+    }
+
+    public String toString() {
+        return "ContentListCursor[" + toToken() + "]";
+    }
+}
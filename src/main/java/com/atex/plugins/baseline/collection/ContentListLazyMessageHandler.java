@@ -9,6 +9,8 @@
 
 package com.atex.plugins.baseline.collection;
 
+import java.text.MessageFormat;
+
 import com.polopoly.cm.client.CMException;
 import com.polopoly.cm.collections.ContentList;
 import com.polopoly.cm.collections.ContentListProvider;
@@ -18,7 +20,8 @@ import com.polopoly.util.LocaleUtil;
 
 /**
  * Handler for content list messages. Writes a warning message if content list
- * is truncated.
+ * is truncated, including the number of fetched and estimated entries for
+ * {@link ContentListPaged} lists.
  * @see example.collection.ContentListLazyMessageHandler
  */
 public class ContentListLazyMessageHandler {
@@ -38,6 +41,17 @@ public class ContentListLazyMessageHandler {
             if (!contentListLazy.isComplete()) {
                 String warningMessage = LocaleUtil.format("p.siteengine.search.result.truncated", oc.getMessageBundle());
 
+                if (contentListLazy instanceof ContentListPaged) {
+                    ContentListPaged contentListPaged = (ContentListPaged) contentListLazy;
+                    int estimatedTotalSize = contentListPaged.getEstimatedTotalSize();
+
+                    if (estimatedTotalSize >= 0) {
+                        warningMessage += " "
+                                + MessageFormat.format(LocaleUtil.format("cm.template.baseline.search.result.partial",
+                                        oc.getMessageBundle()), contentListPaged.getKnownSize(), estimatedTotalSize);
+                    }
+                }
+
                 MessageUtil.setWarningMessage(oc, warningMessage);
             }
         }
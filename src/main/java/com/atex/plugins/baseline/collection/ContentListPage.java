@@ -0,0 +1,51 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.polopoly.cm.ContentReference;
+
+/**
+ * A page of entries fetched from a {@link ContentListPaged}.
+ */
+public final class ContentListPage {
+
+    private final List<ContentReference> entries;
+
+    private final ContentListCursor nextPageCursor;
+
+    /**
+     * @param entries
+     *            the entries of the page
+     * @param nextPageCursor
+     *            the cursor of the following page, or null if this is the
+     *            last page
+     */
+    public ContentListPage(List<ContentReference> entries, ContentListCursor nextPageCursor) {
+        this.entries = Collections.unmodifiableList(new ArrayList<ContentReference>(entries));
+        this.nextPageCursor = nextPageCursor;
+    }
+
+    public List<ContentReference> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets the cursor of the following page.
+     * 
+     * @return the cursor, or null if this is the last page
+     */
+    public ContentListCursor getNextPageCursor() {
+        return nextPageCursor;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import com.polopoly.cm.client.CMException;
+
+/**
+ * Source of the pages of a {@link PagedContentList}, e.g. a search continuing
+ * from the state carried by the cursor.
+ */
+public interface ContentListPageSource {
+
+    /**
+     * Fetches the page starting at the given cursor.
+     * 
+     * @throws CMException
+     *             if the page could not be fetched
+     */
+    ContentListPage fetchPage(ContentListCursor cursor) throws CMException;
+}
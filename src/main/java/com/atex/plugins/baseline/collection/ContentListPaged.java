@@ -0,0 +1,55 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import com.polopoly.cm.client.CMException;
+
+/**
+ * Content list that holds only the first pages of its entries. A list that is
+ * not complete can be read further page by page, using the continuation
+ * cursor of the list, without re-running the full query. Fetching a page does
+ * not modify the list, so a list shared between threads, e.g. held by a cached
+ * policy, does not grow as it is read; the reader keeps the fetched pages.
+ * 
+ * @see PagedContentList
+ */
+public interface ContentListPaged extends ContentListLazy {
+
+    /**
+     * The number of entries held by the list.
+     */
+    int getKnownSize();
+
+    /**
+     * The estimated total number of entries, e.g. the number of search hits,
+     * or -1 if unknown.
+     */
+    int getEstimatedTotalSize();
+
+    /**
+     * Gets the cursor of the page following the entries held by the list.
+     * 
+     * @return the cursor, or null if the list is complete
+     */
+    ContentListCursor getNextPageCursor();
+
+    /**
+     * Fetches the page starting at the given cursor. The entries are returned
+     * rather than added to the list.
+     * 
+     * @param cursor
+     *            a cursor returned by {@link #getNextPageCursor()} or
+     *            {@link ContentListPage#getNextPageCursor()}
+     * @return the page
+     * @throws CMException
+     *             if the page could not be fetched
+     */
+    ContentListPage fetchPage(ContentListCursor cursor) throws CMException;
+}
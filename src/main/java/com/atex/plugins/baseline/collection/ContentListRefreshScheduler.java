@@ -0,0 +1,289 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.solr.client.solrj.SolrServerException;
+
+import com.atex.plugins.baseline.util.CallerContext;
+import com.atex.plugins.baseline.util.DaemonThreadFactory;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.user.server.Caller;
+
+/**
+ * Refreshes registered search based content lists periodically in the
+ * background, so that renders read an already computed list and never run a
+ * search inline.
+ * <p>
+ * Each registered provider is refreshed every interval, give or take a random
+ * jitter that spreads the searches over time. When a refresh fails with a
+ * {@link SolrServerException} the next attempt is postponed exponentially, up
+ * to a maximum backoff, other failures are retried after the normal interval.
+ * The refreshes themselves are run through the
+ * {@link ContentListRefresher}, so they are coalesced with any other refresh
+ * of the same list.
+ * <p>
+ * A refresh never touches the policy instances cached by the cm server, which
+ * requests render concurrently. Instead a new version of the provider is
+ * created under the configured caller, refreshed and committed, and renders
+ * pick up the committed version like any other change. As each refresh
+ * commits a version, the scheduler should only run on one node.
+ * <p>
+ * The scheduler is not started automatically, the application owning the cm
+ * server is expected to call {@link #start()} and {@link #shutdown()}.
+ */
+public class ContentListRefreshScheduler {
+
+    private static final Logger LOG = Logger.getLogger(ContentListRefreshScheduler.class.getName());
+
+    private final PolicyCMServer cmServer;
+
+    private final Caller caller;
+
+    private final long interval;
+
+    private final double jitter;
+
+    private final long maxBackoff;
+
+    private final int threads;
+
+    private final ConcurrentMap<ContentId, RefreshStats> registered = new ConcurrentHashMap<ContentId, RefreshStats>();
+
+    private final Random random = new Random();
+
+    private volatile ScheduledExecutorService executor;
+
+    /**
+     * @param cmServer
+     *            the cm server to get the providers from
+     * @param caller
+     *            the caller creating and committing the refreshed versions
+     * @param interval
+     *            the time between refreshes of a provider, in milliseconds
+     * @param jitter
+     *            the fraction of the interval the actual time between
+     *            refreshes may randomly differ, between 0 and 1
+     * @param maxBackoff
+     *            the maximum time between attempts of a failing provider, in
+     *            milliseconds
+     * @param threads
+     *            the number of worker threads
+     */
+    public ContentListRefreshScheduler(PolicyCMServer cmServer, Caller caller, long interval, double jitter,
+            long maxBackoff, int threads) {
+        if (interval <= 0 || jitter < 0 || jitter > 1 || threads < 1) {
+            throw new IllegalArgumentException("Invalid schedule: interval=" + interval + ", jitter=" + jitter
+                    + ", threads=" + threads);
+        }
+        this.cmServer = cmServer;
+        this.caller = caller;
+        this.interval = interval;
+        this.jitter = jitter;
+        this.maxBackoff = Math.max(interval, maxBackoff);
+        this.threads = threads;
+    }
+
+    /**
+     * Starts refreshing the registered providers.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(threads, new DaemonThreadFactory(
+                "baseline-list-scheduler-"));
+        scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduledExecutor;
+        for (Map.Entry<ContentId, RefreshStats> entry : registered.entrySet()) {
+            schedule(scheduledExecutor, entry.getKey(), entry.getValue(), nextDelay(0));
+        }
+    }
+
+    /**
+     * Stops refreshing. Running refreshes are allowed to complete.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Registers a provider to be refreshed. The content of the id must have a
+     * policy implementing {@link RefreshableContentListProvider}.
+     * 
+     * @param providerId
+     *            the id of the provider
+     */
+    public void register(ContentId providerId) {
+        ContentId id = providerId.getContentId();
+        // Locked with start() so that a provider registered while starting
+        // is scheduled exactly once
+        synchronized (this) {
+            RefreshStats stats = new RefreshStats(id);
+            if (registered.putIfAbsent(id, stats) == null) {
+                schedule(executor, id, stats, nextDelay(0));
+            }
+        }
+    }
+
+    public void unregister(ContentId providerId) {
+        registered.remove(providerId.getContentId());
+    }
+
+    /**
+     * Gets the refresh statistics of the registered providers.
+     */
+    public Map<ContentId, RefreshStats> getStats() {
+        return new HashMap<ContentId, RefreshStats>(registered);
+    }
+
+    /**
+     * Schedules the next refresh of a provider. A chain of refreshes stays on
+     * the executor it was started on and ends when that executor is shut
+     * down, so restarting the scheduler while a refresh is running does not
+     * leave two chains for the provider.
+     */
+    private void schedule(final ScheduledExecutorService chainExecutor, final ContentId providerId,
+            final RefreshStats stats, long delay) {
+        if (chainExecutor == null || delay < 0) {
+            return;
+        }
+        stats.scheduled(System.currentTimeMillis() + delay);
+        try {
+            chainExecutor.schedule(new Runnable() {
+                public void run() {
+                    schedule(chainExecutor, providerId, stats, refresh(providerId, stats));
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // Rejected because the scheduler was shut down
+            LOG.log(Level.FINE, "Could not schedule refresh of " + providerId.getContentIdString(), e);
+        }
+    }
+
+    /**
+     * Refreshes a provider.
+     * 
+     * @return the delay until the next refresh, or -1 if the provider is no
+     *         longer to be refreshed
+     */
+    long refresh(final ContentId providerId, RefreshStats stats) {
+        // Stop if unregistered (or unregistered and registered again, in
+        // which case another schedule is already running)
+        if (registered.get(providerId) != stats) {
+            return -1;
+        }
+
+        long start = System.currentTimeMillis();
+        long delay;
+        try {
+            Boolean refreshable = CallerContext.forCaller(cmServer, caller).wrap(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return Boolean.valueOf(refreshVersion(providerId));
+                }
+            }).call();
+            if (!refreshable.booleanValue()) {
+                LOG.warning("Unregistering " + providerId.getContentIdString()
+                        + ", its policy is not a RefreshableContentListProvider");
+                registered.remove(providerId);
+                return -1;
+            }
+
+            long end = System.currentTimeMillis();
+            stats.succeeded(end, end - start);
+            delay = nextDelay(0);
+        } catch (SolrServerException e) {
+            stats.failed(System.currentTimeMillis() - start, e.getMessage(), true);
+            delay = nextDelay(stats.getConsecutiveFailures());
+            LOG.log(Level.WARNING, "Search failed refreshing " + providerId.getContentIdString() + ", retrying in "
+                    + delay + " ms", e);
+        } catch (TimeoutException e) {
+            stats.failed(System.currentTimeMillis() - start, "Timed out", false);
+            delay = nextDelay(0);
+            LOG.warning("Refresh of " + providerId.getContentIdString() + " did not complete within " + interval + " ms");
+        } catch (Exception e) {
+            stats.failed(System.currentTimeMillis() - start, e.toString(), false);
+            delay = nextDelay(0);
+            LOG.log(Level.WARNING, "Failed to refresh " + providerId.getContentIdString(), e);
+        }
+        return delay;
+    }
+
+    /**
+     * Refreshes a new version of a provider and commits it, or aborts it if
+     * the refresh failed.
+     * 
+     * @return false if the policy of the provider is not refreshable
+     */
+    private boolean refreshVersion(ContentId providerId) throws Exception {
+        VersionedContentId latest = cmServer.translateSymbolicContentId(providerId.getLatestCommittedVersionId());
+        Policy version = cmServer.createContentVersion(latest);
+        boolean committed = false;
+        try {
+            if (!(version instanceof RefreshableContentListProvider)) {
+                return false;
+            }
+            ContentListRefresher.getInstance().refresh((RefreshableContentListProvider) version, interval,
+                    TimeUnit.MILLISECONDS);
+            cmServer.commitContent(version);
+            committed = true;
+            return true;
+        } finally {
+            if (!committed) {
+                abort(version);
+            }
+        }
+    }
+
+    private void abort(Policy version) {
+        try {
+            cmServer.abortContent(version);
+        } catch (CMException e) {
+            LOG.log(Level.WARNING, "Failed to abort refreshed version " + version.getContentId(), e);
+        }
+    }
+
+    /**
+     * Gets the delay until the next refresh, backing off exponentially with
+     * the number of consecutive search failures.
+     */
+    long nextDelay(int consecutiveFailures) {
+        long base = interval;
+        for (int i = 0; i < consecutiveFailures && base < maxBackoff; i++) {
+            base *= 2;
+        }
+        base = Math.min(base, maxBackoff);
+
+        double spread;
+        synchronized (random) {
+            spread = (random.nextDouble() * 2 - 1) * jitter;
+        }
+        return Math.max(0, (long) (base * (1 + spread)));
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.atex.plugins.baseline.util.BaselineMetrics;
+import com.atex.plugins.baseline.util.CallerContext;
+import com.atex.plugins.baseline.util.DaemonThreadFactory;
+import com.atex.plugins.baseline.util.OperationMetrics;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+
+/**
+ * Coalesces refreshes of {@link RefreshableContentListProvider}s. While a
+ * refresh is running, callers asking to refresh the same list wait for that
+ * refresh instead of starting a new search.
+ * <p>
+ * Two providers list the same thing if they are the same instance or, for
+ * {@link SharedRefreshContentListProvider}s, if their refresh keys are equal.
+ * A refresh runs on the thread of the caller that started it, under the
+ * caller and context of that request, so a provider is never modified by a
+ * thread other than the one using it. Callers sharing the refresh of another
+ * instance take over its result once it is done.
+ * <p>
+ * Shared providers can also be refreshed asynchronously with
+ * {@link #refreshAsync(SharedRefreshContentListProvider)}, which runs the
+ * search on a private copy of the provider on a pool thread and returns a
+ * {@link RefreshHandle} to poll. The number of pool threads and of refreshes
+ * that may wait for a thread can be configured with the system properties
+ * <code>com.atex.plugins.baseline.contentListRefresher.threads</code> and
+ * <code>com.atex.plugins.baseline.contentListRefresher.queueSize</code>.
+ */
+public class ContentListRefresher {
+
+    public static final String THREADS_PROPERTY = "com.atex.plugins.baseline.contentListRefresher.threads";
+
+    public static final String QUEUE_SIZE_PROPERTY = "com.atex.plugins.baseline.contentListRefresher.queueSize";
+
+    private static final int DEFAULT_THREADS = 2;
+
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+
+    private static final ContentListRefresher INSTANCE = new ContentListRefresher(Integer.getInteger(THREADS_PROPERTY,
+            DEFAULT_THREADS), Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE));
+
+    private final ConcurrentMap<Object, RefreshHandle> inFlight = new ConcurrentHashMap<Object, RefreshHandle>();
+
+    private final ExecutorService executor;
+
+    public ContentListRefresher() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param threads
+     *            the number of threads running asynchronous refreshes
+     * @param queueSize
+     *            the number of asynchronous refreshes that may wait for a
+     *            thread
+     */
+    public ContentListRefresher(int threads, int queueSize) {
+        int poolSize = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new DaemonThreadFactory(
+                        "baseline-list-refresher-"));
+    }
+
+    public static ContentListRefresher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Refreshes the given provider, or shares the refresh already running
+     * for the same list.
+     * <p>
+     * A refresh started by this call always completes before the call
+     * returns. When sharing the refresh of another instance, the call waits
+     * at most the given time, after which the provider is left as it was and
+     * the refresh keeps running for the caller that started it.
+     * 
+     * @param provider
+     *            the provider to refresh
+     * @param timeout
+     *            the maximum time to wait for a refresh started by another
+     *            caller
+     * @param unit
+     *            the unit of the timeout
+     * @throws TimeoutException
+     *             if a shared refresh did not complete in time
+     * @throws Exception
+     *             the exception thrown by the refresh, if it failed
+     */
+    public void refresh(final RefreshableContentListProvider provider, long timeout, TimeUnit unit) throws Exception {
+        final Object key = getKey(provider);
+
+        while (true) {
+            RefreshHandle running = inFlight.get(key);
+            if (running == null) {
+                RefreshHandle created = createHandle(key, provider, null);
+                if (inFlight.putIfAbsent(key, created) == null) {
+                    BaselineMetrics.LIST_REFRESH.miss();
+                    created.run();
+                    created.await(0, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                continue;
+            }
+
+            if (running.getProvider() == provider) {
+                // Another thread is refreshing this very provider, it must
+                // not be used until that is done
+                running.awaitDone();
+                if (provider instanceof SharedRefreshContentListProvider) {
+                    // Same key, so the running refresh used the current
+                    // criteria
+                    BaselineMetrics.LIST_REFRESH.hit();
+                    running.await(0, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                // The provider may have changed since that refresh started,
+                // refresh it again
+                continue;
+            }
+
+            BaselineMetrics.LIST_REFRESH.hit();
+            running.await(timeout, unit);
+            ((SharedRefreshContentListProvider) provider).refreshFrom((SharedRefreshContentListProvider) running
+                    .getProvider());
+            return;
+        }
+    }
+
+    /**
+     * Starts refreshing the list of the given provider in the background, or
+     * joins the refresh already running for the same list, and returns at
+     * once. A started refresh runs on a copy of the provider created by
+     * {@link SharedRefreshContentListProvider#createRefreshCopy()}, under the
+     * caller and resolution context of the calling thread. The given provider
+     * is left as it was until the result is taken over with
+     * {@link RefreshHandle#completeInto(SharedRefreshContentListProvider)}.
+     * 
+     * @param provider
+     *            the provider to refresh
+     * @return the handle of the refresh
+     * @throws CMException
+     *             if the refresh key could not be read or the copy created
+     * @throws RejectedExecutionException
+     *             if too many refreshes are waiting for a thread
+     */
+    public RefreshHandle refreshAsync(SharedRefreshContentListProvider provider) throws CMException {
+        Object key = getKey(provider);
+        RefreshHandle running = inFlight.get(key);
+        if (running == null) {
+            CallerContext context = CallerContext.capture(provider instanceof Policy ? ((Policy) provider)
+                    .getCMServer() : null);
+            RefreshHandle created = createHandle(key, provider.createRefreshCopy(), context);
+            running = inFlight.putIfAbsent(key, created);
+            if (running == null) {
+                BaselineMetrics.LIST_REFRESH.miss();
+                final RefreshHandle started = created;
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            started.run();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.remove(key, created);
+                    throw e;
+                }
+                return created;
+            }
+        }
+        BaselineMetrics.LIST_REFRESH.hit();
+        return running;
+    }
+
+    /**
+     * Creates the handle of a refresh of the given provider, removing it from
+     * the refreshes in flight when done.
+     * 
+     * @param context
+     *            the context to run the refresh in, or null to run it in the
+     *            context of the thread running it
+     */
+    private RefreshHandle createHandle(final Object key, final RefreshableContentListProvider provider,
+            CallerContext context) {
+        final RefreshHandle[] created = new RefreshHandle[1];
+        Callable<Object> refresh = new Callable<Object>() {
+            public Object call() throws Exception {
+                OperationMetrics metrics = BaselineMetrics.LIST_REFRESH;
+                long start = metrics.start();
+                boolean succeeded = false;
+                try {
+                    provider.refresh();
+                    succeeded = true;
+                    return null;
+                } finally {
+                    inFlight.remove(key, created[0]);
+                    metrics.stop(start, succeeded);
+                }
+            }
+        };
+        FutureTask<Object> task = new FutureTask<Object>(context != null ? context.wrap(refresh) : refresh);
+        Object refreshKey = key instanceof RefreshKey ? ((RefreshKey) key).key : null;
+        created[0] = new RefreshHandle(provider, refreshKey, task);
+        return created[0];
+    }
+
+    /**
+     * Gets the handle of the refresh currently running for the list of the
+     * given provider.
+     * 
+     * @return the handle, or null if no refresh is running
+     * @throws CMException
+     *             if the refresh key of the provider could not be read
+     */
+    public RefreshHandle getRunningRefresh(RefreshableContentListProvider provider) throws CMException {
+        return inFlight.get(getKey(provider));
+    }
+
+    private static Object getKey(RefreshableContentListProvider provider) throws CMException {
+        if (provider instanceof SharedRefreshContentListProvider) {
+            return new RefreshKey(((SharedRefreshContentListProvider) provider).getRefreshKey());
+        }
+        return new ProviderKey(provider);
+    }
+
+    /**
+     * Key of providers sharing refreshes.
+     */
+    private static final class RefreshKey {
+        private final Object key;
+
+        RefreshKey(Object key) {
+            this.key = key;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof RefreshKey && ((RefreshKey) obj).key.equals(key);
+        }
+
+        public int hashCode() {
+            return key.hashCode();
+        }
+    }
+
+    /**
+     * Identity based key, policies may define equality on content id which
+     * would coalesce refreshes of different working copies.
+     */
+    private static final class ProviderKey {
+        private final RefreshableContentListProvider provider;
+
+        ProviderKey(RefreshableContentListProvider provider) {
+            this.provider = provider;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof ProviderKey && ((ProviderKey) obj).provider == provider;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(provider);
+        }
+    }
+}
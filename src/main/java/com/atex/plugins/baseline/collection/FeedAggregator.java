@@ -0,0 +1,206 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.atex.plugins.baseline.util.BaselineMetrics;
+import com.atex.plugins.baseline.util.CallerContext;
+import com.atex.plugins.baseline.util.DaemonThreadFactory;
+import com.atex.plugins.baseline.util.OperationMetrics;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+/**
+ * Builds one feed from several publishing queues. The feedables of the queues
+ * are loaded concurrently on a bounded thread pool, so the time to build the
+ * feed is about the time of the slowest queue rather than the sum of all
+ * queues. The feedables are merged in the order of the given queues, and a
+ * content listed in several queues is only included the first time.
+ * <p>
+ * Each queue is asked for at most the global limit of feedables. Queues not
+ * done by the deadline, and queues failing to load, are left out of the feed
+ * and logged. Loads still running at the deadline are interrupted. Loads run
+ * in the {@link CallerContext} of the aggregating thread.
+ * <p>
+ * The number of threads, and the number of loads that may wait for a thread,
+ * can be configured with the system properties
+ * <code>com.atex.plugins.baseline.feedAggregator.threads</code> and
+ * <code>com.atex.plugins.baseline.feedAggregator.queueSize</code>. Queues
+ * that cannot be queued are left out of the feed.
+ */
+public class FeedAggregator {
+
+    public static final String THREADS_PROPERTY = "com.atex.plugins.baseline.feedAggregator.threads";
+
+    public static final String QUEUE_SIZE_PROPERTY = "com.atex.plugins.baseline.feedAggregator.queueSize";
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private static final Logger LOG = Logger.getLogger(FeedAggregator.class.getName());
+
+    private static final FeedAggregator INSTANCE = new FeedAggregator(Integer.getInteger(THREADS_PROPERTY,
+            DEFAULT_THREADS), Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE));
+
+    private final ExecutorService executor;
+
+    public FeedAggregator(int threads) {
+        this(threads, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param threads
+     *            the number of threads loading queues
+     * @param queueSize
+     *            the number of loads that may wait for a thread
+     */
+    public FeedAggregator(int threads, int queueSize) {
+        int poolSize = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new DaemonThreadFactory(
+                        "baseline-feed-aggregator-"));
+    }
+
+    public static FeedAggregator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the feedables of the given queues as one feed.
+     * 
+     * @param queues
+     *            the queues to aggregate, in order of precedence
+     * @param limit
+     *            the maximum number of feedables in the feed
+     * @param timeout
+     *            the maximum time to wait for the queues
+     * @param unit
+     *            the unit of the timeout
+     * @return at most <code>limit</code> feedables, without duplicates
+     */
+    public List<Feedable> aggregate(List<? extends PagedPublishingQueue> queues, int limit, long timeout,
+            TimeUnit unit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative limit: " + limit);
+        }
+        OperationMetrics metrics = BaselineMetrics.FEED_AGGREGATION;
+        long start = metrics.start();
+        boolean succeeded = false;
+        try {
+            List<Feedable> feedables = merge(queues, load(queues, limit, timeout, unit), limit);
+            succeeded = true;
+            return feedables;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
+
+    private List<List<Feedable>> load(List<? extends PagedPublishingQueue> queues, final int limit, long timeout,
+            TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        List<Future<List<Feedable>>> futures = new ArrayList<Future<List<Feedable>>>(queues.size());
+        for (final PagedPublishingQueue queue : queues) {
+            Callable<List<Feedable>> task = new Callable<List<Feedable>>() {
+                public List<Feedable> call() throws Exception {
+                    return queue.getFeedables(0, limit);
+                }
+            };
+            PolicyCMServer cmServer = queue instanceof Policy ? ((Policy) queue).getCMServer() : null;
+            try {
+                futures.add(executor.submit(CallerContext.capture(cmServer).wrap(task)));
+            } catch (RejectedExecutionException e) {
+                LOG.warning("Too many queues waiting to load, leaving " + describe(queue) + " out of the feed");
+                futures.add(null);
+            }
+        }
+
+        List<List<Feedable>> results = new ArrayList<List<Feedable>>(futures.size());
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<List<Feedable>> future = futures.get(i);
+            List<Feedable> result = null;
+            try {
+                if (future != null) {
+                    result = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            } catch (TimeoutException e) {
+                LOG.warning("Queue " + describe(queues.get(i)) + " timed out, leaving it out of the feed");
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                LOG.log(Level.WARNING, "Failed to get feedables of queue " + describe(queues.get(i))
+                        + ", leaving it out of the feed", e.getCause());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                future.cancel(true);
+            }
+            results.add(result);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    private List<Feedable> merge(List<? extends PagedPublishingQueue> queues, List<List<Feedable>> results,
+            int limit) {
+        List<Feedable> feedables = new ArrayList<Feedable>(limit);
+        Set<Object> seen = new HashSet<Object>();
+
+        for (int i = 0; i < results.size() && feedables.size() < limit; i++) {
+            List<Feedable> result = results.get(i);
+            if (result == null) {
+                continue;
+            }
+            for (int j = 0; j < result.size() && feedables.size() < limit; j++) {
+                Feedable feedable = result.get(j);
+                if (seen.add(getKey(feedable))) {
+                    feedables.add(feedable);
+                }
+            }
+        }
+        return feedables;
+    }
+
+    /**
+     * Feedables are policies in practice and are compared by unversioned
+     * content id, so different versions of a content are duplicates too.
+     */
+    private Object getKey(Feedable feedable) {
+        if (feedable instanceof Policy && ((Policy) feedable).getContentId() != null) {
+            return ((Policy) feedable).getContentId().getContentId();
+        }
+        return feedable;
+    }
+
+    private String describe(PagedPublishingQueue queue) {
+        if (queue instanceof Policy && ((Policy) queue).getContentId() != null) {
+            return ((Policy) queue).getContentId().getContentIdString();
+        }
+        return String.valueOf(queue);
+    }
+}
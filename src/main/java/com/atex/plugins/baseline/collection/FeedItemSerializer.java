@@ -0,0 +1,37 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import com.polopoly.cm.client.CMException;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+/**
+ * Serializes a feed, e.g. as RSS or Atom, for the {@link FeedPayloadCache}.
+ * Items are serialized one by one so that unchanged items can be reused when
+ * the feed is rebuilt, the serialized feed is the header followed by the items
+ * and the footer.
+ */
+public interface FeedItemSerializer {
+
+    /**
+     * A name of the format, unique among the serializers used with the same
+     * cache, e.g. "rss".
+     */
+    String getFormat();
+
+    byte[] serializeHeader(ModelTypeDescriptionPublishingQueue queue) throws CMException;
+
+    /**
+     * Serializes one item. The result must only depend on the given version
+     * of the item, as it is reused for as long as that version is listed.
+     */
+    byte[] serializeItem(Feedable feedable) throws CMException;
+
+    byte[] serializeFooter(ModelTypeDescriptionPublishingQueue queue) throws CMException;
+}
@@ -0,0 +1,75 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A serialized feed together with the validators to answer conditional
+ * requests. The payload is immutable.
+ */
+public class FeedPayload {
+
+    private final ByteBuffer buffer;
+
+    private final String etag;
+
+    private final long lastModified;
+
+    FeedPayload(ByteBuffer buffer, String etag, long lastModified) {
+        this.buffer = buffer;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Gets the serialized feed as a read-only buffer. Each call returns a new
+     * buffer over the same bytes, positioned at the start, which can be
+     * written to a channel without copying the payload.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+
+    public int getLength() {
+        return buffer.limit();
+    }
+
+    /**
+     * The entity tag of the payload, quoted as in an HTTP ETag header.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * The time the payload last changed, in milliseconds.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Checks if a client holding the given validators already has this
+     * payload.
+     * 
+     * @param ifNoneMatch
+     *            the If-None-Match header, or null
+     * @param ifModifiedSince
+     *            the If-Modified-Since header in milliseconds, or -1
+     * @return true if the payload does not need to be sent
+     */
+    public boolean isNotModified(String ifNoneMatch, long ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals(etag) || ifNoneMatch.equals("*");
+        }
+        // HTTP dates have a resolution of seconds
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+}
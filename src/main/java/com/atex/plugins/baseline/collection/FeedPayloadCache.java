@@ -0,0 +1,359 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.atex.plugins.baseline.content.CacheKeyProvider;
+import com.atex.plugins.baseline.content.ContentBasePolicy;
+import com.atex.plugins.baseline.util.BaselineMetrics;
+import com.atex.plugins.baseline.util.LRUCache;
+import com.atex.plugins.baseline.util.OperationMetrics;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+/**
+ * Cache of serialized feeds of publishing queues. A feed is served from the
+ * cache for as long as the cache key of its queue is unchanged, i.e. until
+ * the queue or any listed content gets a new version, and at most for the
+ * time to live of a feed, which bounds how long a change the cache key has
+ * not caught up with is left out. When the feed has to be rebuilt, only the
+ * items whose versions changed are serialized again, the others are reused
+ * from the previous build. Concurrent requests for a feed that is being
+ * rebuilt wait for that build instead of building the feed again.
+ * <p>
+ * Working copies keep their version number while being edited, so neither
+ * the feeds of working copies of queues, e.g. in preview, nor the items of
+ * working copies are cached. Only {@link ContentBasePolicy}s can be told
+ * apart from committed versions, other policies are cached by version.
+ * <p>
+ * Queues must be policies, such as {@link PublishingQueuePolicyBase}. Queues
+ * that are not {@link CacheKeyProvider}s are keyed by their versioned
+ * content id.
+ * <p>
+ * The number of cached feeds and of cached serialized items, and the time to
+ * live of a feed in milliseconds, can be configured with the system
+ * properties <code>com.atex.plugins.baseline.feedPayloadCache.size</code>,
+ * <code>com.atex.plugins.baseline.feedPayloadCache.items</code> and
+ * <code>com.atex.plugins.baseline.feedPayloadCache.ttl</code>.
+ */
+public class FeedPayloadCache {
+
+    public static final String SIZE_PROPERTY = "com.atex.plugins.baseline.feedPayloadCache.size";
+
+    public static final String ITEMS_PROPERTY = "com.atex.plugins.baseline.feedPayloadCache.items";
+
+    public static final String TTL_PROPERTY = "com.atex.plugins.baseline.feedPayloadCache.ttl";
+
+    private static final int DEFAULT_SIZE = 1000;
+
+    private static final int DEFAULT_ITEMS = 20000;
+
+    private static final long DEFAULT_TTL = 60 * 1000L;
+
+    private static final FeedPayloadCache INSTANCE = new FeedPayloadCache(Integer.getInteger(SIZE_PROPERTY,
+            DEFAULT_SIZE), Integer.getInteger(ITEMS_PROPERTY, DEFAULT_ITEMS), Long.getLong(TTL_PROPERTY,
+            DEFAULT_TTL).longValue());
+
+    private final LRUCache<FeedKey, Entry> feeds;
+
+    private final LRUCache<FeedKey, byte[]> items;
+
+    private final long ttl;
+
+    /**
+     * The feeds being built.
+     */
+    private final ConcurrentMap<FeedKey, Build> building = new ConcurrentHashMap<FeedKey, Build>();
+
+    /**
+     * A cached feed and what it was built from.
+     */
+    private static final class Entry {
+        private final Object cacheKey;
+        private final int limit;
+        private final FeedPayload payload;
+        private final long built = System.currentTimeMillis();
+
+        Entry(Object cacheKey, int limit, FeedPayload payload) {
+            this.cacheKey = cacheKey;
+            this.limit = limit;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * A feed being built, for the cache key and limit it is built for.
+     */
+    private static final class Build {
+        private final Object cacheKey;
+        private final int limit;
+        private final FutureTask<FeedPayload> task;
+
+        Build(Object cacheKey, int limit, FutureTask<FeedPayload> task) {
+            this.cacheKey = cacheKey;
+            this.limit = limit;
+            this.task = task;
+        }
+    }
+
+    /**
+     * A format and a content id, unversioned for feeds and versioned for
+     * items.
+     */
+    private static final class FeedKey {
+        private final String format;
+        private final ContentId contentId;
+
+        FeedKey(String format, ContentId contentId) {
+            this.format = format;
+            this.contentId = contentId;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FeedKey)) {
+                return false;
+            }
+            FeedKey other = (FeedKey) obj;
+            return format.equals(other.format) && contentId.equals(other.contentId);
+        }
+
+        public int hashCode() {
+            return format.hashCode() * 31 + contentId.hashCode();
+        }
+    }
+
+    public FeedPayloadCache(int maxSize, int maxItems) {
+        this(maxSize, maxItems, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of cached feeds
+     * @param maxItems
+     *            the maximum number of cached serialized items
+     * @param ttl
+     *            the time to live of a feed, in milliseconds
+     */
+    public FeedPayloadCache(int maxSize, int maxItems, long ttl) {
+        feeds = new LRUCache<FeedKey, Entry>(maxSize);
+        items = new LRUCache<FeedKey, byte[]>(maxItems);
+        this.ttl = ttl;
+    }
+
+    public static FeedPayloadCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the serialized feed of a queue, building it if the queue or any of
+     * its contents changed since it was last built.
+     * 
+     * @param queue
+     *            the queue, a policy
+     * @param serializer
+     *            the serializer of the feed format
+     * @param limit
+     *            the maximum number of items in the feed
+     * @return the serialized feed
+     * @throws CMException
+     *             if the feed could not be built
+     */
+    public FeedPayload getPayload(PagedPublishingQueue queue, FeedItemSerializer serializer, int limit)
+            throws CMException {
+        if (!(queue instanceof Policy)) {
+            throw new IllegalArgumentException("Queue is not a policy: " + queue);
+        }
+        OperationMetrics metrics = BaselineMetrics.FEED_PAYLOAD;
+        long start = metrics.start();
+        boolean succeeded = false;
+        try {
+            FeedPayload payload = getOrBuildPayload(queue, serializer, limit);
+            succeeded = true;
+            return payload;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
+
+    private FeedPayload getOrBuildPayload(final PagedPublishingQueue queue, final FeedItemSerializer serializer,
+            final int limit) throws CMException {
+        if (!isCommitted(queue)) {
+            // Built without the cache key, which walks the listed contents
+            BaselineMetrics.FEED_PAYLOAD.miss();
+            return serialize(queue, serializer, limit, null);
+        }
+        ContentId queueId = ((Policy) queue).getContentId();
+        final FeedKey feedKey = new FeedKey(serializer.getFormat(), queueId.getContentId());
+        final Object cacheKey = queue instanceof CacheKeyProvider ? ((CacheKeyProvider) queue).getCacheKey() : queueId;
+
+        final Entry entry = feeds.get(feedKey);
+        if (entry != null && entry.limit == limit && entry.cacheKey.equals(cacheKey)
+                && System.currentTimeMillis() - entry.built < ttl) {
+            BaselineMetrics.FEED_PAYLOAD.hit();
+            return entry.payload;
+        }
+        BaselineMetrics.FEED_PAYLOAD.miss();
+
+        // Requests arriving while the feed is built wait for that build
+        // instead of building it again
+        Build build = new Build(cacheKey, limit, new FutureTask<FeedPayload>(new Callable<FeedPayload>() {
+            public FeedPayload call() throws CMException {
+                return buildPayload(queue, serializer, limit, feedKey, cacheKey, entry);
+            }
+        }));
+        Build running = building.putIfAbsent(feedKey, build);
+        if (running == null) {
+            try {
+                build.task.run();
+                return awaitPayload(build.task);
+            } finally {
+                building.remove(feedKey, build);
+            }
+        }
+        if (running.limit == limit && running.cacheKey.equals(cacheKey)) {
+            return awaitPayload(running.task);
+        }
+        // A build for another version of the queue is running
+        return buildPayload(queue, serializer, limit, feedKey, cacheKey, entry);
+    }
+
+    private FeedPayload buildPayload(PagedPublishingQueue queue, FeedItemSerializer serializer, int limit,
+            FeedKey feedKey, Object cacheKey, Entry entry) throws CMException {
+        FeedPayload payload = serialize(queue, serializer, limit, entry);
+        feeds.put(feedKey, new Entry(cacheKey, limit, payload));
+        return payload;
+    }
+
+    private FeedPayload serialize(PagedPublishingQueue queue, FeedItemSerializer serializer, int limit, Entry entry)
+            throws CMException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(bytes, serializer.serializeHeader(queue));
+        List<Feedable> feedables = queue.getFeedables(0, limit);
+        for (Feedable feedable : feedables) {
+            write(bytes, getItem(serializer, feedable));
+        }
+        write(bytes, serializer.serializeFooter(queue));
+
+        byte[] serialized = bytes.toByteArray();
+        String etag = createETag(serialized);
+
+        // A rebuild giving the same bytes, e.g. after a change to a content
+        // not in the feed, keeps the time of the last real change
+        long lastModified = System.currentTimeMillis();
+        if (entry != null && entry.payload.getETag().equals(etag)) {
+            lastModified = entry.payload.getLastModified();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(serialized.length);
+        buffer.put(serialized);
+        buffer.flip();
+        return new FeedPayload(buffer.asReadOnlyBuffer(), etag, lastModified);
+    }
+
+    private static FeedPayload awaitPayload(FutureTask<FeedPayload> task) throws CMException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CMException) {
+                throw (CMException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unexpected error building feed", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private byte[] getItem(FeedItemSerializer serializer, Feedable feedable) throws CMException {
+        ContentId versionedId = feedable instanceof Policy ? ((Policy) feedable).getContentId() : null;
+        if (versionedId == null || !isCommitted(feedable)) {
+            return serializer.serializeItem(feedable);
+        }
+
+        FeedKey itemKey = new FeedKey(serializer.getFormat(), versionedId);
+        byte[] item = items.get(itemKey);
+        if (item == null) {
+            item = serializer.serializeItem(feedable);
+            items.put(itemKey, item);
+        }
+        return item;
+    }
+
+    private static void write(ByteArrayOutputStream bytes, byte[] data) {
+        if (data != null) {
+            bytes.write(data, 0, data.length);
+        }
+    }
+
+    private static boolean isCommitted(Object policy) {
+        return !(policy instanceof ContentBasePolicy) || ((ContentBasePolicy) policy).isCommitted();
+    }
+
+    private static String createETag(byte[] serialized) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported", e);
+        }
+        byte[] hash = digest.digest(serialized);
+        StringBuilder etag = new StringBuilder(hash.length * 2 + 2);
+        etag.append('"');
+        for (int i = 0; i < hash.length; i++) {
+            etag.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+            etag.append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * Removes the cached feeds of a queue in all formats. Items are kept, as
+     * they are keyed by content version.
+     */
+    public void invalidate(ContentId queueId) {
+        ContentId unversioned = queueId.getContentId();
+        for (FeedKey key : feeds.snapshot().keySet()) {
+            if (key.contentId.equals(unversioned)) {
+                feeds.remove(key);
+            }
+        }
+    }
+
+    public void clear() {
+        feeds.clear();
+        items.clear();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.atex.plugins.baseline.util.BaselineMetrics;
+import com.atex.plugins.baseline.util.PolicyBatchLoader;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.ContentReference;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.collections.ContentListRead;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+/**
+ * Iterator over the {@link Feedable} contents of a content list. The referred
+ * contents are loaded page by page as the iterator is consumed, so only the
+ * pages actually read are loaded. If the list is a {@link ContentListPaged},
+ * further pages of the list itself are fetched when the entries held by the
+ * list have been consumed. The fetched pages are kept by the iterator, not
+ * added to the list, which is typically shared.
+ * <p>
+ * As the iterator interface does not allow checked exceptions, a failure to
+ * read the content list is logged and ends the iteration. Callers that can
+ * handle the failure use {@link #load()} instead of {@link #hasNext()}.
+ */
+public class FeedableIterator implements Iterator<Feedable> {
+
+    private static final Logger LOG = Logger.getLogger(FeedableIterator.class.getName());
+
+    private final ContentListRead contentList;
+
+    private final PolicyCMServer cmServer;
+
+    private final int pageSize;
+
+    private int position;
+
+    private boolean exhausted;
+
+    private List<Feedable> page = Collections.emptyList();
+
+    private int pageIndex;
+
+    private ContentListCursor nextPageCursor;
+
+    private List<ContentReference> fetched = Collections.emptyList();
+
+    private int fetchedStart;
+
+    /**
+     * @param contentList
+     *            the content list to iterate
+     * @param cmServer
+     *            the cm server to load the contents from
+     * @param pageSize
+     *            the number of list entries to load at a time
+     */
+    public FeedableIterator(ContentListRead contentList, PolicyCMServer cmServer, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive, was " + pageSize);
+        }
+        this.contentList = contentList;
+        this.cmServer = cmServer;
+        this.pageSize = pageSize;
+        if (contentList instanceof ContentListPaged) {
+            nextPageCursor = ((ContentListPaged) contentList).getNextPageCursor();
+        }
+    }
+
+    public boolean hasNext() {
+        try {
+            return load();
+        } catch (CMException e) {
+            LOG.log(Level.WARNING, "Failed to load feedables, ending iteration at list position " + position, e);
+            exhausted = true;
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #hasNext()}, but a failure to load the next page is thrown
+     * rather than ending the iteration.
+     * 
+     * @return true if there are more feedables
+     * @throws CMException
+     *             if the next page could not be loaded
+     */
+    boolean load() throws CMException {
+        while (pageIndex >= page.size() && !exhausted) {
+            loadPage();
+        }
+        return pageIndex < page.size();
+    }
+
+    public Feedable next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(pageIndex++);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void loadPage() throws CMException {
+        int size = contentList.size();
+        int end = Math.max(size, fetchedStart + fetched.size());
+
+        if (position >= end) {
+            if (!fetchNextPage(end)) {
+                exhausted = true;
+                return;
+            }
+            end = fetchedStart + fetched.size();
+        }
+        int pageEnd = Math.min(end, position + pageSize);
+
+        List<ContentId> contentIds = new ArrayList<ContentId>(pageEnd - position);
+        for (; position < pageEnd; position++) {
+            ContentReference entry = position < size ? contentList.getEntry(position) : fetched.get(position
+                    - fetchedStart);
+            ContentId contentId = entry.getReferredContentId();
+            if (contentId.getMajor() == 1) {
+                contentIds.add(contentId);
+            }
+        }
+        exhausted = position >= end && nextPageCursor == null;
+
+        BaselineMetrics.FEEDABLES.fetched(contentIds.size());
+        Policy[] policies = PolicyBatchLoader.getInstance().loadPolicies(cmServer,
+                contentIds.toArray(new ContentId[contentIds.size()]));
+
+        List<Feedable> feedables = new ArrayList<Feedable>(policies.length);
+        for (int i = 0; i < policies.length; i++) {
+            if (policies[i] instanceof Feedable) {
+                feedables.add((Feedable) policies[i]);
+            }
+        }
+        page = feedables;
+        pageIndex = 0;
+    }
+
+    /**
+     * Fetches the next page of a {@link ContentListPaged}, replacing the
+     * previously fetched page, which has been consumed.
+     * 
+     * @param start
+     *            the list position of the page
+     * @return true if the page has entries
+     */
+    private boolean fetchNextPage(int start) throws CMException {
+        if (nextPageCursor == null) {
+            return false;
+        }
+        ContentListPage next = ((ContentListPaged) contentList).fetchPage(nextPageCursor);
+        fetched = next.getEntries();
+        fetchedStart = start;
+        nextPageCursor = next.getNextPageCursor();
+        return !fetched.isEmpty();
+    }
+}
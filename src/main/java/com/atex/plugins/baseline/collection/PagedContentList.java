@@ -0,0 +1,121 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.collections.ContentList;
+
+/**
+ * {@link ContentListPaged} holding the first page of a list, e.g. the first
+ * hits of a search, and reading further pages from a
+ * {@link ContentListPageSource}. The content list operations are delegated to
+ * the first page list, while the paging state is fixed at creation, so the
+ * list can be shared between threads as long as the first page list can.
+ * <p>
+ * The list is created as a proxy of {@link ContentListPaged}, which keeps it
+ * independent of the full content list interface.
+ */
+public final class PagedContentList implements InvocationHandler {
+
+    private final ContentList firstPage;
+
+    private final int knownSize;
+
+    private final int estimatedTotalSize;
+
+    private final ContentListCursor nextPageCursor;
+
+    private final ContentListPageSource pageSource;
+
+    private PagedContentList(ContentList firstPage, ContentListCursor nextPageCursor, int estimatedTotalSize,
+            ContentListPageSource pageSource) throws CMException {
+        this.firstPage = firstPage;
+        this.knownSize = firstPage.size();
+        this.nextPageCursor = nextPageCursor;
+        this.estimatedTotalSize = estimatedTotalSize;
+        this.pageSource = pageSource;
+    }
+
+    /**
+     * Creates a paged content list.
+     * 
+     * @param firstPage
+     *            the entries of the first page
+     * @param nextPageCursor
+     *            the cursor of the second page, or null if the first page
+     *            holds all entries
+     * @param estimatedTotalSize
+     *            the estimated total number of entries, or -1 if unknown
+     * @param pageSource
+     *            the source of the following pages
+     * @throws CMException
+     *             if the size of the first page could not be read
+     */
+    public static ContentListPaged create(ContentList firstPage, ContentListCursor nextPageCursor,
+            int estimatedTotalSize, ContentListPageSource pageSource) throws CMException {
+        return (ContentListPaged) Proxy.newProxyInstance(ContentListPaged.class.getClassLoader(),
+                new Class<?>[] { ContentListPaged.class }, new PagedContentList(firstPage, nextPageCursor,
+                        estimatedTotalSize, pageSource));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Class<?> declaringClass = method.getDeclaringClass();
+        if (declaringClass == ContentListPaged.class || declaringClass == ContentListLazy.class) {
+            return invoke(PagedContentList.class.getMethod(method.getName(), method.getParameterTypes()), this, args);
+        }
+        if (declaringClass == Object.class) {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return "PagedContentList[knownSize=" + knownSize + ", next=" + nextPageCursor + "]";
+        }
+        return invoke(method, firstPage, args);
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    public boolean isComplete() {
+        return nextPageCursor == null;
+    }
+
+    public int getKnownSize() {
+        return knownSize;
+    }
+
+    public int getEstimatedTotalSize() {
+        return estimatedTotalSize;
+    }
+
+    public ContentListCursor getNextPageCursor() {
+        return nextPageCursor;
+    }
+
+    public ContentListPage fetchPage(ContentListCursor cursor) throws CMException {
+        if (cursor == null) {
+            throw new IllegalArgumentException("No cursor");
+        }
+        return pageSource.fetchPage(cursor);
+    }
+}
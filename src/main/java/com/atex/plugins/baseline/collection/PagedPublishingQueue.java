@@ -0,0 +1,42 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.polopoly.cm.client.CMException;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+/**
+ * A publishing queue giving access to its {@link Feedable} objects a page at
+ * a time, so that rendering the first items of a long queue does not load all
+ * of it.
+ */
+public interface PagedPublishingQueue extends ModelTypeDescriptionPublishingQueue {
+
+    /**
+     * Gets a page of the {@link Feedable} objects in this queue. Only the
+     * entries needed to fill the page are loaded.
+     * 
+     * @param offset
+     *            the number of feedables to skip
+     * @param limit
+     *            the maximum number of feedables to return
+     * @throws CMException
+     *             if the queue or its contents could not be read
+     */
+    List<Feedable> getFeedables(int offset, int limit) throws CMException;
+
+    /**
+     * Gets an iterator loading the {@link Feedable} objects in this queue as
+     * they are consumed.
+     */
+    Iterator<Feedable> getFeedableIterator() throws CMException;
+}
@@ -10,19 +10,23 @@
 package com.atex.plugins.baseline.collection;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+import com.atex.plugins.baseline.content.CacheKey;
+import com.atex.plugins.baseline.content.CacheKeyBuilder;
 import com.atex.plugins.baseline.content.ContentBasePolicy;
+import com.atex.plugins.baseline.util.BaselineMetrics;
+import com.atex.plugins.baseline.util.OperationMetrics;
+import com.atex.plugins.baseline.util.PolicyBatchLoader;
 import com.polopoly.cm.ContentId;
 import com.polopoly.cm.ContentReference;
 import com.polopoly.cm.app.policy.ContentListModel;
 import com.polopoly.cm.client.CMException;
-import com.polopoly.cm.client.ContentOperationFailedException;
 import com.polopoly.cm.collections.ContentList;
 import com.polopoly.cm.collections.ContentListProvider;
 import com.polopoly.cm.collections.ContentListRead;
 import com.polopoly.cm.policy.Policy;
-import com.polopoly.cm.policy.PolicyCMServer;
 import com.polopoly.model.ModelDomain;
 import com.polopoly.model.ModelFactory;
 import com.polopoly.siteengine.dispatcher.SiteEngine;
@@ -56,15 +60,103 @@ import com.polopoly.siteengine.standard.feed.Feedable;
  * @see example.collection.PublishingQueuePolicyBase
  */
 public class PublishingQueuePolicyBase extends ContentBasePolicy
-        implements ContentListProvider, FeedProvider, ModelTypeDescriptionPublishingQueue {
+        implements ContentListProvider, FeedProvider, PagedPublishingQueue {
+
+    /**
+     * Number of list entries loaded at a time by {@link #getFeedableIterator()}.
+     */
+    private static final int FEEDABLE_PAGE_SIZE = 20;
+
+    private static final int MAX_FEEDABLE_PAGE_SIZE = 200;
+
+    /**
+     * System property holding the number of milliseconds the versions of the
+     * listed contents are trusted before they are checked again by
+     * {@link #getCacheKey()}.
+     */
+    public static final String DEPENDENCY_CHECK_INTERVAL_PROPERTY =
+            "com.atex.plugins.baseline.publishingQueue.dependencyCheckInterval";
+
+    private static final long DEPENDENCY_CHECK_INTERVAL = Long.getLong(DEPENDENCY_CHECK_INTERVAL_PROPERTY, 30000L)
+            .longValue();
+
+    private volatile WrappedContentList wrappedContentList;
+
+    private volatile Dependencies dependencies;
+
+    /**
+     * The versions of the listed contents, as last checked.
+     */
+    private static final class Dependencies {
+        private final ContentList sourceContentList;
+        private final CacheKey versions;
+        private final long checked;
+
+        Dependencies(ContentList sourceContentList, CacheKey versions, long checked) {
+            this.sourceContentList = sourceContentList;
+            this.versions = versions;
+            this.checked = checked;
+        }
+    }
+
+    /**
+     * A content list model together with what it was created from.
+     */
+    private static final class WrappedContentList {
+        private final ContentId version;
+        private final ContentList sourceContentList;
+        private final SiteEngineApplication application;
+        private final ContentList model;
+
+        WrappedContentList(ContentId version, ContentList sourceContentList, SiteEngineApplication application,
+                ContentList model) {
+            this.version = version;
+            this.sourceContentList = sourceContentList;
+            this.application = application;
+            this.model = model;
+        }
+
+        boolean isCreatedFrom(ContentId contentId, ContentList contentList, SiteEngineApplication app) {
+            return sourceContentList == contentList && application == app
+                    && (version == null ? contentId == null : version.equals(contentId));
+        }
+    }
+
     /**
      * Gets the content list as a ContentListModel. If no ModelDomain is
      * available, the unwrapped ContentList is returned.
+     * <p>
+     * The model is created once and reused for as long as the version of
+     * this policy, the source content list instance and the site engine
+     * application stay the same. The model reads through to the source
+     * content list, so edits made to that list are visible without creating a
+     * new model, and the listed contents are never looked up.
      */
     public final ContentList getContentList() throws CMException {
+        OperationMetrics metrics = BaselineMetrics.CONTENT_LIST;
+        long start = metrics.start();
+        boolean succeeded = false;
+        try {
+            ContentList contentList = getContentListModel();
+            succeeded = true;
+            return contentList;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
+
+    private ContentList getContentListModel() throws CMException {
         ContentList contentList = getSourceContentList();
 
         SiteEngineApplication application = SiteEngine.getApplication();
+        ContentId version = getContentId();
+
+        WrappedContentList wrapped = wrappedContentList;
+        if (wrapped != null && wrapped.isCreatedFrom(version, contentList, application)) {
+            BaselineMetrics.CONTENT_LIST.hit();
+            return wrapped.model;
+        }
+        BaselineMetrics.CONTENT_LIST.miss();
 
         if (application != null) {
             ModelFactory modelFactory = application.getModelFactory();
@@ -77,7 +169,9 @@ public class PublishingQueuePolicyBase extends ContentBasePolicy
                 // simplifying access patterns in template languages like
                 // velocity or
                 // JSP.
-                contentList = (ContentListModel) modelFactory.createModel(modelDomain, contentList);
+                ContentList model = (ContentListModel) modelFactory.createModel(modelDomain, contentList);
+                wrappedContentList = new WrappedContentList(version, contentList, application, model);
+                contentList = model;
             } else {
                 logger.fine("Using unwrapped content list. ModelFactory: '" + modelFactory + "', ModelDomain: '" + modelDomain
                         + "'");
@@ -88,6 +182,65 @@ public class PublishingQueuePolicyBase extends ContentBasePolicy
         return contentList;
     }
 
+    /**
+     * The cache key of a publishing queue depends on its version, its context
+     * dimensions and the latest committed versions of the contents, and meta
+     * data contents, in its source content list. The key changes when any
+     * listed content gets a new committed version, without the queue itself
+     * being modified, and is the same for every instance of the queue version
+     * listing the same versions, on any node.
+     * <p>
+     * The listed versions of a committed queue version are looked up once and
+     * then checked again at most once per dependency check interval, so
+     * reading the key does not walk the list.
+     * 
+     * @see #DEPENDENCY_CHECK_INTERVAL_PROPERTY
+     */
+    public Object getCacheKey() throws CMException {
+        CacheKeyBuilder builder = new CacheKeyBuilder().add(getContentId());
+        addCacheKeyDimensions(builder);
+        return builder.add(getDependencies().versions).build();
+    }
+
+    private Dependencies getDependencies() throws CMException {
+        ContentList contentList = getSourceContentList();
+        long now = System.currentTimeMillis();
+
+        // Working copies may still be edited, so their list is always checked
+        Dependencies dependencies = this.dependencies;
+        if (dependencies != null && dependencies.sourceContentList == contentList
+                && now - dependencies.checked < DEPENDENCY_CHECK_INTERVAL && isCommittedVersion()) {
+            return dependencies;
+        }
+        dependencies = new Dependencies(contentList, getListedVersions(contentList), now);
+        this.dependencies = dependencies;
+        return dependencies;
+    }
+
+    private CacheKey getListedVersions(ContentListRead contentList) throws CMException {
+        CacheKeyBuilder builder = new CacheKeyBuilder();
+        int size = contentList.size();
+        builder.add(size);
+        for (int j = 0; j < size; j++) {
+            ContentReference entry = contentList.getEntry(j);
+            builder.add(getLatestCommittedVersion(entry.getReferredContentId()));
+            builder.add(getLatestCommittedVersion(entry.getReferenceMetaDataId()));
+        }
+        return builder.build();
+    }
+
+    private ContentId getLatestCommittedVersion(ContentId contentId) {
+        if (contentId == null) {
+            return null;
+        }
+        try {
+            return getCMServer().translateSymbolicContentId(contentId.getLatestCommittedVersionId());
+        } catch (CMException e) {
+            // Removed or never committed, stays so until the list changes
+            return contentId.getContentId();
+        }
+    }
+
     /**
      * Get the source content list. The default is that the source content list
      * is the contents default content list. By overriding this method, other
@@ -104,33 +257,117 @@ public class PublishingQueuePolicyBase extends ContentBasePolicy
     }
 
     /**
-     * Method to get all {@link Feedable} objects contained in this queue
+     * Method to get all {@link Feedable} objects contained in this queue. The
+     * referred contents are loaded as one batch using the
+     * {@link PolicyBatchLoader}.
      * 
      * @return List of {@link Feedable}s
      */
     public final List<Feedable> getFeedables() throws CMException {
-        List<Feedable> feedables = new ArrayList<Feedable>();
+        OperationMetrics metrics = BaselineMetrics.FEEDABLES;
+        long start = metrics.start();
+        boolean succeeded = false;
+        try {
+            List<Feedable> feedables = loadFeedables();
+            succeeded = true;
+            return feedables;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
 
+    private List<Feedable> loadFeedables() throws CMException {
         ContentListRead contentList = getContentList();
-        PolicyCMServer cmServer = getCMServer();
-        for (int j = 0; j < contentList.size(); j++) {
+
+        int size = contentList.size();
+        List<ContentId> contentIds = new ArrayList<ContentId>(size);
+        for (int j = 0; j < size; j++) {
             ContentId contentId = contentList.getEntry(j).getReferredContentId();
             if (contentId.getMajor() == 1) {
-                try {
-                    Policy content = cmServer.getPolicy(contentId);
-                    if (content instanceof Feedable) {
-                        feedables.add((Feedable) content);
-                    }
-                } catch (ContentOperationFailedException e) {
-                    // The content may be non-public or similar (or maybe even
-                    // removed!).
-                    // We can safely ignore this and proceed with any other
-                    // feedables.
-                    // Logging this could lead to serious spamming of the logs
-                    // so we don't.
-                }
+                contentIds.add(contentId);
+            }
+        }
+
+        // Contents that are non-public or similar (or maybe even removed!) are
+        // returned as null by the loader. We can safely ignore these and
+        // proceed with any other feedables. Logging this could lead to
+        // serious spamming of the logs so we don't.
+        BaselineMetrics.FEEDABLES.fetched(contentIds.size());
+        Policy[] policies = PolicyBatchLoader.getInstance().loadPolicies(getCMServer(),
+                contentIds.toArray(new ContentId[contentIds.size()]));
+
+        List<Feedable> feedables = new ArrayList<Feedable>(policies.length);
+        for (int i = 0; i < policies.length; i++) {
+            if (policies[i] instanceof Feedable) {
+                feedables.add((Feedable) policies[i]);
             }
         }
         return feedables;
     }
+
+    /**
+     * Gets a page of the {@link Feedable} objects contained in this queue.
+     * Contents are loaded only until the page is filled, so the cost is
+     * proportional to <code>offset + limit</code> rather than to the queue
+     * length.
+     * 
+     * @param offset
+     *            the number of feedables to skip
+     * @param limit
+     *            the maximum number of feedables to return
+     * @return List of at most <code>limit</code> {@link Feedable}s
+     * @throws CMException
+     *             if the queue or a page of its contents could not be read
+     */
+    public final List<Feedable> getFeedables(int offset, int limit) throws CMException {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Negative offset or limit: " + offset + ", " + limit);
+        }
+        List<Feedable> feedables = new ArrayList<Feedable>(Math.min(limit, MAX_FEEDABLE_PAGE_SIZE));
+        if (limit == 0) {
+            return feedables;
+        }
+
+        OperationMetrics metrics = BaselineMetrics.FEEDABLES;
+        long start = metrics.start();
+        boolean succeeded = false;
+        try {
+            int pageSize = (int) Math.min(MAX_FEEDABLE_PAGE_SIZE, (long) offset + limit);
+            FeedableIterator iterator = new FeedableIterator(getPagedContentList(), getCMServer(), pageSize);
+            for (int skipped = 0; skipped < offset && iterator.load(); skipped++) {
+                iterator.next();
+            }
+            while (feedables.size() < limit && iterator.load()) {
+                feedables.add(iterator.next());
+            }
+            succeeded = true;
+            return feedables;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
+
+    /**
+     * Gets an iterator over the {@link Feedable} objects contained in this
+     * queue, loading the contents a page at a time as the iterator is
+     * consumed.
+     * 
+     * @see FeedableIterator
+     */
+    public final Iterator<Feedable> getFeedableIterator() throws CMException {
+        return new FeedableIterator(getPagedContentList(), getCMServer(), FEEDABLE_PAGE_SIZE);
+    }
+
+    /**
+     * Gets the source content list if it is a {@link ContentListPaged}, so
+     * that iterating feedables can fetch further pages of it, otherwise the
+     * content list.
+     */
+    private ContentListRead getPagedContentList() throws CMException {
+        ContentList sourceContentList = getSourceContentList();
+        if (sourceContentList instanceof ContentListPaged) {
+            return sourceContentList;
+        }
+        return getContentList();
+    }
 }
@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.logging.Level;
 
+import com.atex.plugins.baseline.util.ContentIdList;
 import com.polopoly.cm.ContentId;
 import com.polopoly.cm.ContentReference;
 import com.polopoly.cm.app.policy.SingleValued;
@@ -26,6 +27,8 @@ import com.polopoly.siteengine.layout.ContentRepresentative;
  * @see example.collection.PublishingQueuePolicyManual
  */
 public class PublishingQueuePolicyManual extends PublishingQueuePolicyBase implements ContentRepresentative {
+    private volatile ContentIdList representedContent;
+
     /**
      * Used for html title and for name in crumb trail
      */
@@ -38,7 +41,19 @@ public class PublishingQueuePolicyManual extends PublishingQueuePolicyBase imple
         return title;
     }
 
+    /**
+     * Gets the contents in the list of this queue. The result is an
+     * unmodifiable, compact {@link ContentIdList} and, for committed versions,
+     * computed only once. Results of committed versions are recorded in the
+     * {@link RepresentedContentTracker}, working copies are not, as they may
+     * never be committed.
+     */
     public Collection<ContentId> getRepresentedContent() {
+        ContentIdList result = representedContent;
+        if (result != null) {
+            return result;
+        }
+
         List<ContentId> containedIds = new ArrayList<ContentId>();
         try {
             ListIterator<ContentReference> iterator = getContentList().getListIterator();
@@ -50,8 +65,37 @@ public class PublishingQueuePolicyManual extends PublishingQueuePolicyBase imple
             }
         } catch (CMException e) {
             logger.log(Level.WARNING, "Failed to own contained content for publishing queue " + this.getContentId(), e);
+            return containedIds;
+        }
+
+        result = new ContentIdList(containedIds);
+        if (isCommittedVersion()) {
+            RepresentedContentTracker.getInstance().update(getContentId(), result);
+            representedContent = result;
         }
-        return containedIds;
+        return result;
+    }
+
+    /**
+     * Gets the version of the represented content of this queue, to be passed
+     * to {@link #getRepresentedContentChanges(long)} later on.
+     */
+    public long getRepresentedContentVersion() {
+        getRepresentedContent();
+        return RepresentedContentTracker.getInstance().getVersion(getContentId());
+    }
+
+    /**
+     * Gets the contents added to and removed from the represented content of
+     * this queue since the given version.
+     * 
+     * @param sinceVersion
+     *            a version returned by {@link #getRepresentedContentVersion()}
+     *            or by a previous call to this method
+     */
+    public RepresentedContentChanges getRepresentedContentChanges(long sinceVersion) {
+        getRepresentedContent();
+        return RepresentedContentTracker.getInstance().getChanges(getContentId(), sinceVersion);
     }
 
 }
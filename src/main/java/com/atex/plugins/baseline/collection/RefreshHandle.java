@@ -0,0 +1,132 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle to a refresh of a {@link RefreshableContentListProvider} started by
+ * the {@link ContentListRefresher}. All callers asking for a refresh of the
+ * same list while it is running share the same handle.
+ */
+public class RefreshHandle {
+
+    private final RefreshableContentListProvider provider;
+
+    private final Object refreshKey;
+
+    private final FutureTask<Object> task;
+
+    private final long startTime;
+
+    RefreshHandle(RefreshableContentListProvider provider, Object refreshKey, FutureTask<Object> task) {
+        this.provider = provider;
+        this.refreshKey = refreshKey;
+        this.task = task;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * The provider the refresh runs on, a private copy for background
+     * refreshes.
+     */
+    public RefreshableContentListProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * The refresh key of the refreshed list, or null if the provider is not a
+     * {@link SharedRefreshContentListProvider}.
+     */
+    public Object getRefreshKey() {
+        return refreshKey;
+    }
+
+    /**
+     * The time the refresh was requested, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public boolean isDone() {
+        return task.isDone();
+    }
+
+    /**
+     * Runs the refresh on the calling thread.
+     */
+    void run() {
+        task.run();
+    }
+
+    /**
+     * Waits for the refresh to complete, successfully or not.
+     */
+    void awaitDone() throws InterruptedException {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            // Reported to the callers of await
+        }
+    }
+
+    /**
+     * Takes over the result of a completed refresh into the given provider,
+     * on the calling thread. The provider is left as it was while the refresh
+     * is running, so it can be polled from requests using the provider.
+     * 
+     * @param target
+     *            the provider to update, with the refresh key of this refresh
+     * @return true if the refresh was completed and taken over
+     * @throws Exception
+     *             the exception thrown by the refresh, if it failed
+     */
+    public boolean completeInto(SharedRefreshContentListProvider target) throws Exception {
+        if (!task.isDone()) {
+            return false;
+        }
+        await(0, TimeUnit.MILLISECONDS);
+        if (provider != target) {
+            target.refreshFrom((SharedRefreshContentListProvider) provider);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the refresh to complete.
+     * 
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @throws TimeoutException
+     *             if the refresh did not complete in time, it keeps running
+     *             in the background
+     * @throws InterruptedException
+     *             if the waiting thread was interrupted
+     * @throws Exception
+     *             the exception thrown by the refresh, if it failed
+     */
+    public void await(long timeout, TimeUnit unit) throws Exception {
+        try {
+            task.get(timeout, unit);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+}
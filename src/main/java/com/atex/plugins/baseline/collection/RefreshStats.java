@@ -0,0 +1,110 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import com.polopoly.cm.ContentId;
+
+/**
+ * Statistics of the scheduled refreshes of one content list provider.
+ * @see ContentListRefreshScheduler
+ */
+public class RefreshStats {
+
+    private final ContentId providerId;
+
+    private long lastRefreshTime;
+    private long lastDuration;
+    private long nextRefreshTime;
+    private long refreshCount;
+    private long failureCount;
+    private int consecutiveFailures;
+    private String lastFailure;
+
+    RefreshStats(ContentId providerId) {
+        this.providerId = providerId;
+    }
+
+    public ContentId getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * The time the last successful refresh completed, in milliseconds since
+     * the epoch, or 0 if there has been none.
+     */
+    public synchronized long getLastRefreshTime() {
+        return lastRefreshTime;
+    }
+
+    /**
+     * The duration of the last refresh attempt in milliseconds.
+     */
+    public synchronized long getLastDuration() {
+        return lastDuration;
+    }
+
+    public synchronized long getNextRefreshTime() {
+        return nextRefreshTime;
+    }
+
+    public synchronized long getRefreshCount() {
+        return refreshCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * The number of search failures since the last successful refresh, the
+     * refreshes of the provider are backed off by.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * The message of the last failure, or null if there has been none.
+     */
+    public synchronized String getLastFailure() {
+        return lastFailure;
+    }
+
+    synchronized void succeeded(long endTime, long duration) {
+        lastRefreshTime = endTime;
+        lastDuration = duration;
+        refreshCount++;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * @param searchFailure
+     *            true if the search itself failed, only those count towards
+     *            the consecutive failures
+     */
+    synchronized void failed(long duration, String failure, boolean searchFailure) {
+        lastDuration = duration;
+        failureCount++;
+        if (searchFailure) {
+            consecutiveFailures++;
+        }
+        lastFailure = failure;
+    }
+
+    synchronized void scheduled(long time) {
+        nextRefreshTime = time;
+    }
+
+    public synchronized String toString() {
+        return "RefreshStats[" + providerId.getContentIdString() + ", lastRefreshTime=" + lastRefreshTime
+                + ", lastDuration=" + lastDuration + ", refreshCount=" + refreshCount + ", failureCount=" + failureCount
+                + ", consecutiveFailures=" + consecutiveFailures + "]";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.Collections;
+import java.util.Set;
+
+import com.polopoly.cm.ContentId;
+
+/**
+ * The contents added to and removed from the represented content of a
+ * publishing queue between two versions.
+ * @see RepresentedContentTracker
+ */
+public class RepresentedContentChanges {
+
+    private final long fromVersion;
+    private final long toVersion;
+    private final boolean complete;
+    private final Set<ContentId> added;
+    private final Set<ContentId> removed;
+
+    RepresentedContentChanges(long fromVersion, long toVersion, boolean complete, Set<ContentId> added,
+            Set<ContentId> removed) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.complete = complete;
+        this.added = Collections.unmodifiableSet(added);
+        this.removed = Collections.unmodifiableSet(removed);
+    }
+
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    /**
+     * The version the changes lead up to, to be used as from version the
+     * next time changes are asked for.
+     */
+    public long getToVersion() {
+        return toVersion;
+    }
+
+    /**
+     * Returns false if the from version is no longer known. In that case
+     * {@link #getAdded()} holds all currently represented content and nothing
+     * is known about removed content, so all containment of the queue should
+     * be recomputed.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Unversioned ids of contents represented since the from version.
+     */
+    public Set<ContentId> getAdded() {
+        return added;
+    }
+
+    /**
+     * Unversioned ids of contents no longer represented since the from
+     * version.
+     */
+    public Set<ContentId> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return complete && added.isEmpty() && removed.isEmpty();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.collection;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.atex.plugins.baseline.util.ContentIdList;
+import com.atex.plugins.baseline.util.LRUCache;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+/**
+ * Keeps track of the represented content of publishing queues. Every time the
+ * represented content of a queue is found to differ from what was last
+ * recorded, a new version is created. The last few versions of each queue are
+ * kept so that the contents added and removed since a known version can be
+ * computed, letting an indexer update only the changed containment.
+ * <p>
+ * Updates from a version of a queue older than the last recorded one are
+ * ignored, so an old version rendered at the same time as the current one
+ * does not flip the recorded content back and forth.
+ * <p>
+ * The number of tracked queues can be configured with the system property
+ * <code>com.atex.plugins.baseline.representedContentTracker.size</code>.
+ */
+public class RepresentedContentTracker {
+
+    public static final String SIZE_PROPERTY = "com.atex.plugins.baseline.representedContentTracker.size";
+
+    private static final int DEFAULT_SIZE = 5000;
+
+    /**
+     * Number of versions kept per queue.
+     */
+    private static final int HISTORY_SIZE = 8;
+
+    private static final RepresentedContentTracker INSTANCE = new RepresentedContentTracker(Integer.getInteger(
+            SIZE_PROPERTY, DEFAULT_SIZE));
+
+    private final LRUCache<ContentId, History> histories;
+
+    private final AtomicLong versions = new AtomicLong();
+
+    public RepresentedContentTracker(int maxSize) {
+        histories = new LRUCache<ContentId, History>(maxSize);
+    }
+
+    public static RepresentedContentTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the current represented content of a queue.
+     * 
+     * @param queueId
+     *            the versioned id of the queue the content was read from
+     * @param represented
+     *            the represented content
+     * @return the version of the represented content, unchanged if the
+     *         content is the same as last recorded or was read from an older
+     *         version of the queue
+     */
+    public long update(ContentId queueId, Collection<ContentId> represented) {
+        int queueVersion = queueId instanceof VersionedContentId ? queueId.getVersion() : Integer.MIN_VALUE;
+        return getOrCreateHistory(queueId.getContentId()).update(queueVersion,
+                ContentIdList.sortedUnversioned(represented));
+    }
+
+    /**
+     * Gets the current version of the represented content of a queue.
+     * 
+     * @return the version, or 0 if nothing is recorded for the queue
+     */
+    public long getVersion(ContentId queueId) {
+        History history = histories.get(queueId.getContentId());
+        return history != null ? history.getVersion() : 0;
+    }
+
+    /**
+     * Gets the changes of the represented content of a queue since the given
+     * version.
+     * 
+     * @param queueId
+     *            the id of the queue
+     * @param sinceVersion
+     *            a version previously returned for the queue, or 0
+     * @return the changes, never null
+     */
+    public RepresentedContentChanges getChanges(ContentId queueId, long sinceVersion) {
+        History history = histories.get(queueId.getContentId());
+        if (history == null) {
+            Set<ContentId> none = Collections.emptySet();
+            return new RepresentedContentChanges(sinceVersion, 0, false, none, none);
+        }
+        return history.getChanges(sinceVersion);
+    }
+
+    private History getOrCreateHistory(ContentId queueId) {
+        History history = histories.get(queueId);
+        if (history == null) {
+            synchronized (histories) {
+                history = histories.get(queueId);
+                if (history == null) {
+                    history = new History();
+                    histories.put(queueId, history);
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * The represented content of a queue at one version, as a sorted list of
+     * unversioned ids.
+     */
+    private static final class Snapshot {
+        private final long version;
+        private final ContentIdList ids;
+
+        Snapshot(long version, ContentIdList ids) {
+            this.version = version;
+            this.ids = ids;
+        }
+    }
+
+    private final class History {
+        private final LinkedList<Snapshot> snapshots = new LinkedList<Snapshot>();
+
+        /**
+         * The latest version of the queue recorded.
+         */
+        private int queueVersion = Integer.MIN_VALUE;
+
+        synchronized long update(int version, ContentIdList ids) {
+            if (version < queueVersion) {
+                return getVersion();
+            }
+            queueVersion = version;
+            if (!snapshots.isEmpty() && snapshots.getLast().ids.equals(ids)) {
+                return snapshots.getLast().version;
+            }
+            Snapshot snapshot = new Snapshot(versions.incrementAndGet(), ids);
+            snapshots.addLast(snapshot);
+            if (snapshots.size() > HISTORY_SIZE) {
+                snapshots.removeFirst();
+            }
+            return snapshot.version;
+        }
+
+        synchronized long getVersion() {
+            return snapshots.isEmpty() ? 0 : snapshots.getLast().version;
+        }
+
+        synchronized RepresentedContentChanges getChanges(long sinceVersion) {
+            if (snapshots.isEmpty()) {
+                Set<ContentId> none = Collections.emptySet();
+                return new RepresentedContentChanges(sinceVersion, 0, false, none, none);
+            }
+            Snapshot latest = snapshots.getLast();
+
+            Snapshot since = null;
+            for (Iterator<Snapshot> iterator = snapshots.iterator(); iterator.hasNext();) {
+                Snapshot snapshot = iterator.next();
+                if (snapshot.version == sinceVersion) {
+                    since = snapshot;
+                    break;
+                }
+            }
+
+            if (since == null) {
+                Set<ContentId> none = Collections.emptySet();
+                return new RepresentedContentChanges(sinceVersion, latest.version, false, new HashSet<ContentId>(
+                        latest.ids), none);
+            }
+
+            // Both lists are sorted, so the changes are found in one merge
+            Set<ContentId> added = new HashSet<ContentId>();
+            Set<ContentId> removed = new HashSet<ContentId>();
+            ContentIdList before = since.ids;
+            ContentIdList after = latest.ids;
+            int i = 0;
+            int j = 0;
+            while (i < before.size() || j < after.size()) {
+                int order;
+                if (i == before.size()) {
+                    order = 1;
+                } else if (j == after.size()) {
+                    order = -1;
+                } else {
+                    order = before.compareIgnoreVersion(i, after, j);
+                }
+
+                if (order < 0) {
+                    removed.add(before.get(i++));
+                } else if (order > 0) {
+                    added.add(after.get(j++));
+                } else {
+                    i++;
+                    j++;
+                }
+            }
+            return new RepresentedContentChanges(sinceVersion, latest.version, true, added, removed);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import com.polopoly.cm.client.CMException;
+
+/**
+ * A refreshable content list provider whose refresh can be shared with other
+ * instances listing the same thing, e.g. working copies of the same content
+ * with the same search criteria opened by different editors. The
+ * {@link ContentListRefresher} runs the refresh once and lets the other
+ * instances take over its result.
+ */
+public interface SharedRefreshContentListProvider extends RefreshableContentListProvider {
+
+    /**
+     * Gets the key of what a refresh of this provider computes, typically the
+     * content id together with the current search criteria. Providers with
+     * equal keys share refreshes, so the key must change whenever the result
+     * of a refresh would.
+     * 
+     * @return the key, never null
+     * @throws CMException
+     *             if the criteria could not be read
+     */
+    Object getRefreshKey() throws CMException;
+
+    /**
+     * Takes over the result of a refresh run on another provider with an
+     * equal refresh key, instead of refreshing this provider.
+     * 
+     * @param refreshed
+     *            the provider the refresh ran on
+     * @throws Exception
+     *             if the result could not be taken over
+     */
+    void refreshFrom(SharedRefreshContentListProvider refreshed) throws Exception;
+
+    /**
+     * Creates a private instance with the same refresh key, for a refresh run
+     * in the background by {@link ContentListRefresher#refreshAsync}. The
+     * copy must not be held by any cache or used by other threads, so that
+     * this instance is never modified by the background refresh.
+     * 
+     * @return the copy
+     * @throws CMException
+     *             if the copy could not be created
+     */
+    SharedRefreshContentListProvider createRefreshCopy() throws CMException;
+}
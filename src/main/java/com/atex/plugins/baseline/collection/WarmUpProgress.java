@@ -0,0 +1,96 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.collection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a {@link CacheWarmer} run. Counters are updated by the warm-up
+ * threads and can be read at any time, e.g. by a readiness check.
+ */
+public class WarmUpProgress {
+
+    private final int total;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicInteger completed = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final AtomicInteger contents = new AtomicInteger();
+
+    private volatile long endTime;
+
+    private volatile boolean timedOut;
+
+    WarmUpProgress(int total) {
+        this.total = total;
+    }
+
+    /**
+     * The number of site roots and queues to warm up.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * The number of contents loaded by the warm-up.
+     */
+    public int getContents() {
+        return contents.get();
+    }
+
+    public boolean isDone() {
+        return endTime != 0;
+    }
+
+    /**
+     * True if the warm-up was stopped by its time budget.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * The time spent so far, or in total when done, in milliseconds.
+     */
+    public long getElapsedTime() {
+        long end = endTime;
+        return (end != 0 ? end : System.currentTimeMillis()) - startTime;
+    }
+
+    void completed(int loadedContents) {
+        contents.addAndGet(loadedContents);
+        completed.incrementAndGet();
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    void finish(boolean outOfTime) {
+        timedOut = outOfTime;
+        endTime = System.currentTimeMillis();
+    }
+
+    public String toString() {
+        return (getCompleted() + getFailed()) + "/" + total + " done, " + getFailed() + " failed, " + getContents()
+                + " contents loaded in " + getElapsedTime() + " ms" + (timedOut ? " (time budget exceeded)" : "");
+    }
+}
@@ -9,10 +9,16 @@
 
 package com.atex.plugins.baseline.collection.searchbased;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.apache.solr.client.solrj.SolrServerException;
 
 import com.atex.plugins.baseline.collection.ContentListLazyMessageHandler;
+import com.atex.plugins.baseline.collection.ContentListRefresher;
+import com.atex.plugins.baseline.collection.RefreshHandle;
 import com.atex.plugins.baseline.collection.RefreshableContentListProvider;
+import com.atex.plugins.baseline.collection.SharedRefreshContentListProvider;
 import com.polopoly.cm.app.util.PolicyWidgetUtil;
 import com.polopoly.cm.app.widget.OLayoutWidget;
 import com.polopoly.cm.app.widget.OPolicyWidget;
@@ -27,12 +33,23 @@ import com.polopoly.orchid.ajax.listener.StandardAjaxEventListener;
 import com.polopoly.orchid.ajax.trigger.JsEventTriggerType;
 import com.polopoly.orchid.ajax.trigger.OAjaxTriggerOnEvent;
 import com.polopoly.orchid.context.OrchidContext;
+import com.polopoly.orchid.util.MessageUtil;
 import com.polopoly.orchid.widget.OButton;
 import com.polopoly.orchid.widget.OWidget;
 import com.polopoly.util.LocaleUtil;
 
 /**
- * Button that updates the searched content list.
+ * Button that updates the searched content list. The edited criteria are
+ * always stored first, then the update is run by the
+ * {@link ContentListRefresher}. The search for a
+ * {@link SharedRefreshContentListProvider} runs in the background and is
+ * shared by all editors pressing the button with the same criteria while it
+ * runs. The button waits for it at most the configured timeout (system
+ * property <code>com.atex.plugins.baseline.updateSearchButton.timeout</code>,
+ * in milliseconds). If it is not done by then, the list is left as it was,
+ * the running update is kept, and the editor is told to press the button
+ * again, which picks up its result once it is done. Other providers are
+ * refreshed on the request thread.
  * @see example.collection.searchbased.OUpdateSearchButton
  */
 public class OUpdateSearchButton extends OLayoutWidget {
@@ -41,12 +58,23 @@ public class OUpdateSearchButton extends OLayoutWidget {
      * 
      */
     private static final long serialVersionUID = 1199873987738101273L;
+
+    public static final String TIMEOUT_PROPERTY = "com.atex.plugins.baseline.updateSearchButton.timeout";
+
+    private static final long DEFAULT_TIMEOUT = 10000L;
+
     private OButton updateSearchButton;
     private OAjaxTrigger triggerOnClick;
     private transient RefreshableContentListProvider topPolicy;
     private OPolicyWidget topWidget;
     private transient ContentListLazyMessageHandler contentListMessageHandler;
 
+    /**
+     * The background update started or joined by the last press, while it
+     * has not been taken over.
+     */
+    private transient RefreshHandle pendingRefresh;
+
     public void initSelf(OrchidContext oc) throws OrchidException {
         super.initSelf(oc);
 
@@ -78,11 +106,19 @@ public class OUpdateSearchButton extends OLayoutWidget {
                     if (PolicyWidgetUtil.isEditMode(OUpdateSearchButton.this)) {
                         topWidget.store();
                     }
-                    topPolicy.refresh();
+                    long timeout = Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT).longValue();
+                    if (topPolicy instanceof SharedRefreshContentListProvider) {
+                        refreshShared((SharedRefreshContentListProvider) topPolicy, timeout);
+                    } else {
+                        ContentListRefresher.getInstance().refresh(topPolicy, timeout, TimeUnit.MILLISECONDS);
+                    }
 
                     ContentListProvider contentListProvider = topPolicy;
 
                     contentListMessageHandler.setupWarningMessages(oc, contentListProvider);
+                } catch (TimeoutException e) {
+                    MessageUtil.setWarningMessage(oc, LocaleUtil.format("cm.template.baseline.pq.refreshPending",
+                            oc.getMessageBundle()));
                 } catch (SolrServerException e) {
                     handleError(oc, LocaleUtil.format("p.siteengine.search.expression.syntax.error", oc.getMessageBundle()));
                 } catch (Exception e) {
@@ -112,4 +148,23 @@ public class OUpdateSearchButton extends OLayoutWidget {
         // Attach the listener to the button
         getTree().registerAjaxEventListener(updateSearchButton, onClickListener);
     }
+
+    /**
+     * Polls the pending update if it is for the current criteria, or starts
+     * a new one, and takes over its result if it completes in time.
+     */
+    private void refreshShared(SharedRefreshContentListProvider provider, long timeout) throws Exception {
+        RefreshHandle handle = pendingRefresh;
+        if (handle == null || !handle.getRefreshKey().equals(provider.getRefreshKey())) {
+            handle = ContentListRefresher.getInstance().refreshAsync(provider);
+        }
+        pendingRefresh = null;
+        try {
+            handle.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            pendingRefresh = handle;
+            throw e;
+        }
+        handle.completeInto(provider);
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.content;
+
+import java.util.Arrays;
+
+/**
+ * Compact, immutable cache key created by a {@link CacheKeyBuilder}. Content
+ * ids and versions are stored as plain ints and the hash code is computed
+ * once, so comparing keys never calls into other objects' equals methods
+ * unless the hashes match.
+ */
+public final class CacheKey {
+
+    final int[] numbers;
+
+    final String[] strings;
+
+    private final int hash;
+
+    CacheKey(int[] numbers, String[] strings) {
+        this.numbers = numbers;
+        this.strings = strings;
+        this.hash = 31 * Arrays.hashCode(numbers) + Arrays.hashCode(strings);
+    }
+
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey) obj;
+        return hash == other.hash && Arrays.equals(numbers, other.numbers) && Arrays.equals(strings, other.strings);
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public String toString() {
+        return "CacheKey" + Arrays.toString(numbers) + Arrays.toString(strings);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.polopoly.cm.ContentId;
+
+/**
+ * Builder of {@link CacheKey}s, to be used by {@link CacheKeyProvider}s
+ * needing a key made of more than the versioned content id, e.g.
+ * 
+ * <pre>
+ * return new CacheKeyBuilder().add(getContentId()).addDimension(&quot;device&quot;, device)
+ *         .add(teaserVersionId).build();
+ * </pre>
+ */
+public class CacheKeyBuilder {
+
+    private static final int[] NO_NUMBERS = new int[0];
+
+    private int[] numbers = NO_NUMBERS;
+
+    private int count;
+
+    private List<String> strings;
+
+    /**
+     * Adds a content id, including its version if it is versioned.
+     */
+    public CacheKeyBuilder add(ContentId contentId) {
+        if (contentId == null) {
+            return add(0).add(0).add(0);
+        }
+        return add(contentId.getMajor()).add(contentId.getMinor()).add(contentId.getVersion());
+    }
+
+    public CacheKeyBuilder add(int value) {
+        if (count == numbers.length) {
+            int[] grown = new int[Math.max(16, count * 2)];
+            System.arraycopy(numbers, 0, grown, 0, count);
+            numbers = grown;
+        }
+        numbers[count++] = value;
+        return this;
+    }
+
+    public CacheKeyBuilder add(long value) {
+        return add((int) (value >>> 32)).add((int) value);
+    }
+
+    /**
+     * Adds a context dimension the cached object varies on, such as site,
+     * device or locale.
+     * 
+     * @param name
+     *            the name of the dimension
+     * @param value
+     *            the value of the dimension, may be null
+     */
+    public CacheKeyBuilder addDimension(String name, String value) {
+        if (strings == null) {
+            strings = new ArrayList<String>();
+        }
+        strings.add(name);
+        strings.add(value);
+        return this;
+    }
+
+    /**
+     * Adds all parts of another key, e.g. one computed once for what the
+     * cached object depends on.
+     */
+    public CacheKeyBuilder add(CacheKey key) {
+        add(key.numbers.length).add(key.strings.length);
+        for (int number : key.numbers) {
+            add(number);
+        }
+        if (key.strings.length > 0) {
+            if (strings == null) {
+                strings = new ArrayList<String>();
+            }
+            strings.addAll(Arrays.asList(key.strings));
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return count == 0 && strings == null;
+    }
+
+    public CacheKey build() {
+        int[] keyNumbers = new int[count];
+        System.arraycopy(numbers, 0, keyNumbers, 0, count);
+        String[] keyStrings = strings != null ? strings.toArray(new String[strings.size()]) : new String[0];
+        return new CacheKey(keyNumbers, keyStrings);
+    }
+}
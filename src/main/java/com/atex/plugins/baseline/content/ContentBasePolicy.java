@@ -9,14 +9,32 @@
 
 package com.atex.plugins.baseline.content;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.atex.plugins.baseline.util.AncestryIndex;
+import com.atex.plugins.baseline.util.BaselineMetrics;
+import com.atex.plugins.baseline.util.OperationMetrics;
+import com.atex.plugins.baseline.util.ParentPathCache;
 import com.atex.plugins.baseline.util.ParentPathResolver;
+import com.atex.plugins.baseline.util.PathSegmentCache;
+import com.atex.plugins.baseline.util.PolicyResolutionContext;
 import com.polopoly.cm.ContentId;
 import com.polopoly.cm.ContentInfo;
 import com.polopoly.cm.ExternalContentId;
+import com.polopoly.cm.VersionInfo;
+import com.polopoly.cm.VersionedContentId;
 import com.polopoly.cm.app.policy.SingleValued;
 import com.polopoly.cm.app.util.PreviewContext;
 import com.polopoly.cm.app.util.PreviewContextURLBuilder;
@@ -44,14 +62,63 @@ public class ContentBasePolicy extends ContentPolicy
         CacheKeyProvider {
     protected volatile ContentId[] parentIds;
 
+    private static final AtomicReferenceFieldUpdater<ContentBasePolicy, ContentId[]> PARENT_IDS =
+            AtomicReferenceFieldUpdater.newUpdater(ContentBasePolicy.class, ContentId[].class, "parentIds");
+
+    /**
+     * The parent path resolution in progress, if any.
+     */
+    private volatile FutureTask<ContentId[]> parentIdsTask;
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicReferenceFieldUpdater<ContentBasePolicy, FutureTask> PARENT_IDS_TASK =
+            AtomicReferenceFieldUpdater.newUpdater(ContentBasePolicy.class, FutureTask.class, "parentIdsTask");
+
+    /**
+     * Marks child values known to be missing, compared by identity.
+     */
+    private static final String NO_CHILD_VALUE = new String();
+
+    /**
+     * Names of the single valued policy classes whose value is read from the
+     * stored component only.
+     */
+    private static final Set<String> CONTEXT_FREE_VALUE_TYPES = new HashSet<String>(Arrays.asList(
+            "com.polopoly.cm.app.policy.SingleValuePolicy", "com.polopoly.cm.app.policy.CheckboxPolicy",
+            "com.polopoly.cm.app.policy.SelectPolicy"));
+
+    /**
+     * Child values read from this version, only kept for committed versions.
+     */
+    private volatile Map<String, String> childValues;
+
+    /**
+     * Path segment of this version, only kept for committed versions.
+     */
+    private volatile String pathSegment;
+
+    private volatile ContentInfo contentInfo;
+
+    /**
+     * Whether policy classes override methods, by class and method name.
+     */
+    private static final Map<List<Object>, Boolean> OVERRIDES = new ConcurrentHashMap<List<Object>, Boolean>();
+
     private static Logger LOG = Logger.getLogger(ContentBasePolicy.class.getName());
 
     /**
-     * Initializes parent id array.
+     * Initializes parent id array. Cached parent paths going through this
+     * content are dropped if this version has a new parent.
      */
     protected void initSelf() {
         super.initSelf();
 
+        try {
+            new ParentPathResolver().validateCachedPath(this);
+        } catch (CMException e) {
+            LOG.log(Level.FINE, "Could not validate cached parent paths for " + getContentId(), e);
+        }
+
         initSelfBase();
     }
 
@@ -79,23 +146,132 @@ public class ContentBasePolicy extends ContentPolicy
      * Uses insert parent with security parent as fallback. If no
      * {@link SiteRoot} exists in parent path, an array containg only the id of
      * this policy itself is returned.
+     * <p>
+     * The path is resolved once, without locking the policy. Concurrent
+     * callers share the resolution of the first caller.
      */
     public ContentId[] getParentIds() {
         ContentId[] result = parentIds;
+        if (result != null) {
+            return result;
+        }
 
-        if (result == null) {
-            synchronized (this) {
-                result = parentIds;
-
-                if (result == null) {
-                    parentIds = result = new ParentPathResolver().getParentPathNoExceptions(this, getCMServer());
+        // Threads arriving while the path is resolved wait for that
+        // resolution instead of resolving it again
+        FutureTask<ContentId[]> task = parentIdsTask;
+        if (task == null) {
+            FutureTask<ContentId[]> created = new FutureTask<ContentId[]>(new Callable<ContentId[]>() {
+                public ContentId[] call() {
+                    return resolveParentIds();
+                }
+            });
+            if (PARENT_IDS_TASK.compareAndSet(this, null, created)) {
+                created.run();
+                task = created;
+            } else {
+                task = parentIdsTask;
+                if (task == null) {
+                    // Resolved by another thread in the meantime
+                    return getParentIds();
                 }
             }
         }
 
+        try {
+            result = awaitParentIds(task);
+
+            // Parent ids seeded or set while resolving take precedence
+            if (!PARENT_IDS.compareAndSet(this, null, result)) {
+                ContentId[] current = parentIds;
+                if (current != null) {
+                    result = current;
+                }
+            }
+        } finally {
+            PARENT_IDS_TASK.compareAndSet(this, task, null);
+        }
         return result;
     }
 
+    /**
+     * Resolves the parent ids of this policy, called once by
+     * {@link #getParentIds()} however many threads ask concurrently.
+     */
+    ContentId[] resolveParentIds() {
+        return new ParentPathResolver().getParentPathNoExceptions(this, getCMServer());
+    }
+
+    private ContentId[] awaitParentIds(FutureTask<ContentId[]> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unexpected error resolving parent ids", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sets the parent ids of this policy unless they are already known, e.g.
+     * from paths resolved in bulk for many contents.
+     * 
+     * @param resolvedParentIds
+     *            the parent path as returned by {@link ParentPathResolver}
+     * @return true if the parent ids were set
+     */
+    public boolean seedParentIds(ContentId[] resolvedParentIds) {
+        if (resolvedParentIds == null) {
+            throw new IllegalArgumentException("resolvedParentIds must not be null");
+        }
+        return PARENT_IDS.compareAndSet(this, null, resolvedParentIds);
+    }
+
+    /**
+     * Checks if this content is placed in the given department, directly or
+     * further down. The {@link AncestryIndex} is used when it knows both
+     * contents and this is a committed version whose parent link is the one
+     * known to the {@link ParentPathCache}, otherwise the parent ids of this
+     * content are searched. As parent ids stop below the site root, a site
+     * root is only recognized as a department when indexed.
+     * 
+     * @param departmentId
+     *            the department to check
+     * @return true if the department is in the parent path of this content
+     */
+    public boolean isUnder(ContentId departmentId) {
+        VersionedContentId contentId = getContentId();
+        AncestryIndex index = AncestryIndex.getInstance();
+        if (isCommittedVersion()
+                && ParentPathCache.getInstance().getLinkVersion(contentId.getContentId()) == contentId.getVersion()
+                && index.isIndexed(departmentId) && index.isIndexed(contentId)) {
+            return index.contains(departmentId, contentId);
+        }
+
+        ContentId[] currentParentIds = getParentIds();
+        for (int i = 0; i < currentParentIds.length; i++) {
+            if (currentParentIds[i].equalsIgnoreVersion(departmentId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Convenience method to access value of <code>SingleValued</code> child
      * policies. The method is null-safe and will return "" if the child policy
@@ -115,7 +291,10 @@ public class ContentBasePolicy extends ContentPolicy
     /**
      * Convenience method to access value of <code>SingleValued</code> child
      * policies. The method is null-safe and will return the given default value
-     * if the child policy or component doesn't exist.
+     * if the child policy or component doesn't exist. Values of committed
+     * versions are read from the child policy once and then kept by this
+     * policy, if the child policy is of a type whose value only depends on the
+     * stored component (see {@link #isContextFreeValue(Policy)}).
      * 
      * @param name
      *            the name of the child policy
@@ -127,16 +306,30 @@ public class ContentBasePolicy extends ContentPolicy
      *                if an error occurs
      */
     public final String getChildValue(String name, String defaultValue) {
+        // Committed versions never change, so their values are kept once read
+        Map<String, String> values = isCommittedVersion() ? getChildValues() : null;
+
+        if (values != null) {
+            String value = values.get(name);
+            if (value != null) {
+                return value == NO_CHILD_VALUE ? defaultValue : value;
+            }
+        }
+
         try {
-            SingleValued child = (SingleValued) getChildPolicy(name);
+            Policy child = getChildPolicy(name);
+            String value = null;
 
-            if (child == null) {
-                return defaultValue;
+            if (child instanceof SingleValued) {
+                value = ((SingleValued) child).getValue();
+            } else if (child != null) {
+                LOG.warning(name + " in " + getContentId() + " has unsupported policy.");
             }
 
-            return (child.getValue() != null) ? child.getValue() : defaultValue;
-        } catch (ClassCastException cce) {
-            LOG.warning(name + " in " + getContentId() + " has unsupported policy.");
+            if (values != null && (child == null || isContextFreeValue(child))) {
+                values.put(name, value != null ? value : NO_CHILD_VALUE);
+            }
+            return (value != null) ? value : defaultValue;
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Error getting child value", e);
         }
@@ -144,7 +337,33 @@ public class ContentBasePolicy extends ContentPolicy
         return defaultValue;
     }
 
+    /**
+     * Checks if the value of a child policy only depends on the stored
+     * component, so that it can be kept by this policy. Policies computing
+     * their value, e.g. from the request or the current user, must not be
+     * kept. By default only the plain single value policies of Polopoly are
+     * trusted, subclasses of them are not.
+     * 
+     * @param child
+     *            a child policy of this policy
+     * @return true if the value of the child can be kept
+     */
+    protected boolean isContextFreeValue(Policy child) {
+        return CONTEXT_FREE_VALUE_TYPES.contains(child.getClass().getName());
+    }
+
+    private Map<String, String> getChildValues() {
+        Map<String, String> values = childValues;
+        if (values == null) {
+            // Concurrent initialization only costs a few extra reads
+            childValues = values = new ConcurrentHashMap<String, String>(8, 0.75f, 1);
+        }
+        return values;
+    }
+
     protected void setChildValue(String singleValuedPolicyName, String value) throws CMException {
+        childValues = null;
+
         Policy singleValued = getChildPolicy(singleValuedPolicyName);
         if (singleValued instanceof SingleValued) {
             ((SingleValued) singleValued).setValue(value);
@@ -158,10 +377,23 @@ public class ContentBasePolicy extends ContentPolicy
      * Gets creation date of this content in format (yyyy-MM-dd).
      */
     public Date getCreated() throws CMException {
-        ContentInfo info = getCMServer().getContentInfo(getContentId());
+        ContentInfo info = getContentInfo();
         return new Date(info.getCreationTime());
     }
 
+    /**
+     * Gets the content info of this content. It is fetched once and shared by
+     * {@link #getCreated()}, {@link #getCreator()} and
+     * {@link #getCreatorData()}.
+     */
+    private ContentInfo getContentInfo() throws CMException {
+        ContentInfo info = contentInfo;
+        if (info == null) {
+            contentInfo = info = getCMServer().getContentInfo(getContentId());
+        }
+        return info;
+    }
+
     /**
      * Gets modification date in format (yyyy-MM-dd). Uses commit date of
      * content. Will return now if content is not committed, e.g. in preview.
@@ -179,43 +411,88 @@ public class ContentBasePolicy extends ContentPolicy
     }
 
     /**
-     * Gets creator, i.e. the creator of the first version of this content.
+     * Gets creator, i.e. the creator of the first version of this content. The
+     * policy is resolved once per {@link PolicyResolutionContext}; use
+     * {@link #getCreatorData()} where the user data suffices, it is cached
+     * between requests.
      * 
      * @return the {@link UserDataPolicy} of the creator
      * @throws CMException
      */
     public UserDataPolicy getCreator() throws CMException {
-        ContentInfo info = getCMServer().getContentInfo(getContentId());
+        ContentInfo info = getContentInfo();
 
-        UserDataPolicy userPolicy = (UserDataPolicy) getCMServer().getPolicy(
+        return (UserDataPolicy) PolicyResolutionContext.getPolicy(getCMServer(),
                 new ExternalContentId(info.getCreatedBy().getPrincipalIdString()));
+    }
+
+    /**
+     * Gets the user data of the creator of this content, e.g. for bylines.
+     * The data is looked up through the {@link UserDataCache}.
+     */
+    public UserData getCreatorData() throws CMException {
+        ContentInfo info = getContentInfo();
 
-        return userPolicy;
+        return UserDataCache.getInstance().getUserData(info.getCreatedBy().getPrincipalIdString(), getCMServer());
     }
 
     /**
-     * Get modifier, i.e. the creator of the latest version of this content.
+     * Get modifier, i.e. the creator of the latest version of this content. The
+     * policy is resolved once per {@link PolicyResolutionContext}; use
+     * {@link #getModifierData()} where the user data suffices, it is cached
+     * between requests.
      */
     public UserDataPolicy getModifier() throws CMException {
-        UserDataPolicy userPolicy = (UserDataPolicy) getCMServer().getPolicy(
+        return (UserDataPolicy) PolicyResolutionContext.getPolicy(getCMServer(),
                 new ExternalContentId(getCreatedBy().getPrincipalIdString()));
+    }
 
-        return userPolicy;
+    /**
+     * Gets the user data of the creator of the latest version of this content.
+     * The data is looked up through the {@link UserDataCache}.
+     */
+    public UserData getModifierData() throws CMException {
+        return UserDataCache.getInstance().getUserData(getCreatedBy().getPrincipalIdString(), getCMServer());
     }
 
     /**
      * Returns a friendly path segment representation of this content. Uses path
      * segment field if such exists. Otherwise converts content name to a
-     * friendly format.
+     * friendly format. The segment of a committed version is computed once and
+     * shared with other policy instances of the same version through the
+     * {@link PathSegmentCache}.
      */
     public String getPathSegmentString() throws CMException {
-        String pathSegment = getChildValue("pathsegment");
+        String result = pathSegment;
+        if (result != null) {
+            return result;
+        }
 
-        if (pathSegment.length() == 0) {
-            pathSegment = getName() != null ? getName() : "";
+        if (!isCommittedVersion()) {
+            return createPathSegmentString();
         }
 
-        return FriendlyUrlConverter.convertPermissive(pathSegment).toLowerCase();
+        VersionedContentId versionedId = getContentId();
+        PathSegmentCache cache = PathSegmentCache.getInstance();
+
+        result = cache.get(versionedId);
+        if (result == null) {
+            result = createPathSegmentString();
+            cache.put(versionedId, result);
+        }
+        pathSegment = result;
+
+        return result;
+    }
+
+    private String createPathSegmentString() throws CMException {
+        String segment = getChildValue("pathsegment");
+
+        if (segment.length() == 0) {
+            segment = getName() != null ? getName() : "";
+        }
+
+        return FriendlyUrlConverter.convertPermissive(segment).toLowerCase();
     }
 
     /**
@@ -265,35 +542,34 @@ public class ContentBasePolicy extends ContentPolicy
         return null;
     }
 
+    /**
+     * Checks if this content can be previewed, i.e. if its input template has
+     * an output template and its parent is a {@link Page}. Both checks are
+     * cached in the {@link PreviewabilityCache}, so listing many contents does
+     * not load templates and parents for each of them. The output template
+     * check is not cached for policy classes overriding
+     * <code>getOutputTemplate</code>, as their answer may vary per content.
+     */
     public boolean isPreviewable() {
+        OperationMetrics metrics = BaselineMetrics.PREVIEWABLE;
+        long start = metrics.start();
+        boolean succeeded = false;
         try {
-            // Check if output template exist
-            ContentId itid = getInputTemplateId();
-            InputTemplate it = (InputTemplate) getCMServer().getContent(itid);
-            String[] modes = it.getAvailableOutputTemplateModes();
-            if (modes == null || modes.length == 0) {
-                return false;
-            }
-            boolean hasOutputTemplate = false;
-            for (int i = 0; i < modes.length; i++) {
-                if (getOutputTemplate(modes[i]) != null) {
-                    hasOutputTemplate = true;
-                    break;
-                }
-            }
-            if (!hasOutputTemplate) {
+            boolean previewable = checkPreviewable();
+            succeeded = true;
+            return previewable;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
+
+    private boolean checkPreviewable() {
+        try {
+            if (!hasOutputTemplate()) {
                 return false;
             }
             // Check if parent is ok
-            Policy policy;
-            try {
-                policy = getCMServer().getPolicy(getParentId());
-            } catch (ContentOperationFailedException e) {
-                // Parent might not be committed yet, check for uncommitted
-                // version
-                policy = getCMServer().getPolicy(getParentId().getLatestVersionId());
-            }
-            if (policy instanceof Page) {
+            if (isParentPage()) {
                 if (getChildPolicy("previewable") instanceof Previewable) {
                     return ((Previewable) getChildPolicy("previewable")).isPreviewable();
                 }
@@ -307,21 +583,149 @@ public class ContentBasePolicy extends ContentPolicy
         return false;
     }
 
-    protected void setParentIds(ContentId[] newParentIds) {
-        synchronized (this) {
-            parentIds = newParentIds;
+    private boolean hasOutputTemplate() throws CMException {
+        ContentId itid = getInputTemplateId();
+        BaselineMetrics.PREVIEWABLE.fetched(1);
+        InputTemplate it = (InputTemplate) getCMServer().getContent(itid);
+
+        // Overridden output template lookups may answer per content
+        PreviewabilityCache cache = overrides(getClass(), "getOutputTemplate") ? null : PreviewabilityCache
+                .getInstance();
+        ContentId versionedItid = it.getContentId();
+        Boolean cached = cache != null ? cache.hasOutputTemplate(versionedItid, getClass()) : null;
+        if (cached != null) {
+            BaselineMetrics.PREVIEWABLE.hit();
+            return cached.booleanValue();
         }
+        BaselineMetrics.PREVIEWABLE.miss();
+
+        // Check if output template exist
+        boolean hasOutputTemplate = false;
+        String[] modes = it.getAvailableOutputTemplateModes();
+        if (modes != null) {
+            for (int i = 0; i < modes.length; i++) {
+                if (getOutputTemplate(modes[i]) != null) {
+                    hasOutputTemplate = true;
+                    break;
+                }
+            }
+        }
+        if (cache != null) {
+            cache.setHasOutputTemplate(versionedItid, getClass(), hasOutputTemplate);
+        }
+        return hasOutputTemplate;
+    }
+
+    /**
+     * Checks if a policy class overrides a method taking one string below this
+     * class, e.g. <code>getOutputTemplate(String)</code>.
+     * 
+     * @param policyClass
+     *            the class of a policy
+     * @param methodName
+     *            the name of the method
+     * @return true if the method is declared by the class or a superclass
+     *         below this class
+     */
+    static boolean overrides(Class<?> policyClass, String methodName) {
+        List<Object> key = Arrays.<Object> asList(policyClass, methodName);
+        Boolean overrides = OVERRIDES.get(key);
+        if (overrides == null) {
+            overrides = Boolean.FALSE;
+            for (Class<?> c = policyClass; c != null && c != ContentBasePolicy.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod(methodName, String.class);
+                    overrides = Boolean.TRUE;
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // Not declared by this class
+                }
+            }
+            OVERRIDES.put(key, overrides);
+        }
+        return overrides.booleanValue();
+    }
+
+    private boolean isParentPage() throws CMException {
+        ContentId parentId = getParentId();
+        if (parentId == null) {
+            return false;
+        }
+
+        PreviewabilityCache cache = PreviewabilityCache.getInstance();
+        Boolean cached = cache.isPage(parentId);
+        if (cached != null) {
+            BaselineMetrics.PREVIEWABLE.hit();
+            return cached.booleanValue();
+        }
+        BaselineMetrics.PREVIEWABLE.miss();
+
+        BaselineMetrics.PREVIEWABLE.fetched(1);
+        Policy policy;
+        try {
+            policy = PolicyResolutionContext.getPolicy(getCMServer(), parentId);
+        } catch (ContentOperationFailedException e) {
+            // Parent might not be committed yet, check for uncommitted
+            // version
+            policy = PolicyResolutionContext.getPolicy(getCMServer(), parentId.getLatestVersionId());
+        }
+        boolean page = policy instanceof Page;
+        cache.setPage(parentId, page);
+        return page;
+    }
+
+    /**
+     * Checks if this policy is a committed version, as opposed to a working
+     * copy being edited under the same version number. Caches outside the
+     * policy that are keyed on the versioned content id must skip working
+     * copies.
+     */
+    public boolean isCommitted() {
+        return isCommittedVersion();
+    }
+
+    /**
+     * Checks if this policy is a committed version. Committed versions never
+     * change, so values computed from them can be kept for the lifetime of the
+     * policy.
+     */
+    protected boolean isCommittedVersion() {
+        VersionInfo versionInfo = getVersionInfo();
+        return versionInfo != null && versionInfo.getVersionCommitDate() != null;
+    }
+
+    protected void setParentIds(ContentId[] newParentIds) {
+        parentIds = newParentIds;
     }
 
     /**
      * In most cases, the versioned content ID is a good cache key since the
      * content changes only when new versions are created. For content that is
-     * e.g. context dependent, the context needs to be used to generate the key.
+     * e.g. context dependent, the context needs to be used to generate the key,
+     * which is done by overriding {@link #addCacheKeyDimensions(CacheKeyBuilder)}.
      * 
-     * @return the versioned content ID
+     * @return the versioned content ID, or a {@link CacheKey} if this content
+     *         declares context dimensions
      * @throws CMException
      */
     public Object getCacheKey() throws CMException {
-        return getContentId();
+        CacheKeyBuilder builder = new CacheKeyBuilder();
+        addCacheKeyDimensions(builder);
+
+        if (builder.isEmpty()) {
+            return getContentId();
+        }
+        return builder.add(getContentId()).build();
+    }
+
+    /**
+     * Adds the context dimensions, such as site, device or locale, the output
+     * of this content varies on to its cache key. Nothing is added by default.
+     * 
+     * @param builder
+     *            the builder of the cache key
+     * @throws CMException
+     */
+    protected void addCacheKeyDimensions(CacheKeyBuilder builder) throws CMException {
     }
 }
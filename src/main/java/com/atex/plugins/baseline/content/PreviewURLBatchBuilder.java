@@ -0,0 +1,192 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.content;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.atex.plugins.baseline.util.ParentPathResolver;
+import com.atex.plugins.baseline.util.PolicyBatchLoader;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.app.util.PreviewURLBuilder;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.path.SimpleContentPathTranslator;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.cm.policy.PolicyUtil;
+
+/**
+ * Creates preview URLs for many contents in one pass, e.g. for search results
+ * or queue widgets. The URLs are the same as returned by
+ * {@link ContentBasePolicy#getPreviewURL(String)}, but the contents are loaded
+ * as one batch and the path translator, the home department of the current
+ * caller and the translated parent paths are shared between all contents;
+ * only the segment of each content itself is translated per content. Parent
+ * paths are resolved in bulk with
+ * {@link ParentPathResolver#getParentPaths(Collection, PolicyCMServer)} and
+ * seeded into the loaded policies.
+ * <p>
+ * Policies overriding <code>getPreviewURL(String)</code>, and other
+ * {@link PreviewURLBuilder}s, create their own URLs. A content whose URL cannot
+ * be created in the batch, e.g. as the bulk path resolution failed, falls
+ * back to its own <code>getPreviewURL(String)</code>.
+ * <p>
+ * A builder keeps the parent paths it has translated and is meant to serve one
+ * request; it is not thread-safe.
+ */
+public class PreviewURLBatchBuilder {
+
+    private static final Logger LOG = Logger.getLogger(PreviewURLBatchBuilder.class.getName());
+
+    private final PolicyCMServer cmServer;
+
+    private final SimpleContentPathTranslator pathTranslator;
+
+    private final Map<List<ContentId>, String> parentPaths = new HashMap<List<ContentId>, String>();
+
+    private ContentId homeDepartmentId;
+
+    private boolean homeDepartmentResolved;
+
+    public PreviewURLBatchBuilder(PolicyCMServer cmServer) {
+        this.cmServer = cmServer;
+        this.pathTranslator = new SimpleContentPathTranslator();
+        this.pathTranslator.setPolicyCMServer(cmServer);
+    }
+
+    /**
+     * Gets the preview URLs of the given contents.
+     * 
+     * @param contentIds
+     *            the contents to create preview URLs for
+     * @param previewServletURL
+     *            the URL of the preview servlet
+     * @return the preview URLs by content id, in the order of the given ids.
+     *         Contents that could not be loaded or whose URL could not be
+     *         created are left out.
+     */
+    public Map<ContentId, String> getPreviewURLs(Collection<ContentId> contentIds, String previewServletURL) {
+        Map<ContentId, String> urls = new LinkedHashMap<ContentId, String>();
+
+        ContentId[] ids = contentIds.toArray(new ContentId[contentIds.size()]);
+        Policy[] policies;
+        try {
+            policies = PolicyBatchLoader.getInstance().loadPolicies(cmServer, ids);
+        } catch (CMException e) {
+            LOG.log(Level.WARNING, "Failed to load contents to create preview urls for", e);
+            return urls;
+        }
+
+        Map<ContentId, ContentId[]> parentPaths;
+        try {
+            parentPaths = new ParentPathResolver().getParentPaths(Arrays.asList(ids), cmServer);
+        } catch (CMException e) {
+            // Each content resolves its own path instead
+            LOG.log(Level.WARNING, "Failed to resolve parent paths to create preview urls for", e);
+            parentPaths = Collections.emptyMap();
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (policies[i] == null) {
+                continue;
+            }
+            String url = getPreviewURL(policies[i], parentPaths.get(ids[i]), previewServletURL);
+            if (url != null) {
+                urls.put(ids[i], url);
+            }
+        }
+        return urls;
+    }
+
+    private String getPreviewURL(Policy policy, ContentId[] resolvedParentIds, String previewServletURL) {
+        boolean batched;
+        if (policy instanceof ContentBasePolicy) {
+            batched = !ContentBasePolicy.overrides(policy.getClass(), "getPreviewURL");
+        } else {
+            batched = !(policy instanceof PreviewURLBuilder);
+        }
+        if (batched) {
+            try {
+                return previewServletURL + getPath(policy, resolvedParentIds);
+            } catch (CMException e) {
+                LOG.fine("Failed to create preview url for " + policy.getContentId().getContentIdString()
+                        + " in batch: " + e.getMessage());
+            }
+        }
+        if (policy instanceof PreviewURLBuilder) {
+            try {
+                return ((PreviewURLBuilder) policy).getPreviewURL(previewServletURL);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to create preview url for " + policy.getContentId().getContentIdString(),
+                        e);
+                return null;
+            }
+        }
+        LOG.warning("Failed to create preview url for " + policy.getContentId().getContentIdString());
+        return null;
+    }
+
+    private String getPath(Policy policy, ContentId[] resolvedParentIds) throws CMException {
+        ContentId[] parentIds = resolvedParentIds;
+        if (policy instanceof ContentBasePolicy) {
+            ContentBasePolicy contentBasePolicy = (ContentBasePolicy) policy;
+            if (resolvedParentIds != null) {
+                contentBasePolicy.seedParentIds(resolvedParentIds);
+            }
+            parentIds = contentBasePolicy.getParentIds();
+        } else if (parentIds == null) {
+            throw new CMException("Parent path not resolved");
+        }
+
+        // Same fallback as ContentBasePolicy.getPreviewURL(String): a content
+        // without path is previewed in the home department of the caller
+        ContentId contentId = policy.getContent().getContentId();
+        if (parentIds.length == 1 && parentIds[0].getContentId().equalsIgnoreVersion(contentId)) {
+            parentIds = new ContentId[] { getHomeDepartmentId(), parentIds[0] };
+        }
+
+        // The last id is the content itself, so only the ids before it are
+        // shared with the siblings of the content
+        int last = parentIds.length - 1;
+        if (last < 0) {
+            return pathTranslator.createPath(parentIds);
+        }
+        String ownPath = pathTranslator.createPath(new ContentId[] { parentIds[last] });
+        if (last == 0) {
+            return ownPath;
+        }
+        return getParentPath(Arrays.asList(parentIds).subList(0, last)) + ownPath;
+    }
+
+    private String getParentPath(List<ContentId> parentIds) throws CMException {
+        String path = parentPaths.get(parentIds);
+        if (path == null) {
+            path = pathTranslator.createPath(parentIds.toArray(new ContentId[parentIds.size()]));
+            parentPaths.put(parentIds, path);
+        }
+        return path;
+    }
+
+    private ContentId getHomeDepartmentId() throws CMException {
+        if (!homeDepartmentResolved) {
+            Policy currentCaller = PolicyUtil.getCurrentCallerPolicy(cmServer);
+            homeDepartmentId = currentCaller.getContent().getSecurityParentId();
+            homeDepartmentResolved = true;
+        }
+        return homeDepartmentId;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.content;
+
+import com.atex.plugins.baseline.util.LRUCache;
+import com.polopoly.cm.ContentId;
+
+/**
+ * JVM wide cache of the facts {@link ContentBasePolicy#isPreviewable()} is
+ * based on: whether a policy class rendering an input template version has any
+ * output template, and whether a content is a page. The policy type of a
+ * content follows from its input template and does not change between
+ * versions, so page checks are keyed by unversioned content id.
+ * <p>
+ * Output templates can be imported or removed without a new version of the
+ * input template, so output template answers expire after a time to live.
+ * Tools importing templates can drop them at once with
+ * {@link #invalidateOutputTemplates()}.
+ * <p>
+ * The cache size and time to live can be configured with the system
+ * properties <code>com.atex.plugins.baseline.previewabilityCache.size</code>
+ * and <code>com.atex.plugins.baseline.previewabilityCache.ttl</code>.
+ */
+public class PreviewabilityCache {
+
+    public static final String SIZE_PROPERTY = "com.atex.plugins.baseline.previewabilityCache.size";
+
+    public static final String TTL_PROPERTY = "com.atex.plugins.baseline.previewabilityCache.ttl";
+
+    private static final int DEFAULT_SIZE = 10000;
+
+    private static final long DEFAULT_TTL = 5 * 60 * 1000L;
+
+    private static final PreviewabilityCache INSTANCE = new PreviewabilityCache(Integer.getInteger(SIZE_PROPERTY,
+            DEFAULT_SIZE), Long.getLong(TTL_PROPERTY, DEFAULT_TTL).longValue());
+
+    private final LRUCache<CacheKey, OutputTemplateEntry> outputTemplates;
+
+    private final LRUCache<ContentId, Boolean> pages;
+
+    private final long ttl;
+
+    /**
+     * Whether a policy class has an output template, and when that was
+     * checked.
+     */
+    private static final class OutputTemplateEntry {
+        private final boolean hasOutputTemplate;
+        private final long created = System.currentTimeMillis();
+
+        OutputTemplateEntry(boolean hasOutputTemplate) {
+            this.hasOutputTemplate = hasOutputTemplate;
+        }
+    }
+
+    public PreviewabilityCache(int maxSize) {
+        this(maxSize, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of page answers
+     * @param ttl
+     *            the number of milliseconds output template answers are kept
+     */
+    public PreviewabilityCache(int maxSize, long ttl) {
+        outputTemplates = new LRUCache<CacheKey, OutputTemplateEntry>(Math.max(1, maxSize / 10));
+        pages = new LRUCache<ContentId, Boolean>(maxSize);
+        this.ttl = ttl;
+    }
+
+    public static PreviewabilityCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets whether a policy class rendering an input template version has
+     * any output template.
+     * 
+     * @param inputTemplateId
+     *            the versioned input template id
+     * @param policyClass
+     *            the class of the policy
+     * @return the cached answer or null if not known
+     */
+    public Boolean hasOutputTemplate(ContentId inputTemplateId, Class<?> policyClass) {
+        CacheKey key = createKey(inputTemplateId, policyClass);
+        OutputTemplateEntry entry = outputTemplates.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.created >= ttl) {
+            outputTemplates.remove(key);
+            return null;
+        }
+        return Boolean.valueOf(entry.hasOutputTemplate);
+    }
+
+    public void setHasOutputTemplate(ContentId inputTemplateId, Class<?> policyClass, boolean hasOutputTemplate) {
+        outputTemplates.put(createKey(inputTemplateId, policyClass), new OutputTemplateEntry(hasOutputTemplate));
+    }
+
+    /**
+     * Drops all output template answers, e.g. after output templates have been
+     * imported.
+     */
+    public void invalidateOutputTemplates() {
+        outputTemplates.clear();
+    }
+
+    private static CacheKey createKey(ContentId inputTemplateId, Class<?> policyClass) {
+        return new CacheKeyBuilder().add(inputTemplateId).addDimension("policy", policyClass.getName()).build();
+    }
+
+    /**
+     * Gets whether a content is a page.
+     * 
+     * @param contentId
+     *            the content id, the version is ignored
+     * @return the cached answer or null if not known
+     */
+    public Boolean isPage(ContentId contentId) {
+        return pages.get(contentId.getContentId());
+    }
+
+    public void setPage(ContentId contentId, boolean page) {
+        pages.put(contentId.getContentId(), Boolean.valueOf(page));
+    }
+
+    public void clear() {
+        outputTemplates.clear();
+        pages.clear();
+    }
+}
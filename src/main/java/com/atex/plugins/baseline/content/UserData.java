@@ -0,0 +1,48 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.content;
+
+/**
+ * Immutable user data of a principal, as kept by the {@link UserDataCache}.
+ * Unlike the user data policy it is read from, it is not bound to the cm
+ * server or caller that loaded it, so it can be shared between requests.
+ */
+public final class UserData {
+
+    private final String login;
+
+    private final String name;
+
+    /**
+     * @param login
+     *            the login name, i.e. the principal id
+     * @param name
+     *            the name of the user, may be null
+     */
+    public UserData(String login, String name) {
+        this.login = login;
+        this.name = name;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    /**
+     * The name of the user, e.g. for bylines, or null if not known.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String toString() {
+        return "UserData[" + login + ", " + name + "]";
+    }
+}
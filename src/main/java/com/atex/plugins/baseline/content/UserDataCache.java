@@ -0,0 +1,105 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.content;
+
+import com.atex.plugins.baseline.util.LRUCache;
+import com.atex.plugins.baseline.util.PolicyResolutionContext;
+import com.polopoly.cm.ExternalContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+/**
+ * JVM wide cache of the {@link UserData} of principals, used for creators and
+ * modifiers of contents. The data is extracted from the user data policy when
+ * loaded, so cached entries do not hold on to policies bound to the cm server
+ * and caller of the request that loaded them. Entries expire after a while so that changes to
+ * user data, e.g. a changed name in a byline, are picked up.
+ * <p>
+ * The cache size and the time to live, in milliseconds, can be configured
+ * with the system properties
+ * <code>com.atex.plugins.baseline.userDataCache.size</code> and
+ * <code>com.atex.plugins.baseline.userDataCache.ttl</code>.
+ */
+public class UserDataCache {
+
+    public static final String SIZE_PROPERTY = "com.atex.plugins.baseline.userDataCache.size";
+
+    public static final String TTL_PROPERTY = "com.atex.plugins.baseline.userDataCache.ttl";
+
+    private static final int DEFAULT_SIZE = 2000;
+
+    private static final long DEFAULT_TTL = 5 * 60 * 1000L;
+
+    private static final UserDataCache INSTANCE = new UserDataCache(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE),
+            Long.getLong(TTL_PROPERTY, DEFAULT_TTL).longValue());
+
+    private final LRUCache<String, Entry> users;
+
+    private final long ttl;
+
+    private static final class Entry {
+        private final UserData user;
+        private final long expires;
+
+        Entry(UserData user, long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of cached users
+     * @param ttl
+     *            the time to live of an entry, in milliseconds
+     */
+    public UserDataCache(int maxSize, long ttl) {
+        this.users = new LRUCache<String, Entry>(maxSize);
+        this.ttl = ttl;
+    }
+
+    public static UserDataCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the user data of a principal, from the cache or from the cm server.
+     * 
+     * @param principalId
+     *            the principal id string
+     * @param cmServer
+     *            the cm server to load the user data from if not cached
+     * @return the user data
+     * @throws CMException
+     *             if the user data could not be loaded
+     */
+    public UserData getUserData(String principalId, PolicyCMServer cmServer) throws CMException {
+        long now = System.currentTimeMillis();
+
+        Entry entry = users.get(principalId);
+        if (entry != null && entry.expires > now) {
+            return entry.user;
+        }
+
+        Policy policy = PolicyResolutionContext.getPolicy(cmServer, new ExternalContentId(principalId));
+        UserData user = new UserData(principalId, policy.getContent().getName());
+        users.put(principalId, new Entry(user, now + ttl));
+        return user;
+    }
+
+    public void invalidate(String principalId) {
+        users.remove(principalId);
+    }
+
+    public void clear() {
+        users.clear();
+    }
+}
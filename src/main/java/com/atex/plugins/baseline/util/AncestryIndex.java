@@ -0,0 +1,362 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.polopoly.cm.ContentId;
+
+/**
+ * Index of the site tree formed by the parent links known to the
+ * {@link ParentPathCache}, i.e. of every content whose path has been resolved
+ * by {@link ParentPathResolver}. The tree is numbered in depth first order so
+ * that the descendants of a content have consecutive numbers, which answers
+ * "is this content below that department" with two comparisons and lists all
+ * known descendants of a department without any CM access.
+ * <p>
+ * The index is rebuilt from the cached links when they have changed, at most
+ * once per rebuild interval. Rebuilds run on a background thread while
+ * readers keep being answered from the previous numbering, so answers may lag
+ * behind re-parenting by the interval plus the time of a rebuild. Only the
+ * first numbering is built by the thread asking for it. Only contents whose links are known all the way up to a
+ * site root are indexed, contents not known to the cache or below a link
+ * that was evicted from it are not. Use {@link #isIndexed(ContentId)} to fall
+ * back on parent paths for them.
+ * <p>
+ * The rebuild interval, in milliseconds, can be configured with the system
+ * property <code>com.atex.plugins.baseline.ancestryIndex.rebuildInterval</code>.
+ */
+public class AncestryIndex {
+
+    public static final String REBUILD_INTERVAL_PROPERTY = "com.atex.plugins.baseline.ancestryIndex.rebuildInterval";
+
+    private static final long DEFAULT_REBUILD_INTERVAL = 1000L;
+
+    private static final AncestryIndex INSTANCE = new AncestryIndex(ParentPathCache.getInstance(), Long.getLong(
+            REBUILD_INTERVAL_PROPERTY, DEFAULT_REBUILD_INTERVAL).longValue());
+
+    private static final Logger LOG = Logger.getLogger(AncestryIndex.class.getName());
+
+    private final ParentPathCache cache;
+
+    private final long rebuildInterval;
+
+    private final Executor rebuildExecutor;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private volatile Tree tree;
+
+    public AncestryIndex(ParentPathCache cache, long rebuildInterval) {
+        // A single rebuild thread, which ends when idle
+        this(cache, rebuildInterval, new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new DaemonThreadFactory("baseline-ancestry-index-")));
+    }
+
+    /**
+     * @param rebuildExecutor
+     *            the executor running the rebuilds, at most one at a time
+     */
+    public AncestryIndex(ParentPathCache cache, long rebuildInterval, Executor rebuildExecutor) {
+        this.cache = cache;
+        this.rebuildInterval = rebuildInterval;
+        this.rebuildExecutor = rebuildExecutor;
+    }
+
+    public static AncestryIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks if the given content is indexed.
+     */
+    public boolean isIndexed(ContentId contentId) {
+        return getTree().indexOf(contentId) >= 0;
+    }
+
+    /**
+     * Checks if a content is the given department or below it.
+     * 
+     * @return true if both are indexed and the content is in the department
+     */
+    public boolean contains(ContentId departmentId, ContentId contentId) {
+        Tree current = getTree();
+        int department = current.indexOf(departmentId);
+        int content = current.indexOf(contentId);
+        if (department < 0 || content < 0) {
+            return false;
+        }
+        return current.enter[department] <= current.enter[content]
+                && current.enter[content] <= current.exit[department];
+    }
+
+    /**
+     * Gets the lowest common ancestor of two contents, a content counting as
+     * its own ancestor. The ancestors are found by walking the parent indexes
+     * of the tree, so the cost is bounded by the depth of the site tree.
+     * 
+     * @return the common ancestor, or null if the contents are not indexed or
+     *         not in the same tree
+     */
+    public ContentId getLowestCommonAncestor(ContentId first, ContentId second) {
+        Tree current = getTree();
+        int a = current.indexOf(first);
+        int b = current.indexOf(second);
+        if (a < 0 || b < 0) {
+            return null;
+        }
+        while (current.depth[a] > current.depth[b]) {
+            a = current.parent[a];
+        }
+        while (current.depth[b] > current.depth[a]) {
+            b = current.parent[b];
+        }
+        while (a != b) {
+            a = current.parent[a];
+            b = current.parent[b];
+            if (a < 0 || b < 0) {
+                return null;
+            }
+        }
+        return current.ids[a];
+    }
+
+    /**
+     * Gets the known descendants of a department, in depth first order. The
+     * department itself need not be indexed, as long as links to it are
+     * known.
+     * 
+     * @return the descendants, empty if no links to the department are known
+     */
+    public ContentIdList getDescendants(ContentId departmentId) {
+        Tree current = getTree();
+        int department = current.indexOfReached(departmentId);
+        if (department < 0) {
+            return ContentIdList.EMPTY;
+        }
+        int from = current.enter[department] + 1;
+        int to = current.exit[department] + 1;
+        ContentId[] descendants = new ContentId[to - from];
+        for (int i = from; i < to; i++) {
+            descendants[i - from] = current.ids[current.byEnter[i]];
+        }
+        return new ContentIdList(descendants);
+    }
+
+    /**
+     * The number of indexed contents.
+     */
+    public int size() {
+        return getTree().indexed;
+    }
+
+    private Tree getTree() {
+        Tree current = tree;
+        if (current == null) {
+            synchronized (this) {
+                // Another thread may have built the tree while this one waited
+                current = tree;
+                if (current == null) {
+                    current = build();
+                    tree = current;
+                }
+                return current;
+            }
+        }
+        if (current.modifications != cache.getModificationCount() && !isRecent(current)) {
+            scheduleRebuild();
+            // The executor may have rebuilt the tree on this thread
+            return tree;
+        }
+        return current;
+    }
+
+    private void scheduleRebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            rebuildExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        tree = build();
+                    } catch (RuntimeException e) {
+                        LOG.log(Level.WARNING, "Failed to rebuild the ancestry index", e);
+                    } finally {
+                        rebuilding.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rebuilding.set(false);
+            LOG.log(Level.WARNING, "Failed to schedule rebuild of the ancestry index", e);
+        }
+    }
+
+    private boolean isRecent(Tree current) {
+        return System.currentTimeMillis() - current.built < rebuildInterval;
+    }
+
+    private Tree build() {
+        long modifications = cache.getModificationCount();
+        Map<ContentId, ContentId> links = cache.getLinks();
+
+        // Number the contents, parents without known links become detached
+        // roots whose subtrees are not indexed
+        Map<ContentId, Integer> indexes = new HashMap<ContentId, Integer>(links.size() * 2);
+        List<ContentId> ids = new ArrayList<ContentId>(links.size());
+        for (Map.Entry<ContentId, ContentId> link : links.entrySet()) {
+            index(indexes, ids, link.getKey());
+            if (link.getValue() != null) {
+                index(indexes, ids, link.getValue());
+            }
+        }
+
+        int size = ids.size();
+        int[] parent = new int[size];
+        Arrays.fill(parent, -1);
+        for (Map.Entry<ContentId, ContentId> link : links.entrySet()) {
+            if (link.getValue() != null) {
+                parent[indexes.get(link.getKey()).intValue()] = indexes.get(link.getValue()).intValue();
+            }
+        }
+
+        // Children of each content as ranges of one array
+        int[] childStart = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            if (parent[i] >= 0) {
+                childStart[parent[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+        int[] children = new int[childStart[size]];
+        int[] filled = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (parent[i] >= 0) {
+                children[childStart[parent[i]] + filled[parent[i]]++] = i;
+            }
+        }
+
+        Tree built = new Tree(modifications, ids.toArray(new ContentId[size]), indexes, parent);
+        int[] stack = new int[size];
+        int[] nextChild = new int[size];
+        int counter = 0;
+        for (int root = 0; root < size; root++) {
+            if (parent[root] >= 0) {
+                continue;
+            }
+            boolean siteRoot = links.containsKey(ids.get(root));
+            int top = 0;
+            stack[top] = root;
+            built.depth[root] = 0;
+            built.rooted[root] = siteRoot;
+            if (siteRoot) {
+                built.indexed++;
+            }
+            built.enter[root] = counter;
+            built.byEnter[counter++] = root;
+            nextChild[root] = childStart[root];
+            while (top >= 0) {
+                int node = stack[top];
+                if (nextChild[node] < childStart[node + 1]) {
+                    int child = children[nextChild[node]++];
+                    built.depth[child] = built.depth[node] + 1;
+                    built.rooted[child] = siteRoot;
+                    if (siteRoot) {
+                        built.indexed++;
+                    }
+                    built.enter[child] = counter;
+                    built.byEnter[counter++] = child;
+                    nextChild[child] = childStart[child];
+                    stack[++top] = child;
+                } else {
+                    built.exit[node] = counter - 1;
+                    top--;
+                }
+            }
+        }
+        return built;
+    }
+
+    private static void index(Map<ContentId, Integer> indexes, List<ContentId> ids, ContentId id) {
+        if (!indexes.containsKey(id)) {
+            indexes.put(id, Integer.valueOf(ids.size()));
+            ids.add(id);
+        }
+    }
+
+    /**
+     * An immutable numbering of the known site tree.
+     */
+    private static final class Tree {
+        private final long modifications;
+        private final long built = System.currentTimeMillis();
+        private final ContentId[] ids;
+        private final Map<ContentId, Integer> indexes;
+        private final int[] parent;
+        private final int[] depth;
+        private final int[] enter;
+        private final int[] exit;
+        private final int[] byEnter;
+        private final boolean[] rooted;
+        private int indexed;
+
+        Tree(long modifications, ContentId[] ids, Map<ContentId, Integer> indexes, int[] parent) {
+            this.modifications = modifications;
+            this.ids = ids;
+            this.indexes = indexes;
+            this.parent = parent;
+            this.depth = new int[ids.length];
+            this.enter = new int[ids.length];
+            this.exit = new int[ids.length];
+            this.byEnter = new int[ids.length];
+            this.rooted = new boolean[ids.length];
+            Arrays.fill(enter, -1);
+        }
+
+        /**
+         * Gets the index of a content with a known path to a site root.
+         */
+        int indexOf(ContentId contentId) {
+            int index = indexOfReached(contentId);
+            return index >= 0 && rooted[index] ? index : -1;
+        }
+
+        /**
+         * Gets the index of a content reached from any root, including the
+         * roots of subtrees whose link upwards is not known. Contents in
+         * parent link cycles are never reached.
+         */
+        int indexOfReached(ContentId contentId) {
+            if (contentId == null) {
+                return -1;
+            }
+            Integer index = indexes.get(contentId.getContentId());
+            if (index == null || enter[index.intValue()] < 0) {
+                return -1;
+            }
+            return index.intValue();
+        }
+    }
+}
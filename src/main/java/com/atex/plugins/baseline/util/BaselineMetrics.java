@@ -0,0 +1,177 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the hot paths of the baseline policies, exposed as MBeans in the
+ * platform MBean server under the domain <code>com.atex.plugins.baseline</code>:
+ * one <code>type=Metrics</code> bean to switch recording on and off at
+ * runtime, and one <code>type=Operation</code> bean per operation.
+ * <p>
+ * The beans are registered by the {@link BaselineMetricsListener} of each web
+ * application, with an <code>application</code> key holding its context path,
+ * so that e.g. the front and preview web applications sharing a JVM expose
+ * beans of their own. The beans are unregistered when the web application is
+ * undeployed.
+ * <p>
+ * Recording is enabled by default and can be disabled at startup with the
+ * system property <code>com.atex.plugins.baseline.metrics.enabled=false</code>.
+ */
+public class BaselineMetrics implements BaselineMetricsMBean {
+
+    public static final String ENABLED_PROPERTY = "com.atex.plugins.baseline.metrics.enabled";
+
+    public static final String DOMAIN = "com.atex.plugins.baseline";
+
+    private static final Logger LOG = Logger.getLogger(BaselineMetrics.class.getName());
+
+    private static final BaselineMetrics INSTANCE = new BaselineMetrics(!"false".equalsIgnoreCase(System
+            .getProperty(ENABLED_PROPERTY)));
+
+    /**
+     * Parent path resolution. Hits are paths found in the parent path cache,
+     * fetches are ancestors loaded while walking.
+     */
+    public static final OperationMetrics PARENT_PATH = new OperationMetrics("parentPath");
+
+    /**
+     * Loading of the feedables of publishing queues.
+     */
+    public static final OperationMetrics FEEDABLES = new OperationMetrics("feedables");
+
+    /**
+     * Content list model wrapping. Hits are reused models.
+     */
+    public static final OperationMetrics CONTENT_LIST = new OperationMetrics("contentList");
+
+    /**
+     * Previewability checks. Hits are output template and parent page checks
+     * answered by the previewability cache.
+     */
+    public static final OperationMetrics PREVIEWABLE = new OperationMetrics("previewable");
+
+    /**
+     * Content list refreshes. Hits are refresh requests joining a refresh
+     * already running.
+     */
+    public static final OperationMetrics LIST_REFRESH = new OperationMetrics("listRefresh");
+
+    /**
+     * Lookups through request scoped {@link PolicyResolutionContext}s. Hits
+     * are lookups deduplicated by the context.
+     */
+    public static final OperationMetrics POLICY_RESOLUTION = new OperationMetrics("policyResolution");
+
+    /**
+     * Feeds aggregated from several publishing queues.
+     */
+    public static final OperationMetrics FEED_AGGREGATION = new OperationMetrics("feedAggregation");
+
+    /**
+     * Serialized feeds. Hits are feeds served from the feed payload cache.
+     */
+    public static final OperationMetrics FEED_PAYLOAD = new OperationMetrics("feedPayload");
+
+    private static final OperationMetrics[] OPERATIONS = { PARENT_PATH, FEEDABLES, CONTENT_LIST, PREVIEWABLE,
+            LIST_REFRESH, POLICY_RESOLUTION, FEED_AGGREGATION, FEED_PAYLOAD };
+
+    private volatile boolean enabled;
+
+    BaselineMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static BaselineMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            OPERATIONS[i].reset();
+        }
+    }
+
+    /**
+     * Registers the beans of the given web application, replacing beans left
+     * by an earlier deployment of it.
+     * 
+     * @param application
+     *            the context path of the web application
+     */
+    public static void register(String application) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName[] names = getObjectNames(application);
+            register(server, names[0], INSTANCE);
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                register(server, names[i + 1], OPERATIONS[i]);
+            }
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Failed to register baseline metrics MBeans of " + application, e);
+        } catch (SecurityException e) {
+            LOG.log(Level.WARNING, "Not allowed to register baseline metrics MBeans", e);
+        }
+    }
+
+    /**
+     * Unregisters the beans of the given web application.
+     * 
+     * @param application
+     *            the context path of the web application
+     */
+    public static void unregister(String application) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName[] names = getObjectNames(application);
+            for (int i = 0; i < names.length; i++) {
+                if (server.isRegistered(names[i])) {
+                    server.unregisterMBean(names[i]);
+                }
+            }
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Failed to unregister baseline metrics MBeans of " + application, e);
+        } catch (SecurityException e) {
+            LOG.log(Level.WARNING, "Not allowed to unregister baseline metrics MBeans", e);
+        }
+    }
+
+    static ObjectName[] getObjectNames(String application) throws JMException {
+        String key = ",application=" + ObjectName.quote(application);
+        ObjectName[] names = new ObjectName[OPERATIONS.length + 1];
+        names[0] = new ObjectName(DOMAIN + ":type=Metrics" + key);
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            names[i + 1] = new ObjectName(DOMAIN + ":type=Operation,name=" + OPERATIONS[i].getName() + key);
+        }
+        return names;
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(bean, name);
+    }
+}
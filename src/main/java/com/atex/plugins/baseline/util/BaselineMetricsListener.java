@@ -0,0 +1,42 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Servlet context listener registering the {@link BaselineMetrics} MBeans of
+ * the web application when it starts, and unregistering them when it is
+ * undeployed:
+ * 
+ * <pre>
+ * &lt;listener&gt;
+ *   &lt;listener-class&gt;com.atex.plugins.baseline.util.BaselineMetricsListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * 
+ * The beans are keyed on the context path of the web application.
+ */
+public class BaselineMetricsListener implements ServletContextListener {
+
+    public void contextInitialized(ServletContextEvent event) {
+        BaselineMetrics.register(getApplication(event));
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+        BaselineMetrics.unregister(getApplication(event));
+    }
+
+    private static String getApplication(ServletContextEvent event) {
+        String contextPath = event.getServletContext().getContextPath();
+        return contextPath.length() == 0 ? "/" : contextPath;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+/**
+ * JMX view of the baseline metrics switch.
+ * 
+ * @see BaselineMetrics
+ */
+public interface BaselineMetricsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Resets the metrics of all operations.
+     */
+    void reset();
+}
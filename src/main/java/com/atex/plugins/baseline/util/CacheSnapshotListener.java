@@ -0,0 +1,44 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Servlet context listener restoring the parent path and path segment caches
+ * from a {@link CacheSnapshotStore} when the web application starts, and
+ * writing a last snapshot and stopping the store when it is undeployed:
+ * 
+ * <pre>
+ * &lt;listener&gt;
+ *   &lt;listener-class&gt;com.atex.plugins.baseline.util.CacheSnapshotListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * 
+ * The snapshot file is read from the context parameter
+ * <code>com.atex.plugins.baseline.cacheSnapshot.file</code>, or from the system
+ * property of the same name, so that web applications sharing a JVM can use
+ * files of their own.
+ */
+public class CacheSnapshotListener implements ServletContextListener {
+
+    public void contextInitialized(ServletContextEvent event) {
+        String fileName = event.getServletContext().getInitParameter(CacheSnapshotStore.FILE_PROPERTY);
+        if (fileName == null) {
+            fileName = System.getProperty(CacheSnapshotStore.FILE_PROPERTY);
+        }
+        CacheSnapshotStore.startIfConfigured(fileName);
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+        CacheSnapshotStore.shutdownStarted();
+    }
+}
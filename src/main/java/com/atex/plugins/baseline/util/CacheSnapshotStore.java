@@ -0,0 +1,390 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+/**
+ * Persists the parent path cache and the path segment cache to a file, so a
+ * restarted front node can start with the paths resolved before the restart
+ * instead of walking every path again against the CM server.
+ * <p>
+ * The snapshot is written periodically and when the store is shut down, and
+ * read through a memory mapped buffer on startup. It starts with a magic
+ * number, a format version and a CRC32 checksum of its content, and is ignored
+ * if any of them does not match. Restored entries are validated lazily: path
+ * segments are keyed by content version, and every parent link is stored with
+ * the content version it was read from and compared with the current version
+ * of the content the first time a restored path going through it is used.
+ * <p>
+ * The store of a web application is started and shut down by
+ * {@link CacheSnapshotListener}. Snapshots are enabled by the system property
+ * or context parameter <code>com.atex.plugins.baseline.cacheSnapshot.file</code>,
+ * holding the path of the snapshot file. The write interval, in milliseconds,
+ * can be configured with the system property
+ * <code>com.atex.plugins.baseline.cacheSnapshot.interval</code>.
+ */
+public class CacheSnapshotStore {
+
+    public static final String FILE_PROPERTY = "com.atex.plugins.baseline.cacheSnapshot.file";
+
+    public static final String INTERVAL_PROPERTY = "com.atex.plugins.baseline.cacheSnapshot.interval";
+
+    private static final long DEFAULT_INTERVAL = 5 * 60 * 1000L;
+
+    private static final Logger LOG = Logger.getLogger(CacheSnapshotStore.class.getName());
+
+    private static final int MAGIC = 0x42435348;
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Magic, format version, payload length and checksum.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private static CacheSnapshotStore started;
+
+    private final File file;
+
+    private final ParentPathCache parentPathCache;
+
+    private final PathSegmentCache pathSegmentCache;
+
+    private ScheduledExecutorService executor;
+
+    public CacheSnapshotStore(File file, ParentPathCache parentPathCache, PathSegmentCache pathSegmentCache) {
+        this.file = file;
+        this.parentPathCache = parentPathCache;
+        this.pathSegmentCache = pathSegmentCache;
+    }
+
+    /**
+     * Restores the shared caches from the snapshot file configured by the
+     * system property and starts writing snapshots, unless already started or
+     * not configured.
+     */
+    public static void startIfConfigured() {
+        startIfConfigured(System.getProperty(FILE_PROPERTY));
+    }
+
+    /**
+     * Restores the shared caches from the given snapshot file and starts
+     * writing snapshots, unless already started. Failures are logged, a
+     * snapshot that cannot be read only leaves the caches empty.
+     * 
+     * @param fileName
+     *            the snapshot file, or null if not configured
+     */
+    public static synchronized void startIfConfigured(String fileName) {
+        if (started != null || fileName == null || fileName.length() == 0) {
+            return;
+        }
+        CacheSnapshotStore store = new CacheSnapshotStore(new File(fileName), ParentPathCache.getInstance(),
+                PathSegmentCache.getInstance());
+        try {
+            store.load();
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to restore cache snapshot " + fileName + ", ignoring it", e);
+        }
+        try {
+            store.start(Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL).longValue());
+            started = store;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to start writing cache snapshots to " + fileName, e);
+        }
+    }
+
+    /**
+     * Shuts down the store started by {@link #startIfConfigured(String)}, if
+     * any, writing a last snapshot.
+     */
+    public static synchronized void shutdownStarted() {
+        if (started != null) {
+            started.shutdown();
+            started = null;
+        }
+    }
+
+    /**
+     * Writes a snapshot every interval, until shut down.
+     */
+    public synchronized void start(long interval) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("baseline-cache-snapshot-"));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                writeQuietly();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops writing snapshots and writes a last one, if started.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+            writeQuietly();
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to write cache snapshot to " + file, e);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to write cache snapshot to " + file, e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the caches. The snapshot is written to a temporary
+     * file which then replaces the snapshot file, so a crash while writing
+     * never leaves a partial snapshot.
+     */
+    public synchronized void write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        Map<ContentId, ContentId> links = parentPathCache.getLinks();
+        Map<ContentId, Integer> versions = parentPathCache.getLinkVersions();
+        out.writeInt(links.size());
+        for (Map.Entry<ContentId, ContentId> link : links.entrySet()) {
+            Integer version = versions.get(link.getKey());
+            writeId(out, link.getKey());
+            out.writeInt(version != null ? version.intValue() : 0);
+            writeId(out, link.getValue() != null ? link.getValue() : new ContentId(0, 0));
+        }
+
+        Map<ContentId, ParentPathCache.Path> paths = parentPathCache.getPaths();
+        int pathCount = 0;
+        ByteArrayOutputStream pathBytes = new ByteArrayOutputStream();
+        DataOutputStream pathOut = new DataOutputStream(pathBytes);
+        for (Map.Entry<ContentId, ParentPathCache.Path> entry : paths.entrySet()) {
+            // Paths are only usable with the parent link of the content
+            if (!links.containsKey(entry.getKey())) {
+                continue;
+            }
+            ParentPathCache.Path path = entry.getValue();
+            writeId(pathOut, entry.getKey());
+            pathOut.writeBoolean(path.isRooted());
+            writeIds(pathOut, path.getIds());
+            writeIds(pathOut, path.getChain());
+            pathCount++;
+        }
+        pathOut.flush();
+        out.writeInt(pathCount);
+        pathBytes.writeTo(out);
+
+        Map<ContentId, String> segments = pathSegmentCache.getSegments();
+        out.writeInt(segments.size());
+        for (Map.Entry<ContentId, String> segment : segments.entrySet()) {
+            writeId(out, segment.getKey());
+            out.writeInt(segment.getKey().getVersion());
+            out.writeUTF(segment.getValue());
+        }
+        out.flush();
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        // A temporary file of its own, in case another store writes the same
+        // snapshot file
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        DataOutputStream fileOut = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            fileOut.writeInt(MAGIC);
+            fileOut.writeInt(FORMAT_VERSION);
+            fileOut.writeInt(payload.length);
+            fileOut.writeLong(crc.getValue());
+            fileOut.write(payload);
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(file)) {
+            // Not atomic on all platforms, e.g. when the target exists
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Failed to replace " + file + " with " + temp);
+            }
+        }
+        LOG.fine("Wrote cache snapshot with " + links.size() + " parent links, " + pathCount + " paths and "
+                + segments.size() + " path segments to " + file);
+    }
+
+    private static void writeId(DataOutputStream out, ContentId id) throws IOException {
+        out.writeInt(id.getMajor());
+        out.writeInt(id.getMinor());
+    }
+
+    private static void writeIds(DataOutputStream out, ContentIdList ids) throws IOException {
+        out.writeInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            out.writeInt(ids.getMajor(i));
+            out.writeInt(ids.getMinor(i));
+        }
+    }
+
+    /**
+     * Restores the caches from the snapshot file, if there is a valid one.
+     * 
+     * @return true if a snapshot was restored
+     */
+    public synchronized boolean load() {
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return restore(buffer);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to read cache snapshot " + file, e);
+        } catch (BufferUnderflowException e) {
+            LOG.log(Level.WARNING, "Truncated cache snapshot " + file + ", ignoring it");
+        } catch (IllegalStateException e) {
+            LOG.log(Level.WARNING, "Invalid cache snapshot " + file + ", ignoring it", e);
+        }
+        return false;
+    }
+
+    private boolean restore(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            LOG.warning("Not a cache snapshot: " + file + ", ignoring it");
+            return false;
+        }
+        int formatVersion = buffer.getInt();
+        if (formatVersion != FORMAT_VERSION) {
+            LOG.info("Cache snapshot " + file + " has format version " + formatVersion + ", ignoring it");
+            return false;
+        }
+        int length = buffer.getInt();
+        long checksum = buffer.getLong();
+        if (length < 0 || length != buffer.remaining() || checksum != checksum(buffer.duplicate())) {
+            LOG.warning("Cache snapshot " + file + " is corrupt, ignoring it");
+            return false;
+        }
+
+        // Links are restored together with their paths
+        int linkCount = buffer.getInt();
+        Map<ContentId, VersionedContentId> links = new HashMap<ContentId, VersionedContentId>(linkCount * 2);
+        Map<ContentId, ContentId> parents = new HashMap<ContentId, ContentId>(linkCount * 2);
+        for (int i = 0; i < linkCount; i++) {
+            ContentId id = readId(buffer);
+            int version = buffer.getInt();
+            ContentId parentId = readId(buffer);
+            links.put(id, new VersionedContentId(id.getMajor(), id.getMinor(), version));
+            parents.put(id, parentId.getMajor() == 0 ? null : parentId);
+        }
+
+        int pathCount = buffer.getInt();
+        for (int i = 0; i < pathCount; i++) {
+            ContentId id = readId(buffer);
+            boolean rooted = buffer.get() != 0;
+            ContentIdList ids = readIds(buffer);
+            ContentIdList chain = readIds(buffer);
+            VersionedContentId link = links.get(id);
+            if (link != null) {
+                parentPathCache.restorePath(id, link.getVersion(), parents.get(id), new ParentPathCache.Path(ids,
+                        rooted, chain));
+            }
+        }
+
+        int segmentCount = buffer.getInt();
+        for (int i = 0; i < segmentCount; i++) {
+            ContentId id = readId(buffer);
+            int version = buffer.getInt();
+            pathSegmentCache.put(new VersionedContentId(id.getMajor(), id.getMinor(), version), readUTF(buffer));
+        }
+
+        LOG.info("Restored " + pathCount + " parent paths and " + segmentCount + " path segments from cache snapshot "
+                + file);
+        return true;
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static ContentId readId(ByteBuffer buffer) {
+        int major = buffer.getInt();
+        int minor = buffer.getInt();
+        return new ContentId(major, minor);
+    }
+
+    private static ContentIdList readIds(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size == 0) {
+            return ContentIdList.EMPTY;
+        }
+        ContentId[] ids = new ContentId[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = readId(buffer);
+        }
+        return new ContentIdList(ids);
+    }
+
+    /**
+     * Reads a string written by {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static String readUTF(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length + 2];
+        bytes[0] = (byte) (length >> 8);
+        bytes[1] = (byte) length;
+        buffer.get(bytes, 2, length);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid string in cache snapshot", e);
+        }
+    }
+}
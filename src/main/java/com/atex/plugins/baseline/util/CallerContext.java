@@ -0,0 +1,101 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+package com.atex.plugins.baseline.util;
+
+import java.util.concurrent.Callable;
+
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.user.server.Caller;
+
+/**
+ * The thread bound state of a request that work done for it on a pool thread
+ * must run under: the current caller of the cm server, which decides what
+ * contents may be read, and the active {@link PolicyResolutionContext}.
+ * <p>
+ * The context is captured on the request thread and applied around tasks:
+ * 
+ * <pre>
+ * CallerContext context = CallerContext.capture(cmServer);
+ * executor.submit(context.wrap(task));
+ * </pre>
+ */
+public final class CallerContext {
+
+    private final PolicyCMServer cmServer;
+
+    private final Caller caller;
+
+    private final PolicyResolutionContext resolutionContext;
+
+    private CallerContext(PolicyCMServer cmServer, Caller caller, PolicyResolutionContext resolutionContext) {
+        this.cmServer = cmServer;
+        this.caller = caller;
+        this.resolutionContext = resolutionContext;
+    }
+
+    /**
+     * Captures the context of the current thread.
+     * 
+     * @param cmServer
+     *            the cm server whose caller to capture, or null to only
+     *            capture the resolution context
+     */
+    public static CallerContext capture(PolicyCMServer cmServer) {
+        Caller caller = cmServer != null ? cmServer.getCurrentCaller() : null;
+        return new CallerContext(cmServer, caller, PolicyResolutionContext.current());
+    }
+
+    /**
+     * Creates a context running tasks under the given caller, for work not
+     * done on behalf of a request, e.g. by background jobs.
+     * 
+     * @param cmServer
+     *            the cm server to set the caller of
+     * @param caller
+     *            the caller to run tasks under
+     */
+    public static CallerContext forCaller(PolicyCMServer cmServer, Caller caller) {
+        return new CallerContext(cmServer, caller, null);
+    }
+
+    /**
+     * Wraps a task to run under this context, on whichever thread calls it.
+     * The previous state of that thread is restored when the task is done.
+     */
+    public <T> Callable<T> wrap(final Callable<T> task) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                PolicyResolutionContext previousContext = PolicyResolutionContext.attach(resolutionContext);
+                Caller previousCaller = null;
+                boolean callerSet = false;
+                try {
+                    if (caller != null) {
+                        previousCaller = cmServer.getCurrentCaller();
+                        cmServer.setCurrentCaller(caller);
+                        callerSet = true;
+                    }
+                    return task.call();
+                } finally {
+                    if (callerSet) {
+                        cmServer.setCurrentCaller(previousCaller);
+                    }
+                    PolicyResolutionContext.attach(previousContext);
+                }
+            }
+        };
+    }
+
+    public Caller getCaller() {
+        return caller;
+    }
+
+    public PolicyResolutionContext getResolutionContext() {
+        return resolutionContext;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+/**
+ * Compact, immutable list of content ids. The ids are kept as packed int
+ * arrays of major and minor, plus versions only if any id is versioned, so an
+ * entry costs two or three ints instead of an object. {@link ContentId}
+ * instances are created on demand when elements are read through the
+ * {@link java.util.List} interface, while the primitive accessors and the
+ * <code>IgnoreVersion</code> lookups do not allocate.
+ */
+public final class ContentIdList extends AbstractList<ContentId> implements RandomAccess {
+
+    private static final int[] NO_IDS = new int[0];
+
+    /**
+     * Version of unversioned ids in a list also holding versioned ids.
+     */
+    private static final int UNVERSIONED = Integer.MIN_VALUE;
+
+    public static final ContentIdList EMPTY = new ContentIdList(NO_IDS, null);
+
+    /**
+     * Major and minor of each id, interleaved.
+     */
+    private final int[] ids;
+
+    /**
+     * Version of each id, or null if no id is versioned.
+     */
+    private final int[] versions;
+
+    private ContentIdList(int[] ids, int[] versions) {
+        this.ids = ids;
+        this.versions = versions;
+    }
+
+    public ContentIdList(ContentId[] contentIds) {
+        int[] packed = new int[contentIds.length * 2];
+        int[] packedVersions = null;
+        for (int i = 0; i < contentIds.length; i++) {
+            ContentId id = contentIds[i];
+            packed[i * 2] = id.getMajor();
+            packed[i * 2 + 1] = id.getMinor();
+            if (id instanceof VersionedContentId) {
+                if (packedVersions == null) {
+                    packedVersions = new int[contentIds.length];
+                    Arrays.fill(packedVersions, UNVERSIONED);
+                }
+                packedVersions[i] = id.getVersion();
+            }
+        }
+        this.ids = packed;
+        this.versions = packedVersions;
+    }
+
+    public ContentIdList(Collection<ContentId> contentIds) {
+        this(contentIds.toArray(new ContentId[contentIds.size()]));
+    }
+
+    /**
+     * Creates a list holding a single id.
+     */
+    public static ContentIdList of(ContentId contentId) {
+        return new ContentIdList(new ContentId[] { contentId });
+    }
+
+    /**
+     * Creates a list of the unversioned ids of the given contents, sorted by
+     * major and minor and without duplicates. Sorted lists can be compared
+     * and diffed without building sets.
+     */
+    public static ContentIdList sortedUnversioned(Collection<ContentId> contentIds) {
+        long[] keys = new long[contentIds.size()];
+        int count = 0;
+        for (ContentId id : contentIds) {
+            keys[count++] = toKey(id.getMajor(), id.getMinor());
+        }
+        Arrays.sort(keys);
+
+        int[] packed = new int[count * 2];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && keys[i] == keys[i - 1]) {
+                continue;
+            }
+            packed[size * 2] = (int) (keys[i] >> 32);
+            packed[size * 2 + 1] = (int) keys[i];
+            size++;
+        }
+        if (size < count) {
+            int[] trimmed = new int[size * 2];
+            System.arraycopy(packed, 0, trimmed, 0, trimmed.length);
+            packed = trimmed;
+        }
+        return new ContentIdList(packed, null);
+    }
+
+    private static long toKey(int major, int minor) {
+        return ((long) major << 32) | (minor & 0xffffffffL);
+    }
+
+    public int size() {
+        return ids.length / 2;
+    }
+
+    public ContentId get(int index) {
+        checkIndex(index);
+        int major = ids[index * 2];
+        int minor = ids[index * 2 + 1];
+        if (versions == null || versions[index] == UNVERSIONED) {
+            return new ContentId(major, minor);
+        }
+        return new VersionedContentId(major, minor, versions[index]);
+    }
+
+    public int getMajor(int index) {
+        checkIndex(index);
+        return ids[index * 2];
+    }
+
+    public int getMinor(int index) {
+        checkIndex(index);
+        return ids[index * 2 + 1];
+    }
+
+    /**
+     * Compares the unversioned ids at the given position of this list and the
+     * given list, by major and then minor.
+     */
+    public int compareIgnoreVersion(int index, ContentIdList other, int otherIndex) {
+        long key = toKey(getMajor(index), getMinor(index));
+        long otherKey = toKey(other.getMajor(otherIndex), other.getMinor(otherIndex));
+        return key < otherKey ? -1 : key == otherKey ? 0 : 1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+    }
+
+    /**
+     * Gets the position of the first id equal to the given id, ignoring
+     * versions.
+     * 
+     * @return the position, or -1 if not found
+     */
+    public int indexOfIgnoreVersion(ContentId contentId) {
+        int major = contentId.getMajor();
+        int minor = contentId.getMinor();
+        for (int i = 0; i < ids.length; i += 2) {
+            if (ids[i] == major && ids[i + 1] == minor) {
+                return i / 2;
+            }
+        }
+        return -1;
+    }
+
+    public boolean containsIgnoreVersion(ContentId contentId) {
+        return indexOfIgnoreVersion(contentId) >= 0;
+    }
+
+    /**
+     * Returns a new list with the given id added last.
+     */
+    public ContentIdList append(ContentId contentId) {
+        return concat(of(contentId));
+    }
+
+    /**
+     * Returns a new list with the ids of this list followed by the ids of the
+     * given list.
+     */
+    public ContentIdList concat(ContentIdList other) {
+        if (other.ids.length == 0) {
+            return this;
+        }
+        if (ids.length == 0) {
+            return other;
+        }
+        int[] packed = new int[ids.length + other.ids.length];
+        System.arraycopy(ids, 0, packed, 0, ids.length);
+        System.arraycopy(other.ids, 0, packed, ids.length, other.ids.length);
+
+        int[] packedVersions = null;
+        if (versions != null || other.versions != null) {
+            packedVersions = new int[packed.length / 2];
+            copyVersions(packedVersions, 0);
+            other.copyVersions(packedVersions, size());
+        }
+        return new ContentIdList(packed, packedVersions);
+    }
+
+    private void copyVersions(int[] target, int offset) {
+        if (versions != null) {
+            System.arraycopy(versions, 0, target, offset, versions.length);
+        } else {
+            Arrays.fill(target, offset, offset + size(), UNVERSIONED);
+        }
+    }
+
+    /**
+     * Creates a new array of the ids.
+     */
+    public ContentId[] toContentIdArray() {
+        ContentId[] array = new ContentId[size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = get(i);
+        }
+        return array;
+    }
+
+    public boolean equals(Object obj) {
+        if (obj instanceof ContentIdList) {
+            ContentIdList other = (ContentIdList) obj;
+            if (!Arrays.equals(ids, other.ids)) {
+                return false;
+            }
+            if (versions == null || other.versions == null) {
+                return versions == other.versions;
+            }
+            return Arrays.equals(versions, other.versions);
+        }
+        return super.equals(obj);
+    }
+
+    /**
+     * Computes the hash code from the packed ids, without creating the
+     * elements. Unlike {@link java.util.List#hashCode()}, the hash code is
+     * only consistent with other content id lists, so lists of other types
+     * equal to a content id list must not be used as keys alongside it.
+     */
+    public int hashCode() {
+        int hash = Arrays.hashCode(ids);
+        if (versions != null) {
+            hash = 31 * hash + Arrays.hashCode(versions);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread safe cache with a fixed maximum size. When the cache is full the
+ * least recently used entry is evicted.
+ */
+public class LRUCache<K, V> {
+
+    private final int maxSize;
+
+    private final LinkedHashMap<K, V> map;
+
+    /**
+     * Creates a cache holding at most <code>maxSize</code> entries.
+     *
+     * @param maxSize
+     *            the maximum number of entries, must be positive
+     */
+    public LRUCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive, was " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LRUCache.this.maxSize) {
+                    evicted(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Called when an entry is evicted to make room for a new one, while the
+     * cache is locked. Entries removed explicitly are not reported.
+     */
+    protected void evicted(K key, V value) {
+    }
+
+    /**
+     * Gets the cached value and marks it as recently used.
+     *
+     * @return the value or null if not cached
+     */
+    public synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    public synchronized V put(K key, V value) {
+        return map.put(key, value);
+    }
+
+    public synchronized V remove(K key) {
+        return map.remove(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns a copy of the current cache content. Intended for rare
+     * operations like invalidation scans, not for the read path.
+     */
+    public synchronized Map<K, V> snapshot() {
+        return new HashMap<K, V>(map);
+    }
+}
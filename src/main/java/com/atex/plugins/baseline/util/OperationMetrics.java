@@ -0,0 +1,212 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, latency histogram and cache hit ratio of one instrumented
+ * operation. Recording is a handful of atomic increments and is skipped
+ * entirely while metrics are disabled in {@link BaselineMetrics}.
+ * <p>
+ * An operation is timed like this:
+ * 
+ * <pre>
+ * long start = metrics.start();
+ * boolean succeeded = false;
+ * try {
+ *     ...
+ *     succeeded = true;
+ * } finally {
+ *     metrics.stop(start, succeeded);
+ * }
+ * </pre>
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+    private static final long NOT_STARTED = -1;
+
+    private static final long[] BUCKET_LIMITS_MICROS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000 };
+
+    private final String name;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_LIMITS_MICROS.length + 1);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong fetches = new AtomicLong();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Starts timing an operation.
+     * 
+     * @return the value to pass to {@link #stop(long, boolean)}
+     */
+    public long start() {
+        return BaselineMetrics.getInstance().isEnabled() ? System.nanoTime() : NOT_STARTED;
+    }
+
+    /**
+     * Records a completed operation.
+     * 
+     * @param start
+     *            the value returned by {@link #start()}
+     * @param succeeded
+     *            false if the operation failed
+     */
+    public void stop(long start, boolean succeeded) {
+        if (start == NOT_STARTED) {
+            return;
+        }
+        long nanos = Math.max(0, System.nanoTime() - start);
+
+        count.incrementAndGet();
+        if (!succeeded) {
+            errors.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        histogram.incrementAndGet(bucketOf(nanos / 1000));
+    }
+
+    private static int bucketOf(long micros) {
+        int i = 0;
+        while (i < BUCKET_LIMITS_MICROS.length && micros > BUCKET_LIMITS_MICROS[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    public void hit() {
+        if (BaselineMetrics.getInstance().isEnabled()) {
+            hits.incrementAndGet();
+        }
+    }
+
+    public void miss() {
+        if (BaselineMetrics.getInstance().isEnabled()) {
+            misses.incrementAndGet();
+        }
+    }
+
+    public void fetched(int contents) {
+        if (BaselineMetrics.getInstance().isEnabled()) {
+            fetches.addAndGet(contents);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public double getMeanTimeMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1000.0 / n;
+    }
+
+    public long getMaxTimeMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    public long[] getLatencyBucketLimitsMicros() {
+        return BUCKET_LIMITS_MICROS.clone();
+    }
+
+    public long[] getLatencyHistogram() {
+        long[] buckets = new long[histogram.length()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = histogram.get(i);
+        }
+        return buckets;
+    }
+
+    public long getLatency99thPercentileMicros() {
+        long[] buckets = getLatencyHistogram();
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = total - total / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_LIMITS_MICROS.length; i++) {
+            seen += buckets[i];
+            if (seen >= threshold) {
+                return BUCKET_LIMITS_MICROS[i];
+            }
+        }
+        return -1;
+    }
+
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    public double getCacheHitRatio() {
+        long h = hits.get();
+        long lookups = h + misses.get();
+        return lookups == 0 ? Double.NaN : (double) h / lookups;
+    }
+
+    public long getCMFetches() {
+        return fetches.get();
+    }
+
+    public double getCMFetchesPerOperation() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) fetches.get() / n;
+    }
+
+    public void reset() {
+        count.set(0);
+        errors.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+        hits.set(0);
+        misses.set(0);
+        fetches.set(0);
+    }
+}
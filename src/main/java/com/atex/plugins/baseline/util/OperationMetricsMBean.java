@@ -0,0 +1,63 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+/**
+ * JMX view of the metrics of one instrumented operation.
+ * 
+ * @see OperationMetrics
+ */
+public interface OperationMetricsMBean {
+
+    String getName();
+
+    /**
+     * The number of completed operations, failed ones included.
+     */
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanTimeMicros();
+
+    long getMaxTimeMicros();
+
+    /**
+     * Upper limits, in microseconds, of the latency histogram buckets. The
+     * histogram has one more bucket for latencies above the last limit.
+     */
+    long[] getLatencyBucketLimitsMicros();
+
+    long[] getLatencyHistogram();
+
+    /**
+     * Estimated 99th percentile latency: the upper limit of the histogram
+     * bucket holding it, or -1 if it is in the last, unbounded, bucket.
+     */
+    long getLatency99thPercentileMicros();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    /**
+     * Cache hits divided by cache lookups, or NaN if there were none.
+     */
+    double getCacheHitRatio();
+
+    /**
+     * The number of contents or policies fetched from the cm server.
+     */
+    long getCMFetches();
+
+    double getCMFetchesPerOperation();
+
+    void reset();
+}
@@ -0,0 +1,429 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+/**
+ * JVM wide cache of resolved parent paths, used by {@link ParentPathResolver}.
+ * Paths are keyed by unversioned content id. Besides the paths, the parent
+ * link (insert parent or security parent) of every content seen during path
+ * resolution is remembered, so that a cached path can be dropped as soon as
+ * any content in it is found to have a different parent.
+ * <p>
+ * A re-parented content is only noticed when it is loaded on this node, so
+ * paths also expire after a while. A path going through a content that was
+ * moved while none of the contents in the path were loaded is thereby
+ * resolved again within the time to live. Cached paths are indexed by the
+ * contents they go through, so invalidating a content only visits the paths
+ * containing it.
+ * <p>
+ * Each link remembers the content version it was read from. Links restored
+ * from a {@link CacheSnapshotStore} are unverified until that version has been
+ * compared with the current version of the content, see
+ * {@link #verifyRestored(ContentId, ContentId)}.
+ * <p>
+ * The cache size and the time to live of a path, in milliseconds, can be
+ * configured with the system properties
+ * <code>com.atex.plugins.baseline.parentPathCache.size</code> and
+ * <code>com.atex.plugins.baseline.parentPathCache.ttl</code>.
+ */
+public class ParentPathCache {
+
+    public static final String SIZE_PROPERTY = "com.atex.plugins.baseline.parentPathCache.size";
+
+    public static final String TTL_PROPERTY = "com.atex.plugins.baseline.parentPathCache.ttl";
+
+    private static final int DEFAULT_SIZE = 20000;
+
+    private static final long DEFAULT_TTL = 10 * 60 * 1000L;
+
+    private static final Logger LOG = Logger.getLogger(ParentPathCache.class.getName());
+
+    private static final ParentPathCache INSTANCE = new ParentPathCache(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE),
+            Long.getLong(TTL_PROPERTY, DEFAULT_TTL).longValue());
+
+    private static final ContentId NO_PARENT = new ContentId(0, 0);
+
+    private final LRUCache<ContentId, Path> paths;
+
+    private final LRUCache<ContentId, Link> links;
+
+    private final AtomicLong modifications = new AtomicLong();
+
+    private final long ttl;
+
+    /**
+     * The keys of the cached paths going through each content, guarded by
+     * the cache itself.
+     */
+    private final Map<ContentId, Set<ContentId>> members = new HashMap<ContentId, Set<ContentId>>();
+
+    /**
+     * The parent link of a content and the content version it was read from,
+     * 0 if not known.
+     */
+    private static final class Link {
+        private final ContentId parentId;
+        private final int version;
+        private final boolean restored;
+
+        Link(ContentId parentId, int version, boolean restored) {
+            this.parentId = parentId;
+            this.version = version;
+            this.restored = restored;
+        }
+    }
+
+    /**
+     * A resolved path. A path is rooted if it ends up in a site root, an
+     * unrooted path only contains the content itself. The chain holds every
+     * content walked to resolve the path and is used for invalidation. Both
+     * are kept as compact {@link ContentIdList}s.
+     */
+    public static final class Path {
+        private final ContentIdList ids;
+        private final boolean rooted;
+        private final ContentIdList chain;
+        private final long created = System.currentTimeMillis();
+
+        public Path(ContentIdList ids, boolean rooted) {
+            this(ids, rooted, ids);
+        }
+
+        public Path(ContentIdList ids, boolean rooted, ContentIdList chain) {
+            this.ids = ids;
+            this.rooted = rooted;
+            this.chain = chain;
+        }
+
+        public ContentIdList getIds() {
+            return ids;
+        }
+
+        /**
+         * Gets the ids as a new array. Callers only needing majors and minors
+         * should read them from {@link #getIds()} instead.
+         */
+        public ContentId[] toContentIdArray() {
+            return ids.toContentIdArray();
+        }
+
+        public boolean isRooted() {
+            return rooted;
+        }
+
+        /**
+         * The contents walked to resolve the path.
+         */
+        public ContentIdList getChain() {
+            return chain;
+        }
+    }
+
+    public ParentPathCache(int maxSize) {
+        this(maxSize, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of cached paths
+     * @param ttl
+     *            the time to live of a path, in milliseconds
+     */
+    public ParentPathCache(int maxSize, long ttl) {
+        this.ttl = ttl;
+        paths = new LRUCache<ContentId, Path>(maxSize) {
+            protected void evicted(ContentId key, Path path) {
+                // Paths are only put by putPath, which holds the cache lock
+                unindex(key, path);
+            }
+        };
+        // Links are kept longer than paths so that a re-parented content is
+        // still detected after the path of the content itself was evicted.
+        links = new LRUCache<ContentId, Link>(maxSize * 2) {
+            protected void evicted(ContentId key, Link link) {
+                // Contents below an evicted link lose their known path
+                modifications.incrementAndGet();
+            }
+        };
+    }
+
+    public static ParentPathCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the cached path for the given content.
+     *
+     * @param contentId
+     *            unversioned content id
+     * @return the path or null if not cached or expired
+     */
+    public Path getPath(ContentId contentId) {
+        Path path = paths.get(contentId);
+        if (path != null && System.currentTimeMillis() - path.created >= ttl) {
+            synchronized (this) {
+                if (paths.get(contentId) == path) {
+                    removePath(contentId);
+                }
+            }
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * Caches the path of the given content.
+     *
+     * @param contentId
+     *            the content id, versioned if the version the parent link was
+     *            read from is known
+     * @param parentId
+     *            the parent link of the content, or null if it has none
+     */
+    public synchronized void putPath(ContentId contentId, ContentId parentId, Path path) {
+        put(contentId.getContentId(), new Link(toLink(parentId), versionOf(contentId), false), path);
+    }
+
+    /**
+     * Caches a path restored from a snapshot. The parent link of the content
+     * is unverified until {@link #verifyRestored(ContentId, ContentId)} is
+     * called or the link is read again.
+     *
+     * @param contentId
+     *            unversioned content id
+     * @param version
+     *            the content version the parent link was read from
+     * @param parentId
+     *            the parent link of the content, or null if it has none
+     */
+    public synchronized void restorePath(ContentId contentId, int version, ContentId parentId, Path path) {
+        put(contentId.getContentId(), new Link(toLink(parentId), version, true), path);
+    }
+
+    private void put(ContentId contentId, Link link, Path path) {
+        Link replacedLink = links.put(contentId, link);
+        if (replacedLink == null || !link.parentId.equals(replacedLink.parentId)) {
+            modifications.incrementAndGet();
+        } else if (link.version == 0 && replacedLink.version != 0) {
+            // Same parent read again, keep the known version
+            links.put(contentId, new Link(link.parentId, replacedLink.version, link.restored));
+        }
+        Path replaced = paths.put(contentId, path);
+        if (replaced != null) {
+            unindex(contentId, replaced);
+        }
+        for (ContentId member : path.getChain()) {
+            Set<ContentId> keys = members.get(member.getContentId());
+            if (keys == null) {
+                keys = new HashSet<ContentId>();
+                members.put(member.getContentId(), keys);
+            }
+            keys.add(contentId);
+        }
+    }
+
+    /**
+     * Verifies the remembered parent link of the given content against its
+     * current parent and invalidates all cached paths going through the
+     * content if the link has changed.
+     *
+     * @param contentId
+     *            the content id, versioned if the version the parent was read
+     *            from is known
+     * @param parentId
+     *            the current insert parent or security parent, may be null
+     * @return true if cached paths were invalidated
+     */
+    public boolean checkParent(ContentId contentId, ContentId parentId) {
+        ContentId key = contentId.getContentId();
+        Link known = links.get(key);
+        if (known == null) {
+            return false;
+        }
+        if (known.parentId.equals(toLink(parentId))) {
+            int version = versionOf(contentId);
+            if (version != 0 && (known.restored || known.version != version)) {
+                synchronized (this) {
+                    if (links.get(key) == known) {
+                        links.put(key, new Link(known.parentId, version, false));
+                    }
+                }
+            }
+            return false;
+        }
+        LOG.log(Level.FINE, "Parent of " + key.getContentIdString() + " changed, invalidating cached parent paths");
+        invalidate(key);
+        return true;
+    }
+
+    /**
+     * Checks if the parent link of the given content was restored from a
+     * snapshot and has not been verified since.
+     *
+     * @param contentId
+     *            unversioned content id
+     */
+    public boolean isRestored(ContentId contentId) {
+        Link known = links.get(contentId);
+        return known != null && known.restored;
+    }
+
+    /**
+     * Verifies a restored parent link against the current version of the
+     * content. The link is kept if it was read from that version, otherwise
+     * all cached paths going through the content are removed.
+     *
+     * @param contentId
+     *            unversioned content id
+     * @param currentVersionId
+     *            the current version of the content, or null if not known
+     * @return true if the link is known and valid
+     */
+    public synchronized boolean verifyRestored(ContentId contentId, ContentId currentVersionId) {
+        Link known = links.get(contentId);
+        if (known == null) {
+            return false;
+        }
+        if (!known.restored) {
+            return true;
+        }
+        if (currentVersionId != null && known.version != 0 && known.version == versionOf(currentVersionId)) {
+            links.put(contentId, new Link(known.parentId, known.version, false));
+            return true;
+        }
+        LOG.log(Level.FINE, "Content " + contentId.getContentIdString()
+                + " changed since the cache snapshot, invalidating restored parent paths");
+        invalidate(contentId);
+        return false;
+    }
+
+    /**
+     * Removes all cached paths containing the given content.
+     *
+     * @param contentId
+     *            unversioned content id
+     */
+    public synchronized void invalidate(ContentId contentId) {
+        links.remove(contentId);
+        modifications.incrementAndGet();
+        removePath(contentId);
+
+        Set<ContentId> stale = members.get(contentId);
+        if (stale != null) {
+            for (ContentId id : new ArrayList<ContentId>(stale)) {
+                removePath(id);
+            }
+        }
+    }
+
+    private void removePath(ContentId contentId) {
+        Path path = paths.remove(contentId);
+        if (path != null) {
+            unindex(contentId, path);
+        }
+    }
+
+    private void unindex(ContentId contentId, Path path) {
+        for (ContentId member : path.getChain()) {
+            Set<ContentId> keys = members.get(member.getContentId());
+            if (keys != null && keys.remove(contentId) && keys.isEmpty()) {
+                members.remove(member.getContentId());
+            }
+        }
+    }
+
+    private static int versionOf(ContentId contentId) {
+        return contentId instanceof VersionedContentId ? ((VersionedContentId) contentId).getVersion() : 0;
+    }
+
+    private static ContentId toLink(ContentId parentId) {
+        return parentId != null && parentId.getMinor() >= 1 ? parentId.getContentId() : NO_PARENT;
+    }
+
+    public synchronized void clear() {
+        paths.clear();
+        members.clear();
+        links.clear();
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Gets a copy of the cached paths.
+     */
+    public Map<ContentId, Path> getPaths() {
+        return paths.snapshot();
+    }
+
+    /**
+     * Gets a copy of the known parent links.
+     * 
+     * @return the parent of each known content, null for contents without
+     *         parent
+     */
+    public Map<ContentId, ContentId> getLinks() {
+        Map<ContentId, ContentId> snapshot = new HashMap<ContentId, ContentId>();
+        for (Map.Entry<ContentId, Link> entry : links.snapshot().entrySet()) {
+            ContentId parentId = entry.getValue().parentId;
+            snapshot.put(entry.getKey(), NO_PARENT.equals(parentId) ? null : parentId);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the content versions the known parent links were read from.
+     * 
+     * @return the version of each known content, 0 if not known
+     */
+    public Map<ContentId, Integer> getLinkVersions() {
+        Map<ContentId, Integer> snapshot = new HashMap<ContentId, Integer>();
+        for (Map.Entry<ContentId, Link> entry : links.snapshot().entrySet()) {
+            snapshot.put(entry.getKey(), Integer.valueOf(entry.getValue().version));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the content version the known parent link of the given content was
+     * read from.
+     *
+     * @param contentId
+     *            unversioned content id
+     * @return the version, 0 if the link or its version is not known
+     */
+    public int getLinkVersion(ContentId contentId) {
+        Link known = links.get(contentId);
+        return known != null ? known.version : 0;
+    }
+
+    /**
+     * Gets a counter increased whenever a parent link is added, changed,
+     * removed or evicted.
+     */
+    public long getModificationCount() {
+        return modifications.get();
+    }
+
+    public int size() {
+        return paths.size();
+    }
+}
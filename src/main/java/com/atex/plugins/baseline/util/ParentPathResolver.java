@@ -10,7 +10,11 @@
 package com.atex.plugins.baseline.util;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +37,19 @@ public class ParentPathResolver {
 
     private static Logger LOG = Logger.getLogger(ParentPathResolver.class.getName());
 
+    private final ParentPathCache cache;
+
+    /**
+     * Creates a resolver using the shared {@link ParentPathCache}.
+     */
+    public ParentPathResolver() {
+        this(ParentPathCache.getInstance());
+    }
+
+    public ParentPathResolver(ParentPathCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Return the content path for the given content.
      * 
@@ -47,41 +64,355 @@ public class ParentPathResolver {
      *             if something goes wrong
      */
     public ContentId[] getParentPath(ContentRead content, PolicyCMServer cmServer) throws CMException {
-        List<ContentId> parentList = getParentPathAsList(content, cmServer);
-
-        return parentList.toArray(new ContentId[parentList.size()]);
+        return resolve(content, cmServer).toContentIdArray();
     }
 
     public List<ContentId> getParentPathAsList(ContentRead content, PolicyCMServer cmServer) throws CMException {
         List<ContentId> parentList = createArrayList();
 
+        parentList.addAll(resolve(content, cmServer).getIds());
+        return parentList;
+    }
+
+    /**
+     * Returns the content paths of many contents at once. The parent chains
+     * are walked level by level: all contents of a level are loaded as one
+     * batch and every distinct ancestor is loaded only once, so contents
+     * sharing ancestors cost no more than the ancestors themselves. Resolved
+     * paths are added to the parent path cache.
+     * <p>
+     * A content whose path could not be resolved, e.g. because it or one of
+     * its ancestors could not be loaded, gets a path with only itself, like
+     * {@link #getParentPathNoExceptions(Content, PolicyCMServer)}.
+     * 
+     * @param contentIds
+     *            the contents to retrieve the paths for
+     * @param cmServer
+     *            the cm server to use
+     * @return the content paths by content id, in the order of the given ids
+     * @throws CMException
+     *             if loading the contents failed
+     */
+    public Map<ContentId, ContentId[]> getParentPaths(Collection<ContentId> contentIds, PolicyCMServer cmServer)
+            throws CMException {
+        OperationMetrics metrics = BaselineMetrics.PARENT_PATH;
+        long start = metrics.start();
+        boolean succeeded = false;
+        try {
+            Map<ContentId, ContentId[]> paths = resolvePaths(contentIds, cmServer);
+            succeeded = true;
+            return paths;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
+
+    private Map<ContentId, ContentId[]> resolvePaths(Collection<ContentId> contentIds, PolicyCMServer cmServer)
+            throws CMException {
+        // Every content seen, the given ones and their ancestors, by
+        // unversioned id
+        Map<ContentId, PathNode> nodes = new HashMap<ContentId, PathNode>();
+
+        List<ContentId> level = createArrayList();
+        for (ContentId id : contentIds) {
+            addNode(nodes, level, id, cmServer);
+        }
+
+        while (!level.isEmpty()) {
+            ContentId[] ids = level.toArray(new ContentId[level.size()]);
+            level = createArrayList();
+
+            Policy[] policies = loadLevel(cmServer, ids);
+            for (int i = 0; i < ids.length; i++) {
+                PathNode node = nodes.get(ids[i].getContentId());
+                if (policies[i] == null) {
+                    node.failed = true;
+                    continue;
+                }
+                ContentRead content = policies[i].getContent();
+                node.versionId = content.getContentId();
+                node.parentId = getParentId(content);
+                if (isSiteRoot(policies[i])) {
+                    node.root = true;
+                } else if (node.parentId != null && node.parentId.getMinor() >= 1) {
+                    node.parent = addNode(nodes, level, node.parentId, cmServer);
+                }
+            }
+        }
+
+        Map<ContentId, ContentId[]> paths = new LinkedHashMap<ContentId, ContentId[]>();
+        for (ContentId id : contentIds) {
+            PathNode node = nodes.get(id.getContentId());
+            ParentPathCache.Path path = getPath(node);
+            if (path == null || !path.isRooted()) {
+                paths.put(id, new ContentId[] { node.id });
+            } else {
+                paths.put(id, path.toContentIdArray());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * A content seen while resolving paths in bulk.
+     */
+    private static final class PathNode {
+        private final ContentId id;
+        private ContentId versionId;
+        private ContentId parentId;
+        private PathNode parent;
+        private boolean root;
+        private boolean failed;
+        private boolean visiting;
+        private ParentPathCache.Path path;
+
+        PathNode(ContentId id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Gets the node of the given content, adding it to be loaded on the given
+     * level unless its path is already cached.
+     */
+    private PathNode addNode(Map<ContentId, PathNode> nodes, List<ContentId> level, ContentId id,
+            PolicyCMServer cmServer) {
+        ContentId key = id.getContentId();
+        PathNode node = nodes.get(key);
+        if (node == null) {
+            node = new PathNode(key);
+            nodes.put(key, node);
+
+            node.path = getCachedPath(key, cmServer);
+            if (node.path != null) {
+                BaselineMetrics.PARENT_PATH.hit();
+            } else {
+                BaselineMetrics.PARENT_PATH.miss();
+                level.add(id);
+            }
+        }
+        return node;
+    }
+
+    private Policy[] loadLevel(PolicyCMServer cmServer, ContentId[] ids) throws CMException {
+        BaselineMetrics.PARENT_PATH.fetched(ids.length);
+        Policy[] policies = PolicyBatchLoader.getInstance().loadPolicies(cmServer, ids);
+
+        // Parents might not be committed yet, check for uncommitted versions
+        for (int i = 0; i < ids.length; i++) {
+            if (policies[i] == null && ids[i].getVersion() != VersionedContentId.LATEST_VERSION) {
+                try {
+                    BaselineMetrics.PARENT_PATH.fetched(1);
+                    policies[i] = PolicyResolutionContext.getPolicy(cmServer, ids[i].getLatestVersionId());
+                } catch (ContentOperationFailedException e) {
+                    // Left unresolved
+                }
+            }
+        }
+        return policies;
+    }
+
+    /**
+     * Gets the path of a node from the path of its parent, and caches it.
+     * 
+     * @return the path, or null if it could not be resolved
+     */
+    private ParentPathCache.Path getPath(PathNode node) {
+        if (node.path != null || node.failed) {
+            return node.path;
+        }
+        if (node.visiting) {
+            // The parent links form a cycle
+            node.failed = true;
+            return null;
+        }
+
+        ContentIdList self = ContentIdList.of(node.id);
+        ParentPathCache.Path path;
+        if (node.root) {
+            // The site root itself, so that siblings stop there
+            path = new ParentPathCache.Path(ContentIdList.EMPTY, true);
+        } else if (node.parent == null) {
+            // No parent, so there is no site root in the path
+            path = new ParentPathCache.Path(self, false);
+        } else {
+            node.visiting = true;
+            ParentPathCache.Path parentPath = getPath(node.parent);
+            node.visiting = false;
+
+            if (parentPath == null || node.failed) {
+                node.failed = true;
+                return null;
+            }
+            if (parentPath.isRooted()) {
+                path = new ParentPathCache.Path(parentPath.getIds().append(node.id), true);
+            } else {
+                path = new ParentPathCache.Path(self, false, self.concat(parentPath.getChain()));
+            }
+        }
+        cache.putPath(node.versionId != null ? node.versionId : node.id, node.parentId, path);
+        node.path = path;
+        return path;
+    }
+
+    /**
+     * Drops cached paths going through the given content if its parent has
+     * changed since the paths were resolved.
+     * 
+     * @param content
+     *            the (possibly re-parented) content
+     * @throws CMException
+     *             if the parent of the content could not be read
+     */
+    public void validateCachedPath(ContentRead content) throws CMException {
+        cache.checkParent(content.getContentId(), getParentId(content));
+    }
+
+    /**
+     * Gets the cached path of a content. Parent links in the path that were
+     * restored from a cache snapshot are verified against the current version
+     * of their content first, dropping the path if any of them is outdated.
+     * 
+     * @return the path or null if not cached or outdated
+     */
+    private ParentPathCache.Path getCachedPath(ContentId contentId, PolicyCMServer cmServer) {
+        ParentPathCache.Path path = cache.getPath(contentId);
+        if (path == null) {
+            return null;
+        }
+        for (ContentId member : path.getChain()) {
+            if (cache.isRestored(member) && !cache.verifyRestored(member, getCurrentVersion(cmServer, member))) {
+                return null;
+            }
+        }
+        return path;
+    }
+
+    private ContentId getCurrentVersion(PolicyCMServer cmServer, ContentId contentId) {
+        BaselineMetrics.PARENT_PATH.fetched(1);
+        try {
+            return cmServer.translateSymbolicContentId(contentId.getLatestCommittedVersionId());
+        } catch (CMException e) {
+            LOG.log(Level.FINE, "Could not get the current version of " + contentId.getContentIdString(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the path, reusing cached paths of the content or of any of its
+     * ancestors.
+     */
+    ParentPathCache.Path resolve(ContentRead content, PolicyCMServer cmServer) throws CMException {
+        OperationMetrics metrics = BaselineMetrics.PARENT_PATH;
+        long start = metrics.start();
+        boolean succeeded = false;
+        try {
+            ParentPathCache.Path path = resolvePath(content, cmServer);
+            succeeded = true;
+            return path;
+        } finally {
+            metrics.stop(start, succeeded);
+        }
+    }
+
+    private ParentPathCache.Path resolvePath(ContentRead content, PolicyCMServer cmServer) throws CMException {
         ContentId contentId = content.getContentId().getContentId();
+        cache.checkParent(content.getContentId(), getParentId(content));
+
+        ParentPathCache.Path cached = getCachedPath(contentId, cmServer);
+        if (cached != null) {
+            BaselineMetrics.PARENT_PATH.hit();
+            return cached;
+        }
+        BaselineMetrics.PARENT_PATH.miss();
+
+        // Contents walked, from the content itself and upwards, the versions
+        // read and their parent links
+        List<ContentId> walked = createArrayList();
+        List<ContentId> walkedVersions = createArrayList();
+        List<ContentId> walkedParents = createArrayList();
+        ParentPathCache.Path prefix = null;
+        boolean rooted = true;
+
         Policy parent = getPolicyForContent(content, cmServer, contentId);
 
-        // Follow parents until content of type SiteRoot is found
+        // Follow parents until content of type SiteRoot, or a content with an
+        // already resolved path, is found
         while (parent != null && !isSiteRoot(parent)) {
             ContentRead parentContent = parent.getContent();
-            parentList.add(0, parentContent.getContentId().getContentId());
-
-            // Check if insert parent exists
-            ContentId id = parentContent.getContentReference("polopoly.Parent", "insertParentId");
+            ContentId id = getParentId(parentContent);
 
-            // Otherwise, use security parent
-            if (id == null) {
-                id = parentContent.getSecurityParentId();
-            }
+            walked.add(parentContent.getContentId().getContentId());
+            walkedVersions.add(parentContent.getContentId());
+            walkedParents.add(id);
 
             // If we get to a content that has no parent, then there is no site
             // root in the path, so we make one with just the original content
             if (id == null || id.getMinor() < 1) {
-                parentList.clear();
-                parentList.add(contentId);
+                rooted = false;
+                break;
+            }
+
+            prefix = getCachedPath(id.getContentId(), cmServer);
+            if (prefix != null) {
+                rooted = prefix.isRooted();
                 break;
             }
 
             parent = getPolicy(cmServer, id);
         }
-        return parentList;
+
+        if (prefix == null && parent != null && rooted) {
+            // Remember the site root itself so that siblings stop there
+            ContentRead root = parent.getContent();
+            cache.putPath(root.getContentId(), getParentId(root), new ParentPathCache.Path(ContentIdList.EMPTY, true));
+        }
+
+        int walkedCount = walked.size();
+
+        if (!rooted) {
+            ContentIdList chain = new ContentIdList(walked);
+            if (prefix != null) {
+                chain = chain.concat(prefix.getChain());
+            }
+            ParentPathCache.Path result = null;
+            for (int i = 0; i < walkedCount; i++) {
+                ContentId id = walked.get(i);
+                ParentPathCache.Path path = new ParentPathCache.Path(ContentIdList.of(id), false, chain);
+                cache.putPath(walkedVersions.get(i), walkedParents.get(i), path);
+                if (id.equalsIgnoreVersion(contentId)) {
+                    result = path;
+                }
+            }
+            return result != null ? result : new ParentPathCache.Path(ContentIdList.of(contentId), false);
+        }
+
+        // The path of each walked content is the path of its parent followed
+        // by the content itself, cache them all for siblings to reuse
+        ContentIdList ids = prefix != null ? prefix.getIds() : ContentIdList.EMPTY;
+        ParentPathCache.Path path = null;
+        for (int i = walkedCount - 1; i >= 0; i--) {
+            ids = ids.append(walked.get(i));
+            path = new ParentPathCache.Path(ids, true);
+
+            cache.putPath(walkedVersions.get(i), walkedParents.get(i), path);
+        }
+        return path != null ? path : new ParentPathCache.Path(ids, true);
+    }
+
+    /**
+     * Gets the insert parent of the content, or the security parent if there
+     * is no insert parent.
+     */
+    static ContentId getParentId(ContentRead content) throws CMException {
+        // Check if insert parent exists
+        ContentId id = content.getContentReference("polopoly.Parent", "insertParentId");
+
+        // Otherwise, use security parent
+        if (id == null) {
+            id = content.getSecurityParentId();
+        }
+        return id;
     }
 
     private Policy getPolicyForContent(ContentRead content, PolicyCMServer cmServer, ContentId contentId) throws CMException {
@@ -89,17 +420,19 @@ public class ParentPathResolver {
         if (content instanceof Policy) {
             parent = (Policy) content;
         } else {
-            parent = cmServer.getPolicy(contentId);
+            BaselineMetrics.PARENT_PATH.fetched(1);
+            parent = PolicyResolutionContext.getPolicy(cmServer, contentId);
         }
         return parent;
     }
 
     Policy getPolicy(PolicyCMServer cmServer, ContentId id) throws CMException {
+        BaselineMetrics.PARENT_PATH.fetched(1);
         try {
-            return cmServer.getPolicy(id);
+            return PolicyResolutionContext.getPolicy(cmServer, id);
         } catch (ContentOperationFailedException e) {
             if (id.getVersion() != VersionedContentId.LATEST_VERSION) {
-                return cmServer.getPolicy(id.getLatestVersionId());
+                return PolicyResolutionContext.getPolicy(cmServer, id.getLatestVersionId());
             } else
                 throw e;
         }
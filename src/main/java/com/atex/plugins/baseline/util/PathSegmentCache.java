@@ -0,0 +1,72 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.Map;
+
+import com.polopoly.cm.ContentId;
+
+/**
+ * JVM wide cache of friendly path segments, keyed by versioned content id.
+ * A version of a content never changes, so entries never need to be
+ * invalidated, they are only evicted when the cache is full.
+ * <p>
+ * The cache size can be configured with the system property
+ * <code>com.atex.plugins.baseline.pathSegmentCache.size</code>.
+ */
+public class PathSegmentCache {
+
+    public static final String SIZE_PROPERTY = "com.atex.plugins.baseline.pathSegmentCache.size";
+
+    private static final int DEFAULT_SIZE = 50000;
+
+    private static final PathSegmentCache INSTANCE = new PathSegmentCache(Integer.getInteger(SIZE_PROPERTY,
+            DEFAULT_SIZE));
+
+    private final LRUCache<ContentId, String> segments;
+
+    public PathSegmentCache(int maxSize) {
+        segments = new LRUCache<ContentId, String>(maxSize);
+    }
+
+    public static PathSegmentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the path segment of a content version.
+     * 
+     * @param versionedId
+     *            the versioned content id
+     * @return the path segment or null if not cached
+     */
+    public String get(ContentId versionedId) {
+        return segments.get(versionedId);
+    }
+
+    public void put(ContentId versionedId, String pathSegment) {
+        segments.put(versionedId, pathSegment);
+    }
+
+    /**
+     * Gets a copy of the cached path segments by versioned content id.
+     */
+    public Map<ContentId, String> getSegments() {
+        return segments.snapshot();
+    }
+
+    public void clear() {
+        segments.clear();
+    }
+
+    public int size() {
+        return segments.size();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.client.ContentOperationFailedException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+/**
+ * Loads many policies at once. The ids are split in chunks which are loaded
+ * in parallel on a small shared thread pool. The calling thread loads chunks
+ * too, and runs any chunk the pool has not started yet, so a batch never
+ * waits for a busy pool and is never slower than loading the ids one by one.
+ * <p>
+ * The number of loader threads can be configured with the system property
+ * <code>com.atex.plugins.baseline.policyBatchLoader.threads</code>. A value
+ * of 1 or less loads all policies on the calling thread.
+ * <p>
+ * Policies already resolved in the {@link PolicyResolutionContext} of the
+ * calling thread are not loaded again. Chunks loaded on the pool run under
+ * the {@link CallerContext} of the calling thread, so they are read with the
+ * permissions of the caller of the request.
+ */
+public class PolicyBatchLoader {
+
+    public static final String THREADS_PROPERTY = "com.atex.plugins.baseline.policyBatchLoader.threads";
+
+    private static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Batches smaller than this are always loaded on the calling thread.
+     */
+    private static final int MIN_CHUNK_SIZE = 8;
+
+    private static final PolicyBatchLoader INSTANCE = new PolicyBatchLoader(Integer.getInteger(THREADS_PROPERTY,
+            DEFAULT_THREADS));
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    public PolicyBatchLoader(int threads) {
+        this.threads = threads;
+
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("baseline-policy-loader-"));
+        } else {
+            executor = null;
+        }
+    }
+
+    public static PolicyBatchLoader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads the policies of the given ids. The result has the same order and
+     * length as the given ids. Contents that could not be loaded because of a
+     * {@link ContentOperationFailedException} (non-public, removed or similar)
+     * are returned as null.
+     *
+     * @param cmServer
+     *            the cm server to use
+     * @param ids
+     *            the ids to load
+     * @return the loaded policies
+     * @throws CMException
+     *             if loading any of the policies failed for another reason
+     */
+    public Policy[] loadPolicies(PolicyCMServer cmServer, ContentId[] ids) throws CMException {
+        PolicyResolutionContext context = PolicyResolutionContext.current();
+        if (context == null) {
+            return load(cmServer, ids);
+        }
+
+        // Only load the ids not already resolved in the request
+        Policy[] policies = new Policy[ids.length];
+        int[] missing = new int[ids.length];
+        int missingCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            policies[i] = context.lookup(cmServer, ids[i]);
+            if (policies[i] == null) {
+                missing[missingCount++] = i;
+            }
+        }
+        if (missingCount == 0) {
+            return policies;
+        }
+
+        ContentId[] missingIds = new ContentId[missingCount];
+        for (int i = 0; i < missingCount; i++) {
+            missingIds[i] = ids[missing[i]];
+        }
+        Policy[] loaded = load(cmServer, missingIds);
+        for (int i = 0; i < missingCount; i++) {
+            policies[missing[i]] = loaded[i];
+            context.store(cmServer, missingIds[i], loaded[i]);
+        }
+        return policies;
+    }
+
+    private Policy[] load(final PolicyCMServer cmServer, final ContentId[] ids) throws CMException {
+        final Policy[] policies = new Policy[ids.length];
+
+        int chunks = Math.min(threads, ids.length / MIN_CHUNK_SIZE);
+        if (executor == null || chunks < 2) {
+            load(cmServer, ids, policies, 0, ids.length);
+            return policies;
+        }
+
+        CallerContext context = CallerContext.capture(cmServer);
+        int chunkSize = (ids.length + chunks - 1) / chunks;
+        FutureTask<?>[] tasks = new FutureTask<?>[chunks];
+        for (int i = 0; i < chunks; i++) {
+            final int from = i * chunkSize;
+            final int to = Math.min(ids.length, from + chunkSize);
+
+            tasks[i] = new FutureTask<Object>(context.wrap(new Callable<Object>() {
+                public Object call() throws CMException {
+                    load(cmServer, ids, policies, from, to);
+                    return null;
+                }
+            }));
+        }
+
+        // The first chunk is always loaded by the calling thread
+        for (int i = 1; i < chunks; i++) {
+            executor.execute(tasks[i]);
+        }
+        for (int i = 0; i < chunks; i++) {
+            // Does nothing if the task was already started by the pool
+            tasks[i].run();
+        }
+        for (int i = 0; i < chunks; i++) {
+            await(tasks[i]);
+        }
+        return policies;
+    }
+
+    private void load(PolicyCMServer cmServer, ContentId[] ids, Policy[] policies, int from, int to) throws CMException {
+        for (int i = from; i < to; i++) {
+            try {
+                policies[i] = cmServer.getPolicy(ids[i]);
+            } catch (ContentOperationFailedException e) {
+                // The content may be non-public or similar (or maybe even
+                // removed!). Leave it out and let the caller proceed with the
+                // other contents.
+            }
+        }
+    }
+
+    private void await(FutureTask<?> task) throws CMException {
+        try {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CMException) {
+                throw (CMException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unexpected error loading policies", cause);
+        }
+    }
+}
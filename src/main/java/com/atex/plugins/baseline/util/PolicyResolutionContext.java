@@ -0,0 +1,202 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+/**
+ * Request scoped cache of resolved policies. While a context is active on the
+ * current thread, the baseline call sites (parent path walks, feedable
+ * loading, previewability checks and user lookups) resolve each content id at
+ * most once, later lookups of the same id are served from the context.
+ * <p>
+ * A context is bound to the current thread for the duration of a request or a
+ * render:
+ * 
+ * <pre>
+ * PolicyResolutionContext context = PolicyResolutionContext.begin();
+ * try {
+ *     ...
+ * } finally {
+ *     context.end();
+ * }
+ * </pre>
+ * 
+ * Contexts may be nested, the outermost context is used until it ends.
+ * Failed lookups are not remembered. A context only serves the cm server it
+ * was first used with, lookups through other cm servers go straight through.
+ * Deduplicated lookups are counted per context and, over all contexts, as
+ * cache hits of {@link BaselineMetrics#POLICY_RESOLUTION}.
+ * <p>
+ * Work done for the request on pool threads shares the context through
+ * {@link CallerContext}, lookups and stores are therefore thread safe.
+ */
+public final class PolicyResolutionContext {
+
+    private static final ThreadLocal<PolicyResolutionContext> CURRENT = new ThreadLocal<PolicyResolutionContext>();
+
+    private final Map<ContentId, Policy> policies = new HashMap<ContentId, Policy>();
+
+    private PolicyCMServer cmServer;
+
+    private int depth;
+
+    private long lookups;
+
+    private long deduplicated;
+
+    private PolicyResolutionContext() {
+    }
+
+    /**
+     * Begins a context on the current thread, or joins the context already
+     * active.
+     * 
+     * @return the active context, {@link #end()} must be called on it
+     */
+    public static PolicyResolutionContext begin() {
+        PolicyResolutionContext context = CURRENT.get();
+        if (context == null) {
+            context = new PolicyResolutionContext();
+            CURRENT.set(context);
+        }
+        context.depth++;
+        return context;
+    }
+
+    /**
+     * Ends this context. The context is removed from the thread when the
+     * outermost {@link #begin()} is ended.
+     */
+    public void end() {
+        if (CURRENT.get() != this) {
+            throw new IllegalStateException("Context is not active on this thread");
+        }
+        if (--depth == 0) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Makes the given context active on the current thread without beginning
+     * it, used to run work for a request on another thread.
+     * 
+     * @param context
+     *            the context, or null to leave the thread without context
+     * @return the context previously active on the thread, to attach again
+     *         when done
+     */
+    static PolicyResolutionContext attach(PolicyResolutionContext context) {
+        PolicyResolutionContext previous = CURRENT.get();
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the context active on the current thread.
+     * 
+     * @return the context or null if none is active
+     */
+    public static PolicyResolutionContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Gets a policy through the context active on the current thread, or
+     * directly from the cm server if there is none.
+     */
+    public static Policy getPolicy(PolicyCMServer cmServer, ContentId contentId) throws CMException {
+        PolicyResolutionContext context = CURRENT.get();
+        if (context == null) {
+            return cmServer.getPolicy(contentId);
+        }
+        return context.resolve(cmServer, contentId);
+    }
+
+    /**
+     * Gets a policy from this context, resolving it through the cm server if
+     * it has not been resolved before.
+     */
+    public Policy resolve(PolicyCMServer server, ContentId contentId) throws CMException {
+        Policy policy = lookup(server, contentId);
+        if (policy == null) {
+            policy = server.getPolicy(contentId);
+            store(server, contentId, policy);
+        }
+        return policy;
+    }
+
+    /**
+     * Gets a policy previously resolved in this context.
+     * 
+     * @return the policy or null if not resolved yet
+     */
+    public synchronized Policy lookup(PolicyCMServer server, ContentId contentId) {
+        if (!isFor(server)) {
+            return null;
+        }
+        lookups++;
+        Policy policy = policies.get(contentId);
+        if (policy != null) {
+            deduplicated++;
+            BaselineMetrics.POLICY_RESOLUTION.hit();
+        } else {
+            BaselineMetrics.POLICY_RESOLUTION.miss();
+        }
+        return policy;
+    }
+
+    /**
+     * Remembers a policy resolved outside the context, e.g. by a batch load.
+     */
+    public synchronized void store(PolicyCMServer server, ContentId contentId, Policy policy) {
+        if (policy == null) {
+            return;
+        }
+        if (cmServer == null) {
+            cmServer = server;
+        }
+        if (isFor(server)) {
+            policies.put(contentId, policy);
+        }
+    }
+
+    private boolean isFor(PolicyCMServer server) {
+        return cmServer == null || cmServer == server;
+    }
+
+    /**
+     * The number of lookups made through this context.
+     */
+    public synchronized long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * The number of lookups served by this context without fetching.
+     */
+    public synchronized long getDeduplicated() {
+        return deduplicated;
+    }
+
+    public synchronized int size() {
+        return policies.size();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * (c) Polopoly AB (publ).
+ * This software is protected by copyright law and international copyright
+ * treaties as well as other intellectual property laws and treaties.
+ * All title and rights in and to this software and any copies thereof
+ * are the sole property of Polopoly AB (publ).
+ * Polopoly is a registered trademark of Polopoly AB (publ).
+ */
+
+package com.atex.plugins.baseline.util;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Servlet filter running each request within a {@link PolicyResolutionContext},
+ * so that the baseline call sites resolve each content at most once per
+ * request. Map it in front of the dispatcher of the front and preview web
+ * applications:
+ * 
+ * <pre>
+ * &lt;filter&gt;
+ *   &lt;filter-name&gt;policyResolution&lt;/filter-name&gt;
+ *   &lt;filter-class&gt;com.atex.plugins.baseline.util.PolicyResolutionFilter&lt;/filter-class&gt;
+ * &lt;/filter&gt;
+ * &lt;filter-mapping&gt;
+ *   &lt;filter-name&gt;policyResolution&lt;/filter-name&gt;
+ *   &lt;url-pattern&gt;/*&lt;/url-pattern&gt;
+ * &lt;/filter-mapping&gt;
+ * </pre>
+ * 
+ * A request that is forwarded or included joins the context of the outer
+ * request.
+ */
+public class PolicyResolutionFilter implements Filter {
+
+    public void init(FilterConfig filterConfig) {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        PolicyResolutionContext context = PolicyResolutionContext.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            context.end();
+        }
+    }
+
+    public void destroy() {
+    }
+}
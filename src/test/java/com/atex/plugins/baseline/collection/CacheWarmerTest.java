@@ -0,0 +1,114 @@
+package com.atex.plugins.baseline.collection;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+public class CacheWarmerTest extends TestCase {
+    private PolicyCMServer cmServer;
+    private ContentId queueId;
+    private Policy queue;
+
+    protected void setUp() throws Exception
+    {
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        queueId = new ContentId(1, 100);
+        queue = (Policy) mock(Policy.class, withSettings().extraInterfaces(PagedPublishingQueue.class));
+        when(cmServer.getPolicy(queueId)).thenReturn(queue);
+        when(((PagedPublishingQueue) queue).getFeedables(0, 10)).thenReturn(
+                Collections.<Feedable> emptyList());
+    }
+
+    public void testWarmsUpQueues() throws CMException
+    {
+        CacheWarmer target = new CacheWarmer(cmServer, 10, 2, 5000);
+        target.addQueue(queueId);
+
+        WarmUpProgress progress = target.warmUp();
+
+        assertTrue(progress.isDone());
+        assertFalse(progress.isTimedOut());
+        assertEquals(1, progress.getCompleted());
+        assertSame(progress, target.getProgress());
+        verify((PagedPublishingQueue) queue).getContentList();
+        verify((PagedPublishingQueue) queue).getFeedables(0, 10);
+    }
+
+    public void testFailuresAreCounted() throws CMException
+    {
+        ContentId missing = new ContentId(1, 99);
+        when(cmServer.getPolicy(missing)).thenThrow(new IllegalStateException("missing"));
+
+        CacheWarmer target = new CacheWarmer(cmServer, 10, 2, 5000);
+        target.addQueue(missing);
+        target.addQueue(queueId);
+
+        WarmUpProgress progress = target.warmUp();
+
+        assertEquals(1, progress.getCompleted());
+        assertEquals(1, progress.getFailed());
+    }
+
+    public void testStopsWhenBudgetIsSpent() throws CMException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        ContentId slowId = new ContentId(1, 200);
+        when(cmServer.getPolicy(slowId)).thenAnswer(new Answer<Policy>() {
+            public Policy answer(InvocationOnMock invocation) throws Throwable
+            {
+                release.await();
+                return queue;
+            }
+        });
+
+        CacheWarmer target = new CacheWarmer(cmServer, 10, 1, 100);
+        target.addQueue(slowId);
+        try {
+            WarmUpProgress progress = target.warmUp();
+
+            assertTrue(progress.isDone());
+            assertTrue(progress.isTimedOut());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    public void testInterruptsWorkWhenBudgetIsSpent() throws Exception
+    {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        ContentId slowId = new ContentId(1, 200);
+        when(cmServer.getPolicy(slowId)).thenAnswer(new Answer<Policy>() {
+            public Policy answer(InvocationOnMock invocation) throws Throwable
+            {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                throw new IllegalStateException("interrupted");
+            }
+        });
+
+        CacheWarmer target = new CacheWarmer(cmServer, 10, 1, 100);
+        target.addQueue(slowId);
+        target.warmUp();
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,148 @@
+package com.atex.plugins.baseline.collection;
+
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.client.solrj.SolrServerException;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.user.server.Caller;
+
+public class ContentListRefreshSchedulerTest extends TestCase {
+    private PolicyCMServer cmServer;
+    private Caller caller;
+    private ContentId providerId;
+    private Policy version;
+    private RefreshableContentListProvider provider;
+
+    protected void setUp() throws Exception
+    {
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        caller = (Caller) mock(Caller.class);
+        providerId = new ContentId(1, 100);
+        VersionedContentId latest = new VersionedContentId(1, 100, 5);
+        when(cmServer.translateSymbolicContentId(providerId.getLatestCommittedVersionId())).thenReturn(latest);
+        version = (Policy) mock(Policy.class, withSettings().extraInterfaces(RefreshableContentListProvider.class));
+        when(cmServer.createContentVersion(latest)).thenReturn(version);
+        provider = (RefreshableContentListProvider) version;
+    }
+
+    public void testBackoffDoublesUpToMax()
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0, 5000, 1);
+
+        assertEquals(1000, target.nextDelay(0));
+        assertEquals(2000, target.nextDelay(1));
+        assertEquals(4000, target.nextDelay(2));
+        assertEquals(5000, target.nextDelay(3));
+        assertEquals(5000, target.nextDelay(30));
+    }
+
+    public void testJitterStaysWithinBounds()
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0.2, 1000, 1);
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long delay = target.nextDelay(0);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 800);
+        assertTrue(max <= 1200);
+        assertTrue(min < max);
+    }
+
+    private RefreshStats refresh(ContentListRefreshScheduler target)
+    {
+        RefreshStats stats = target.getStats().get(providerId);
+        target.refresh(providerId, stats);
+        return stats;
+    }
+
+    public void testSearchFailuresBackOff() throws Exception
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0, 60000, 1);
+        target.register(providerId);
+        doThrow(new SolrServerException("failing")).when(provider).refresh();
+
+        RefreshStats stats = refresh(target);
+        assertEquals(2000, target.refresh(providerId, stats));
+
+        assertEquals(2, stats.getConsecutiveFailures());
+        assertEquals(2, stats.getFailureCount());
+    }
+
+    public void testOtherFailuresDoNotBackOff() throws Exception
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0, 60000, 1);
+        target.register(providerId);
+        doThrow(new IllegalStateException("failing")).when(provider).refresh();
+
+        RefreshStats stats = refresh(target);
+
+        assertEquals(1000, target.refresh(providerId, stats));
+        assertEquals(0, stats.getConsecutiveFailures());
+        assertEquals(2, stats.getFailureCount());
+    }
+
+    public void testSuccessResetsBackoff() throws Exception
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0, 60000, 1);
+        target.register(providerId);
+        doThrow(new SolrServerException("failing")).when(provider).refresh();
+        RefreshStats stats = refresh(target);
+
+        doNothing().when(provider).refresh();
+
+        assertEquals(1000, target.refresh(providerId, stats));
+        assertEquals(0, stats.getConsecutiveFailures());
+        assertEquals(1, stats.getRefreshCount());
+    }
+
+    public void testUnregisteredProviderIsNotRefreshed()
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0, 60000, 1);
+        target.register(providerId);
+        RefreshStats stats = target.getStats().get(providerId);
+        target.unregister(providerId);
+
+        assertEquals(-1, target.refresh(providerId, stats));
+    }
+
+    public void testRefreshCommitsNewVersionAsCaller() throws Exception
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0, 60000, 1);
+        target.register(providerId);
+
+        refresh(target);
+
+        verify(provider).refresh();
+        verify(cmServer).setCurrentCaller(caller);
+        verify(cmServer).commitContent(version);
+        verify(cmServer, never()).getPolicy(providerId);
+    }
+
+    public void testFailedRefreshAbortsNewVersion() throws Exception
+    {
+        ContentListRefreshScheduler target = new ContentListRefreshScheduler(cmServer, caller, 1000, 0, 60000, 1);
+        target.register(providerId);
+        doThrow(new SolrServerException("failing")).when(provider).refresh();
+
+        refresh(target);
+
+        verify(cmServer).abortContent(version);
+        verify(cmServer, never()).commitContent(version);
+    }
+}
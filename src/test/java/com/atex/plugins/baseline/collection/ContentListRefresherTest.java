@@ -0,0 +1,233 @@
+package com.atex.plugins.baseline.collection;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.collections.ContentList;
+
+public class ContentListRefresherTest extends TestCase {
+    private ContentListRefresher target;
+
+    private static class TestProvider implements SharedRefreshContentListProvider {
+        private final String criteria;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private final AtomicInteger refreshes = new AtomicInteger();
+        private volatile Thread refreshThread;
+        private volatile SharedRefreshContentListProvider takenFrom;
+        private volatile TestProvider copy;
+
+        TestProvider(String criteria, CountDownLatch release)
+        {
+            this.criteria = criteria;
+            this.release = release;
+        }
+
+        public ContentList getContentList()
+        {
+            return null;
+        }
+
+        public void refresh() throws Exception
+        {
+            refreshThread = Thread.currentThread();
+            refreshes.incrementAndGet();
+            started.countDown();
+            release.await();
+        }
+
+        public Object getRefreshKey()
+        {
+            return criteria;
+        }
+
+        public void refreshFrom(SharedRefreshContentListProvider refreshed)
+        {
+            takenFrom = refreshed;
+        }
+
+        public SharedRefreshContentListProvider createRefreshCopy()
+        {
+            copy = new TestProvider(criteria, release);
+            return copy;
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        target = new ContentListRefresher();
+    }
+
+    private Thread refreshInBackground(final TestProvider provider)
+    {
+        Thread thread = new Thread() {
+            public void run()
+            {
+                try {
+                    target.refresh(provider, 5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private void releaseLater(final CountDownLatch release)
+    {
+        new Thread() {
+            public void run()
+            {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Release at once
+                }
+                release.countDown();
+            }
+        }.start();
+    }
+
+    public void testRefreshRunsOnCallingThread() throws Exception
+    {
+        TestProvider provider = new TestProvider("a", new CountDownLatch(0));
+
+        target.refresh(provider, 1, TimeUnit.SECONDS);
+
+        assertSame(Thread.currentThread(), provider.refreshThread);
+        assertNull(target.getRunningRefresh(provider));
+    }
+
+    public void testEqualKeysShareRefresh() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        TestProvider first = new TestProvider("a", release);
+        TestProvider second = new TestProvider("a", release);
+
+        Thread thread = refreshInBackground(first);
+        first.started.await();
+        releaseLater(release);
+        target.refresh(second, 5, TimeUnit.SECONDS);
+        thread.join();
+
+        assertEquals(0, second.refreshes.get());
+        assertSame(first, second.takenFrom);
+    }
+
+    public void testDifferentKeysAreNotShared() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        TestProvider first = new TestProvider("a", release);
+        TestProvider second = new TestProvider("b", new CountDownLatch(0));
+
+        Thread thread = refreshInBackground(first);
+        first.started.await();
+        target.refresh(second, 5, TimeUnit.SECONDS);
+        release.countDown();
+        thread.join();
+
+        assertEquals(1, second.refreshes.get());
+        assertNull(second.takenFrom);
+    }
+
+    public void testTimeoutLeavesProviderUntouched() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        TestProvider first = new TestProvider("a", release);
+        TestProvider second = new TestProvider("a", release);
+
+        Thread thread = refreshInBackground(first);
+        first.started.await();
+        try {
+            target.refresh(second, 10, TimeUnit.MILLISECONDS);
+            fail("Expected TimeoutException");
+        } catch (TimeoutException e) {
+            // Expected
+        } finally {
+            release.countDown();
+            thread.join();
+        }
+
+        assertEquals(0, second.refreshes.get());
+        assertNull(second.takenFrom);
+    }
+
+    public void testUnsharedProviderIsRefreshedAgain() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger refreshes = new AtomicInteger();
+        final RefreshableContentListProvider provider = new RefreshableContentListProvider() {
+            public ContentList getContentList()
+            {
+                return null;
+            }
+
+            public void refresh() throws Exception
+            {
+                if (refreshes.incrementAndGet() == 1) {
+                    started.countDown();
+                    release.await();
+                }
+            }
+        };
+        Thread thread = new Thread() {
+            public void run()
+            {
+                try {
+                    target.refresh(provider, 5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        started.await();
+        releaseLater(release);
+
+        target.refresh(provider, 5, TimeUnit.SECONDS);
+        thread.join();
+
+        assertEquals(2, refreshes.get());
+    }
+
+    public void testAsyncRefreshRunsOnCopy() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        TestProvider provider = new TestProvider("a", release);
+
+        RefreshHandle handle = target.refreshAsync(provider);
+        provider.copy.started.await();
+        assertFalse(handle.completeInto(provider));
+        release.countDown();
+        handle.await(5, TimeUnit.SECONDS);
+
+        assertTrue(handle.completeInto(provider));
+        assertEquals(0, provider.refreshes.get());
+        assertEquals(1, provider.copy.refreshes.get());
+        assertNotSame(Thread.currentThread(), provider.copy.refreshThread);
+        assertSame(provider.copy, provider.takenFrom);
+    }
+
+    public void testAsyncRefreshesOfEqualKeysAreShared() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        TestProvider first = new TestProvider("a", release);
+        TestProvider second = new TestProvider("a", release);
+
+        RefreshHandle handle = target.refreshAsync(first);
+        assertSame(handle, target.refreshAsync(second));
+        release.countDown();
+        handle.await(5, TimeUnit.SECONDS);
+
+        assertTrue(handle.completeInto(second));
+        assertNull(second.copy);
+        assertSame(first.copy, second.takenFrom);
+        assertEquals("a", handle.getRefreshKey());
+    }
+}
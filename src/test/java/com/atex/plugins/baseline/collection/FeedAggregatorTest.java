@@ -0,0 +1,170 @@
+package com.atex.plugins.baseline.collection;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atex.plugins.baseline.util.PolicyResolutionContext;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.siteengine.standard.feed.Feedable;
+import com.polopoly.user.server.Caller;
+
+public class FeedAggregatorTest extends TestCase {
+    private FeedAggregator target;
+    private Feedable a;
+    private Feedable b;
+    private Feedable c;
+
+    protected void setUp() throws Exception
+    {
+        target = new FeedAggregator(2);
+        a = (Feedable) mock(Feedable.class);
+        b = (Feedable) mock(Feedable.class);
+        c = (Feedable) mock(Feedable.class);
+    }
+
+    private PagedPublishingQueue createQueueMock()
+    {
+        return (PagedPublishingQueue) mock(PagedPublishingQueue.class);
+    }
+
+    private PagedPublishingQueue createQueue(int limit, Feedable... feedables) throws CMException
+    {
+        PagedPublishingQueue queue = createQueueMock();
+        when(queue.getFeedables(0, limit)).thenReturn(Arrays.asList(feedables));
+        return queue;
+    }
+
+    public void testMergesInQueueOrderWithoutDuplicates() throws CMException
+    {
+        List<Feedable> feed = target.aggregate(Arrays.asList(createQueue(10, a, b), createQueue(10, b, c)), 10, 5,
+                TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(a, b, c), feed);
+    }
+
+    public void testRespectsLimit() throws CMException
+    {
+        List<Feedable> feed = target.aggregate(Arrays.asList(createQueue(2, a, b), createQueue(2, c)), 2, 5,
+                TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(a, b), feed);
+    }
+
+    public void testFailingQueueIsLeftOut() throws CMException
+    {
+        PagedPublishingQueue failing = createQueueMock();
+        when(failing.getFeedables(0, 10)).thenThrow(new RuntimeException("failing"));
+
+        List<Feedable> feed = target.aggregate(Arrays.asList(failing, createQueue(10, c)), 10, 5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(c), feed);
+    }
+
+    public void testSlowQueueIsLeftOut() throws CMException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        PagedPublishingQueue slow = createQueueMock();
+        when(slow.getFeedables(0, 10)).thenAnswer(new Answer<List<Feedable>>() {
+            public List<Feedable> answer(InvocationOnMock invocation) throws Throwable
+            {
+                release.await();
+                return Arrays.asList(a);
+            }
+        });
+
+        try {
+            List<Feedable> feed = target.aggregate(Arrays.asList(slow, createQueue(10, c)), 10, 100,
+                    TimeUnit.MILLISECONDS);
+
+            assertEquals(Arrays.asList(c), feed);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    public void testTimedOutLoadIsInterrupted() throws CMException, InterruptedException
+    {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        PagedPublishingQueue slow = createQueueMock();
+        when(slow.getFeedables(0, 10)).thenAnswer(new Answer<List<Feedable>>() {
+            public List<Feedable> answer(InvocationOnMock invocation)
+            {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return Arrays.asList(a);
+            }
+        });
+
+        target.aggregate(Arrays.asList(slow), 10, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testQueueThatCannotBeQueuedIsLeftOut() throws CMException
+    {
+        target = new FeedAggregator(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PagedPublishingQueue slow = createQueueMock();
+        when(slow.getFeedables(0, 10)).thenAnswer(new Answer<List<Feedable>>() {
+            public List<Feedable> answer(InvocationOnMock invocation) throws Throwable
+            {
+                release.await();
+                return Arrays.asList(a);
+            }
+        });
+        PagedPublishingQueue rejected = createQueue(10, c);
+
+        try {
+            target.aggregate(Arrays.asList(slow, createQueue(10, b), rejected), 10, 50, TimeUnit.MILLISECONDS);
+        } finally {
+            release.countDown();
+        }
+        verify(rejected, never()).getFeedables(0, 10);
+    }
+
+    public void testLoadsRunInCallerContext() throws CMException
+    {
+        final Caller caller = (Caller) mock(Caller.class);
+        PolicyCMServer cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        when(cmServer.getCurrentCaller()).thenReturn(caller);
+
+        final PolicyResolutionContext[] seen = new PolicyResolutionContext[1];
+        PagedPublishingQueue queue = (PagedPublishingQueue) mock(PagedPublishingQueue.class, withSettings()
+                .extraInterfaces(Policy.class));
+        when(((Policy) queue).getCMServer()).thenReturn(cmServer);
+        when(queue.getFeedables(0, 10)).thenAnswer(new Answer<List<Feedable>>() {
+            public List<Feedable> answer(InvocationOnMock invocation)
+            {
+                seen[0] = PolicyResolutionContext.current();
+                return Arrays.asList(a);
+            }
+        });
+
+        PolicyResolutionContext context = PolicyResolutionContext.begin();
+        try {
+            assertEquals(Arrays.asList(a), target.aggregate(Arrays.asList(queue), 10, 5, TimeUnit.SECONDS));
+        } finally {
+            context.end();
+        }
+        assertSame(context, seen[0]);
+        verify(cmServer).setCurrentCaller(caller);
+    }
+}
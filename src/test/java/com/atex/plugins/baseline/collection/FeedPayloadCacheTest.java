@@ -0,0 +1,270 @@
+package com.atex.plugins.baseline.collection;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atex.plugins.baseline.content.CacheKeyProvider;
+import com.atex.plugins.baseline.content.ContentBasePolicy;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+public class FeedPayloadCacheTest extends TestCase {
+    private FeedPayloadCache target;
+    private TestSerializer serializer;
+    private PagedPublishingQueue queue;
+
+    private static class TestSerializer implements FeedItemSerializer {
+        private final List<ContentId> serialized = new ArrayList<ContentId>();
+
+        public String getFormat()
+        {
+            return "test";
+        }
+
+        public byte[] serializeHeader(ModelTypeDescriptionPublishingQueue queue)
+        {
+            return "[".getBytes();
+        }
+
+        public byte[] serializeItem(Feedable feedable)
+        {
+            ContentId id = ((Policy) feedable).getContentId();
+            serialized.add(id);
+            return (id.getMajor() + "." + id.getMinor() + "." + id.getVersion() + ";").getBytes();
+        }
+
+        public byte[] serializeFooter(ModelTypeDescriptionPublishingQueue queue)
+        {
+            return "]".getBytes();
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        target = new FeedPayloadCache(10, 10);
+        serializer = new TestSerializer();
+        queue = (PagedPublishingQueue) mock(PagedPublishingQueue.class, withSettings().extraInterfaces(Policy.class,
+                CacheKeyProvider.class));
+        when(((Policy) queue).getContentId()).thenReturn(new VersionedContentId(2, 100, 1));
+    }
+
+    private Feedable createFeedable(int minor, int version)
+    {
+        Policy feedable = (Policy) mock(Policy.class, withSettings().extraInterfaces(Feedable.class));
+        when(feedable.getContentId()).thenReturn(new VersionedContentId(1, minor, version));
+        return (Feedable) feedable;
+    }
+
+    private void setUpQueue(String cacheKey, Feedable... feedables) throws CMException
+    {
+        when(((CacheKeyProvider) queue).getCacheKey()).thenReturn(cacheKey);
+        when(queue.getFeedables(0, 10)).thenReturn(Arrays.asList(feedables));
+    }
+
+    private static String toString(FeedPayload payload)
+    {
+        ByteBuffer buffer = payload.getBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+
+    public void testBuildsPayload() throws CMException
+    {
+        setUpQueue("a", createFeedable(1, 1), createFeedable(2, 1));
+
+        FeedPayload payload = target.getPayload(queue, serializer, 10);
+
+        assertEquals("[1.1.1;1.2.1;]", toString(payload));
+        assertEquals(payload.getLength(), payload.getBuffer().remaining());
+        assertTrue(payload.getBuffer().isReadOnly());
+    }
+
+    public void testServesCachedPayloadWhileCacheKeyIsUnchanged() throws CMException
+    {
+        setUpQueue("a", createFeedable(1, 1));
+
+        FeedPayload payload = target.getPayload(queue, serializer, 10);
+
+        assertSame(payload, target.getPayload(queue, serializer, 10));
+        assertEquals(1, serializer.serialized.size());
+    }
+
+    public void testOnlyChangedItemsAreSerializedAgain() throws CMException
+    {
+        setUpQueue("a", createFeedable(1, 1), createFeedable(2, 1));
+        FeedPayload first = target.getPayload(queue, serializer, 10);
+        serializer.serialized.clear();
+
+        setUpQueue("b", createFeedable(1, 1), createFeedable(2, 2));
+        FeedPayload second = target.getPayload(queue, serializer, 10);
+
+        assertEquals(Arrays.asList(new VersionedContentId(1, 2, 2)), serializer.serialized);
+        assertEquals("[1.1.1;1.2.2;]", toString(second));
+        assertFalse(first.getETag().equals(second.getETag()));
+    }
+
+    public void testUnchangedBytesKeepETagAndLastModified() throws CMException
+    {
+        setUpQueue("a", createFeedable(1, 1));
+        FeedPayload first = target.getPayload(queue, serializer, 10);
+
+        setUpQueue("b", createFeedable(1, 1));
+        FeedPayload second = target.getPayload(queue, serializer, 10);
+
+        assertNotSame(first, second);
+        assertEquals(first.getETag(), second.getETag());
+        assertEquals(first.getLastModified(), second.getLastModified());
+    }
+
+    public void testNotModified() throws CMException
+    {
+        setUpQueue("a", createFeedable(1, 1));
+        FeedPayload payload = target.getPayload(queue, serializer, 10);
+
+        assertTrue(payload.isNotModified(payload.getETag(), -1));
+        assertFalse(payload.isNotModified("\"other\"", -1));
+        assertTrue(payload.isNotModified(null, payload.getLastModified()));
+        assertFalse(payload.isNotModified(null, payload.getLastModified() - 1000));
+        assertFalse(payload.isNotModified(null, -1));
+    }
+
+    public void testInvalidate() throws CMException
+    {
+        setUpQueue("a", createFeedable(1, 1));
+        FeedPayload payload = target.getPayload(queue, serializer, 10);
+
+        target.invalidate(new ContentId(2, 100));
+
+        assertNotSame(payload, target.getPayload(queue, serializer, 10));
+        // The item is still cached
+        assertEquals(1, serializer.serialized.size());
+    }
+
+    public void testPayloadExpires() throws Exception
+    {
+        target = new FeedPayloadCache(10, 10, 1);
+        setUpQueue("a", createFeedable(1, 1));
+        FeedPayload payload = target.getPayload(queue, serializer, 10);
+
+        Thread.sleep(10);
+
+        assertNotSame(payload, target.getPayload(queue, serializer, 10));
+        // The item is still cached
+        assertEquals(1, serializer.serialized.size());
+    }
+
+    public void testConcurrentRebuildsAreCoalesced() throws Exception
+    {
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(((CacheKeyProvider) queue).getCacheKey()).thenReturn("a");
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws InterruptedException
+            {
+                building.countDown();
+                release.await();
+                return Arrays.asList(createFeedable(1, 1));
+            }
+        }).when(queue).getFeedables(0, 10);
+
+        final AtomicReference<FeedPayload> first = new AtomicReference<FeedPayload>();
+        Thread builder = new Thread() {
+            public void run()
+            {
+                try {
+                    first.set(target.getPayload(queue, serializer, 10));
+                } catch (CMException e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        builder.start();
+        building.await();
+
+        final AtomicReference<FeedPayload> second = new AtomicReference<FeedPayload>();
+        Thread waiter = new Thread() {
+            public void run()
+            {
+                try {
+                    second.set(target.getPayload(queue, serializer, 10));
+                } catch (CMException e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        waiter.start();
+        while (waiter.isAlive() && waiter.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        builder.join();
+        waiter.join();
+
+        assertNotNull(first.get());
+        assertSame(first.get(), second.get());
+        verify(queue, times(1)).getFeedables(0, 10);
+    }
+
+    public void testWorkingCopyItemsAreNotCached() throws CMException
+    {
+        ContentBasePolicy workingCopy = (ContentBasePolicy) mock(ContentBasePolicy.class, withSettings()
+                .extraInterfaces(Feedable.class));
+        when(workingCopy.getContentId()).thenReturn(new VersionedContentId(1, 1, 2));
+        when(workingCopy.isCommitted()).thenReturn(false);
+        setUpQueue("a", (Feedable) workingCopy);
+        target.getPayload(queue, serializer, 10);
+
+        setUpQueue("b", (Feedable) workingCopy);
+        target.getPayload(queue, serializer, 10);
+
+        assertEquals(2, serializer.serialized.size());
+    }
+
+    public void testWorkingCopyQueueIsBuiltWithoutCacheKey() throws CMException
+    {
+        ContentBasePolicy workingCopy = (ContentBasePolicy) mock(ContentBasePolicy.class, withSettings()
+                .extraInterfaces(PagedPublishingQueue.class));
+        when(workingCopy.getContentId()).thenReturn(new VersionedContentId(2, 101, 2));
+        when(workingCopy.isCommitted()).thenReturn(false);
+        PagedPublishingQueue workingQueue = (PagedPublishingQueue) workingCopy;
+        when(workingQueue.getFeedables(0, 10)).thenReturn(Arrays.asList(createFeedable(1, 1)));
+
+        FeedPayload payload = target.getPayload(workingQueue, serializer, 10);
+
+        assertEquals("[1.1.1;]", toString(payload));
+        assertNotSame(payload, target.getPayload(workingQueue, serializer, 10));
+        verify(workingCopy, never()).getCacheKey();
+        // The committed item is still cached
+        assertEquals(1, serializer.serialized.size());
+    }
+
+    public void testETagIsContentHash() throws CMException
+    {
+        setUpQueue("a", createFeedable(1, 1));
+
+        FeedPayload payload = target.getPayload(queue, serializer, 10);
+
+        assertEquals(34, payload.getETag().length());
+    }
+}
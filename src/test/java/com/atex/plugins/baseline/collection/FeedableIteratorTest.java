@@ -0,0 +1,126 @@
+package com.atex.plugins.baseline.collection;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.ContentReference;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.collections.ContentList;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.siteengine.standard.feed.Feedable;
+
+public class FeedableIteratorTest extends TestCase {
+    private PolicyCMServer cmServer;
+    private ContentList firstPage;
+    private ContentListPageSource pageSource;
+    private ContentListPaged contentList;
+
+    protected void setUp() throws Exception
+    {
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        for (int i = 0; i < 7; i++) {
+            ContentId id = new ContentId(1, 100 + i);
+            Policy feedable = (Policy) mock(Policy.class, withSettings().extraInterfaces(Feedable.class));
+            when(feedable.getContentId()).thenReturn(id);
+            when(cmServer.getPolicy(id)).thenReturn(feedable);
+        }
+
+        firstPage = (ContentList) mock(ContentList.class);
+        when(firstPage.size()).thenReturn(3);
+        for (int i = 0; i < 3; i++) {
+            when(firstPage.getEntry(i)).thenReturn(reference(i));
+        }
+
+        pageSource = (ContentListPageSource) mock(ContentListPageSource.class);
+        ContentListCursor second = new ContentListCursor(3, "second");
+        ContentListCursor third = new ContentListCursor(5, "third");
+        when(pageSource.fetchPage(second)).thenReturn(page(3, 5, third));
+        when(pageSource.fetchPage(third)).thenReturn(page(5, 7, null));
+
+        contentList = PagedContentList.create(firstPage, second, 7, pageSource);
+    }
+
+    private static ContentReference reference(int i)
+    {
+        return new ContentReference(new ContentId(1, 100 + i), null);
+    }
+
+    private static ContentListPage page(int from, int to, ContentListCursor next)
+    {
+        List<ContentReference> entries = new ArrayList<ContentReference>();
+        for (int i = from; i < to; i++) {
+            entries.add(reference(i));
+        }
+        return new ContentListPage(entries, next);
+    }
+
+    private static void assertReadsAll(Iterator<Feedable> iterator)
+    {
+        for (int i = 0; i < 7; i++) {
+            assertTrue(iterator.hasNext());
+            assertEquals(new ContentId(1, 100 + i), ((Policy) iterator.next()).getContentId());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    public void testReadsFetchedPages()
+    {
+        assertReadsAll(new FeedableIterator(contentList, cmServer, 2));
+    }
+
+    public void testFetchedPagesAreNotAddedToList() throws CMException
+    {
+        assertReadsAll(new FeedableIterator(contentList, cmServer, 10));
+        assertReadsAll(new FeedableIterator(contentList, cmServer, 10));
+
+        assertEquals(3, contentList.size());
+        assertEquals(3, contentList.getKnownSize());
+    }
+
+    public void testEmptyPageEndsIteration() throws CMException
+    {
+        ContentListCursor second = new ContentListCursor(3, "empty");
+        when(pageSource.fetchPage(second)).thenReturn(
+                new ContentListPage(Collections.<ContentReference> emptyList(), new ContentListCursor(3, "more")));
+        contentList = PagedContentList.create(firstPage, second, 7, pageSource);
+
+        FeedableIterator iterator = new FeedableIterator(contentList, cmServer, 10);
+        for (int i = 0; i < 3; i++) {
+            iterator.next();
+        }
+
+        assertFalse(iterator.hasNext());
+        verify(pageSource).fetchPage(second);
+        verifyNoMoreInteractions(pageSource);
+    }
+
+    public void testPageFailureIsThrownByLoad() throws CMException
+    {
+        CMException failure = new CMException("failing");
+        when(pageSource.fetchPage(new ContentListCursor(3, "second"))).thenThrow(failure);
+
+        FeedableIterator iterator = new FeedableIterator(contentList, cmServer, 10);
+        for (int i = 0; i < 3; i++) {
+            iterator.next();
+        }
+
+        try {
+            iterator.load();
+            fail("Expected CMException");
+        } catch (CMException e) {
+            assertSame(failure, e);
+        }
+    }
+}
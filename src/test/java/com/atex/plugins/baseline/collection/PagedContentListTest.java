@@ -0,0 +1,90 @@
+package com.atex.plugins.baseline.collection;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.ContentReference;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.collections.ContentList;
+
+public class PagedContentListTest extends TestCase {
+    private ContentList firstPage;
+    private ContentListPageSource pageSource;
+    private ContentListCursor cursor;
+    private ContentListPaged target;
+
+    protected void setUp() throws Exception
+    {
+        firstPage = (ContentList) mock(ContentList.class);
+        when(firstPage.size()).thenReturn(2);
+        when(firstPage.getEntry(1)).thenReturn(new ContentReference(new ContentId(1, 101), null));
+        pageSource = (ContentListPageSource) mock(ContentListPageSource.class);
+        cursor = new ContentListCursor(2, "state");
+
+        target = PagedContentList.create(firstPage, cursor, 10, pageSource);
+    }
+
+    public void testPagingState()
+    {
+        assertFalse(target.isComplete());
+        assertEquals(2, target.getKnownSize());
+        assertEquals(10, target.getEstimatedTotalSize());
+        assertEquals(cursor, target.getNextPageCursor());
+    }
+
+    public void testCompleteWithoutCursor() throws CMException
+    {
+        target = PagedContentList.create(firstPage, null, 2, pageSource);
+
+        assertTrue(target.isComplete());
+        assertNull(target.getNextPageCursor());
+    }
+
+    public void testDelegatesToFirstPage() throws CMException
+    {
+        assertEquals(2, target.size());
+        assertEquals(new ContentId(1, 101), target.getEntry(1).getReferredContentId());
+    }
+
+    public void testDelegateFailureIsRethrown() throws CMException
+    {
+        CMException failure = new CMException("failing");
+        when(firstPage.getEntry(0)).thenThrow(failure);
+
+        try {
+            target.getEntry(0);
+            fail("Expected CMException");
+        } catch (CMException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    public void testFetchPageDoesNotModifyList() throws CMException
+    {
+        ContentListPage page = new ContentListPage(Collections.singletonList(new ContentReference(
+                new ContentId(1, 102), null)), null);
+        when(pageSource.fetchPage(cursor)).thenReturn(page);
+
+        assertSame(page, target.fetchPage(target.getNextPageCursor()));
+
+        assertEquals(2, target.getKnownSize());
+        assertEquals(cursor, target.getNextPageCursor());
+        verify(firstPage).size();
+        verifyNoMoreInteractions(firstPage);
+    }
+
+    public void testEqualsIsIdentity() throws CMException
+    {
+        ContentListPaged other = PagedContentList.create(firstPage, cursor, 10, pageSource);
+
+        assertTrue(target.equals(target));
+        assertFalse(target.equals(other));
+    }
+}
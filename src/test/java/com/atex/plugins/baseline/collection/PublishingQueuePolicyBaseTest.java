@@ -1,18 +1,34 @@
 package com.atex.plugins.baseline.collection;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Date;
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.ContentReference;
+import com.polopoly.cm.VersionInfo;
+import com.polopoly.cm.VersionedContentId;
 import com.polopoly.cm.app.policy.ContentListModel;
 import com.polopoly.cm.client.CMException;
 import com.polopoly.cm.collections.ContentList;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
 import com.polopoly.model.ModelDomain;
 import com.polopoly.model.ModelFactory;
 import com.polopoly.siteengine.dispatcher.SiteEngine;
 import com.polopoly.siteengine.dispatcher.SiteEngineApplication;
+import com.polopoly.siteengine.standard.feed.Feedable;
 
 public class PublishingQueuePolicyBaseTest extends TestCase {
     private PublishingQueuePolicyBase target;
@@ -23,6 +39,7 @@ public class PublishingQueuePolicyBaseTest extends TestCase {
     protected void setUp() throws Exception
     {
         target = spy(new PublishingQueuePolicyBase());
+        doReturn(new VersionedContentId(1, 100, 1)).when(target).getContentId();
         siteEngineApplication = (SiteEngineApplication) mock(SiteEngineApplication.class);
         SiteEngine.setApplication(siteEngineApplication);
         modelFactory = (ModelFactory) mock(ModelFactory.class);
@@ -53,4 +70,177 @@ public class PublishingQueuePolicyBaseTest extends TestCase {
         
     }
 
+    public void testGetContentListReusesModel() throws CMException
+    {
+        ContentList contentList = (ContentList) mock(ContentList.class);
+        doReturn(contentList).when(target).getSourceContentList();
+
+        ContentListModel contentListModel = (ContentListModel) mock(ContentListModel.class);
+        when(modelFactory.createModel(domain, contentList)).thenReturn(contentListModel);
+
+        target.getContentList();
+        ContentList returnedContentList = target.getContentList();
+
+        assertEquals(contentListModel, returnedContentList);
+        verify(modelFactory, times(1)).createModel(domain, contentList);
+        verify(target, never()).getCacheKey();
+    }
+
+    public void testGetContentListCreatesNewModelForNewVersion() throws CMException
+    {
+        ContentList contentList = (ContentList) mock(ContentList.class);
+        doReturn(contentList).when(target).getSourceContentList();
+
+        ContentListModel contentListModel = (ContentListModel) mock(ContentListModel.class);
+        when(modelFactory.createModel(domain, contentList)).thenReturn(contentListModel);
+
+        target.getContentList();
+        doReturn(new VersionedContentId(1, 100, 2)).when(target).getContentId();
+        target.getContentList();
+
+        verify(modelFactory, times(2)).createModel(domain, contentList);
+    }
+
+    public void testGetContentListCreatesNewModelForNewSourceList() throws CMException
+    {
+        ContentList contentList = (ContentList) mock(ContentList.class);
+        ContentList otherContentList = (ContentList) mock(ContentList.class);
+        doReturn(contentList).when(target).getSourceContentList();
+
+        ContentListModel contentListModel = (ContentListModel) mock(ContentListModel.class);
+        ContentListModel otherContentListModel = (ContentListModel) mock(ContentListModel.class);
+        when(modelFactory.createModel(domain, contentList)).thenReturn(contentListModel);
+        when(modelFactory.createModel(domain, otherContentList)).thenReturn(otherContentListModel);
+
+        target.getContentList();
+        doReturn(otherContentList).when(target).getSourceContentList();
+        ContentList returnedContentList = target.getContentList();
+
+        assertEquals(otherContentListModel, returnedContentList);
+    }
+
+    private PolicyCMServer setUpFeedables(int count) throws CMException
+    {
+        PolicyCMServer cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        doReturn(cmServer).when(target).getCMServer();
+
+        ContentListPaged contentList = (ContentListPaged) mock(ContentListPaged.class);
+        when(contentList.size()).thenReturn(count);
+        for (int i = 0; i < count; i++) {
+            ContentId id = new ContentId(1, 200 + i);
+            when(contentList.getEntry(i)).thenReturn(new ContentReference(id, null));
+            Policy feedable = (Policy) mock(Policy.class, withSettings().extraInterfaces(Feedable.class));
+            when(cmServer.getPolicy(id)).thenReturn(feedable);
+        }
+        doReturn(contentList).when(target).getSourceContentList();
+        return cmServer;
+    }
+
+    public void testGetFeedablesPage() throws CMException
+    {
+        PolicyCMServer cmServer = setUpFeedables(20);
+
+        List<Feedable> feedables = target.getFeedables(2, 3);
+
+        assertEquals(3, feedables.size());
+        assertSame(cmServer.getPolicy(new ContentId(1, 202)), feedables.get(0));
+        assertSame(cmServer.getPolicy(new ContentId(1, 204)), feedables.get(2));
+    }
+
+    public void testGetFeedablesStopsLoadingWhenPageIsFilled() throws CMException
+    {
+        PolicyCMServer cmServer = setUpFeedables(20);
+
+        target.getFeedables(0, 5);
+
+        verify(cmServer, never()).getPolicy(new ContentId(1, 205));
+    }
+
+    public void testGetFeedablesBeyondEnd() throws CMException
+    {
+        setUpFeedables(4);
+
+        assertEquals(2, target.getFeedables(2, 10).size());
+        assertEquals(0, target.getFeedables(10, 10).size());
+    }
+
+    public void testGetFeedablesPropagatesFailure() throws CMException
+    {
+        PolicyCMServer cmServer = setUpFeedables(20);
+        when(cmServer.getPolicy(new ContentId(1, 203))).thenThrow(new CMException("failing"));
+
+        try {
+            target.getFeedables(0, 10);
+            fail("Expected CMException");
+        } catch (CMException e) {
+            // Expected
+        }
+    }
+
+    private PublishingQueuePolicyBase setUpCacheKey(PolicyCMServer cmServer, Date commitDate) throws CMException
+    {
+        PublishingQueuePolicyBase queue = spy(new PublishingQueuePolicyBase());
+        doReturn(new VersionedContentId(1, 100, 1)).when(queue).getContentId();
+        doReturn(cmServer).when(queue).getCMServer();
+
+        VersionInfo versionInfo = (VersionInfo) mock(VersionInfo.class);
+        when(versionInfo.getVersionCommitDate()).thenReturn(commitDate);
+        doReturn(versionInfo).when(queue).getVersionInfo();
+
+        ContentList contentList = (ContentList) mock(ContentList.class);
+        when(contentList.size()).thenReturn(2);
+        when(contentList.getEntry(0)).thenReturn(new ContentReference(new ContentId(1, 200), null));
+        when(contentList.getEntry(1)).thenReturn(new ContentReference(new ContentId(1, 201), null));
+        doReturn(contentList).when(queue).getSourceContentList();
+        return queue;
+    }
+
+    public void testCacheKeyOfCommittedVersionIsKept() throws CMException
+    {
+        PolicyCMServer cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        when(cmServer.translateSymbolicContentId(any(ContentId.class))).thenReturn(new VersionedContentId(1, 200, 3));
+        PublishingQueuePolicyBase queue = setUpCacheKey(cmServer, new Date());
+
+        Object cacheKey = queue.getCacheKey();
+
+        assertEquals(cacheKey, queue.getCacheKey());
+        verify(cmServer, times(2)).translateSymbolicContentId(any(ContentId.class));
+    }
+
+    public void testCacheKeyChangesWithListedVersions() throws CMException
+    {
+        PolicyCMServer cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        when(cmServer.translateSymbolicContentId(any(ContentId.class))).thenReturn(new VersionedContentId(1, 200, 3));
+        PublishingQueuePolicyBase queue = setUpCacheKey(cmServer, null);
+
+        Object cacheKey = queue.getCacheKey();
+        assertEquals(cacheKey, queue.getCacheKey());
+
+        when(cmServer.translateSymbolicContentId(any(ContentId.class))).thenReturn(new VersionedContentId(1, 200, 4));
+
+        assertFalse(cacheKey.equals(queue.getCacheKey()));
+    }
+
+    public void testCacheKeysOfInstancesDoNotCollide() throws CMException
+    {
+        PolicyCMServer cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        when(cmServer.translateSymbolicContentId(any(ContentId.class))).thenReturn(new VersionedContentId(1, 200, 3));
+
+        Object cacheKey = setUpCacheKey(cmServer, new Date()).getCacheKey();
+
+        when(cmServer.translateSymbolicContentId(any(ContentId.class))).thenReturn(new VersionedContentId(1, 200, 4));
+
+        assertFalse(cacheKey.equals(setUpCacheKey(cmServer, new Date()).getCacheKey()));
+    }
+
+    public void testCacheKeysOfInstancesListingSameVersionsAreEqual() throws CMException
+    {
+        PolicyCMServer cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        when(cmServer.translateSymbolicContentId(any(ContentId.class))).thenReturn(new VersionedContentId(1, 200, 3));
+
+        Object cacheKey = setUpCacheKey(cmServer, new Date()).getCacheKey();
+
+        assertEquals(cacheKey, setUpCacheKey(cmServer, new Date()).getCacheKey());
+        assertEquals(cacheKey, setUpCacheKey(cmServer, null).getCacheKey());
+    }
 }
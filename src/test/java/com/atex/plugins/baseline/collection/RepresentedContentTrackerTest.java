@@ -0,0 +1,72 @@
+package com.atex.plugins.baseline.collection;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+public class RepresentedContentTrackerTest extends TestCase {
+    private RepresentedContentTracker target;
+    private ContentId queueId;
+    private ContentId a;
+    private ContentId b;
+    private ContentId c;
+
+    protected void setUp() throws Exception
+    {
+        target = new RepresentedContentTracker(10);
+        queueId = new VersionedContentId(1, 100, 3);
+        a = new ContentId(1, 1);
+        b = new ContentId(1, 2);
+        c = new ContentId(1, 3);
+    }
+
+    public void testUnchangedContentKeepsVersion()
+    {
+        long version = target.update(queueId, Arrays.asList(a, b));
+
+        assertEquals(version, target.update(queueId, Arrays.asList(b, a)));
+        assertEquals(version, target.getVersion(queueId.getContentId()));
+    }
+
+    public void testGetChanges()
+    {
+        long version = target.update(queueId, Arrays.asList(a, b));
+        target.update(queueId, Arrays.asList(b, c));
+
+        RepresentedContentChanges changes = target.getChanges(queueId, version);
+
+        assertTrue(changes.isComplete());
+        assertEquals(1, changes.getAdded().size());
+        assertTrue(changes.getAdded().contains(c));
+        assertEquals(1, changes.getRemoved().size());
+        assertTrue(changes.getRemoved().contains(a));
+        assertTrue(target.getChanges(queueId, changes.getToVersion()).isEmpty());
+    }
+
+    public void testGetChangesFromUnknownVersion()
+    {
+        target.update(queueId, Arrays.asList(a, b));
+
+        RepresentedContentChanges changes = target.getChanges(queueId, -1);
+
+        assertFalse(changes.isComplete());
+        assertEquals(2, changes.getAdded().size());
+    }
+
+    public void testOlderQueueVersionIsIgnored()
+    {
+        long version = target.update(queueId, Arrays.asList(a, b));
+
+        assertEquals(version, target.update(new VersionedContentId(1, 100, 2), Arrays.asList(c)));
+        assertTrue(target.getChanges(queueId, version).isEmpty());
+        assertTrue(version < target.update(new VersionedContentId(1, 100, 4), Arrays.asList(c)));
+    }
+
+    public void testGetChangesForUnknownQueue()
+    {
+        assertFalse(target.getChanges(queueId, 0).isComplete());
+    }
+}
@@ -0,0 +1,53 @@
+package com.atex.plugins.baseline.content;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.VersionedContentId;
+
+public class CacheKeyBuilderTest extends TestCase {
+    private VersionedContentId queueId;
+
+    protected void setUp() throws Exception
+    {
+        queueId = new VersionedContentId(1, 100, 5);
+    }
+
+    private CacheKey createKey(String device, int articleVersion)
+    {
+        CacheKey dependencies = new CacheKeyBuilder().add(new VersionedContentId(1, 200, articleVersion)).build();
+        return new CacheKeyBuilder().add(queueId).addDimension("device", device).add(dependencies).build();
+    }
+
+    public void testEqualKeys()
+    {
+        assertEquals(createKey("mobile", 1), createKey("mobile", 1));
+        assertEquals(createKey("mobile", 1).hashCode(), createKey("mobile", 1).hashCode());
+    }
+
+    public void testDimensionChangesKey()
+    {
+        assertFalse(createKey("mobile", 1).equals(createKey("desktop", 1)));
+    }
+
+    public void testNestedKeyChangesKey()
+    {
+        assertFalse(createKey("mobile", 1).equals(createKey("mobile", 2)));
+    }
+
+    public void testNestedKeyIsDelimited()
+    {
+        CacheKey nested = new CacheKeyBuilder().add(1).build();
+
+        assertFalse(new CacheKeyBuilder().add(nested).add(2).build().equals(
+                new CacheKeyBuilder().add(new CacheKeyBuilder().add(1).add(2).build()).build()));
+    }
+
+    public void testBuilderGrows()
+    {
+        CacheKeyBuilder builder = new CacheKeyBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.add(i);
+        }
+        assertFalse(builder.build().equals(new CacheKeyBuilder().add(0).build()));
+    }
+}
@@ -0,0 +1,186 @@
+package com.atex.plugins.baseline.content;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atex.plugins.baseline.util.PathSegmentCache;
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionInfo;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.app.policy.SingleValued;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.policy.Policy;
+
+public class ContentBasePolicyTest extends TestCase {
+    private ContentBasePolicy target;
+    private VersionInfo versionInfo;
+    private Policy child;
+
+    protected void setUp() throws Exception
+    {
+        PathSegmentCache.getInstance().clear();
+        target = spy(new ContentBasePolicy());
+
+        versionInfo = (VersionInfo) mock(VersionInfo.class);
+        when(versionInfo.getVersionCommitDate()).thenReturn(new Date());
+        doReturn(versionInfo).when(target).getVersionInfo();
+
+        child = (Policy) mock(Policy.class, withSettings().extraInterfaces(SingleValued.class));
+        when(((SingleValued) child).getValue()).thenReturn("first", "second");
+        doReturn(child).when(target).getChildPolicy("title");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        PathSegmentCache.getInstance().clear();
+    }
+
+    public void testContextFreeValueIsKept() throws CMException
+    {
+        doReturn(true).when(target).isContextFreeValue(child);
+
+        assertEquals("first", target.getChildValue("title"));
+        assertEquals("first", target.getChildValue("title"));
+        verify((SingleValued) child, times(1)).getValue();
+    }
+
+    public void testOtherValuesAreReadEachTime() throws CMException
+    {
+        assertEquals("first", target.getChildValue("title"));
+        assertEquals("second", target.getChildValue("title"));
+    }
+
+    public void testValuesOfWorkingCopyAreReadEachTime() throws CMException
+    {
+        doReturn(true).when(target).isContextFreeValue(child);
+        when(versionInfo.getVersionCommitDate()).thenReturn(null);
+
+        assertEquals("first", target.getChildValue("title"));
+        assertEquals("second", target.getChildValue("title"));
+    }
+
+    public void testSetChildValueClearsKeptValues() throws CMException
+    {
+        doReturn(true).when(target).isContextFreeValue(child);
+
+        assertEquals("first", target.getChildValue("title"));
+        target.setChildValue("title", "changed");
+
+        verify((SingleValued) child).setValue("changed");
+        assertEquals("second", target.getChildValue("title"));
+    }
+
+    public void testMockedTypeIsNotContextFree()
+    {
+        assertFalse(target.isContextFreeValue(child));
+    }
+
+    private ContentBasePolicy pathSegmentPolicy(VersionedContentId contentId, String name) throws CMException
+    {
+        ContentBasePolicy policy = spy(new ContentBasePolicy());
+        doReturn(versionInfo).when(policy).getVersionInfo();
+        doReturn(contentId).when(policy).getContentId();
+        doReturn(null).when(policy).getChildPolicy("pathsegment");
+        doReturn(name).when(policy).getName();
+        return policy;
+    }
+
+    public void testNewVersionGetsFreshPathSegment() throws CMException
+    {
+        VersionedContentId firstVersion = new VersionedContentId(1, 300, 1);
+
+        assertEquals("first", pathSegmentPolicy(firstVersion, "first").getPathSegmentString());
+        assertEquals("first", pathSegmentPolicy(firstVersion, "renamed").getPathSegmentString());
+        assertEquals("renamed", pathSegmentPolicy(new VersionedContentId(1, 300, 2), "renamed")
+                .getPathSegmentString());
+        assertEquals("first", PathSegmentCache.getInstance().get(firstVersion));
+    }
+
+    public void testParentIdsAreResolvedOnceUnderContention() throws Exception
+    {
+        final ContentId[] resolved = new ContentId[] { new ContentId(1, 10), new ContentId(1, 11) };
+        final AtomicInteger resolutions = new AtomicInteger();
+        doAnswer(new Answer<ContentId[]>() {
+            public ContentId[] answer(InvocationOnMock invocation) throws InterruptedException
+            {
+                resolutions.incrementAndGet();
+                Thread.sleep(100);
+                return resolved;
+            }
+        }).when(target).resolveParentIds();
+
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ContentId[]>> results = new ArrayList<Future<ContentId[]>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<ContentId[]>() {
+                    public ContentId[] call() throws InterruptedException
+                    {
+                        start.await();
+                        return target.getParentIds();
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (Future<ContentId[]> result : results) {
+                assertSame(resolved, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, resolutions.get());
+        assertSame(resolved, target.getParentIds());
+    }
+
+    public void testSeededParentIdsTakePrecedence()
+    {
+        ContentId[] seeded = new ContentId[] { new ContentId(1, 20) };
+
+        assertTrue(target.seedParentIds(seeded));
+        assertFalse(target.seedParentIds(new ContentId[] { new ContentId(1, 21) }));
+
+        assertSame(seeded, target.getParentIds());
+        verify(target, never()).resolveParentIds();
+    }
+
+    public void testParentIdsSeededWhileResolvingTakePrecedence()
+    {
+        final ContentId[] seeded = new ContentId[] { new ContentId(1, 30) };
+        doAnswer(new Answer<ContentId[]>() {
+            public ContentId[] answer(InvocationOnMock invocation)
+            {
+                target.seedParentIds(seeded);
+                return new ContentId[] { new ContentId(1, 31) };
+            }
+        }).when(target).resolveParentIds();
+
+        assertSame(seeded, target.getParentIds());
+        assertSame(seeded, target.getParentIds());
+    }
+}
@@ -0,0 +1,93 @@
+package com.atex.plugins.baseline.content;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.app.util.PreviewURLBuilder;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.client.ContentRead;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+public class PreviewURLBatchBuilderTest extends TestCase {
+    private static final String PREVIEW = "/preview";
+
+    private PolicyCMServer cmServer;
+    private PreviewURLBatchBuilder target;
+
+    protected void setUp() throws Exception
+    {
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        target = new PreviewURLBatchBuilder(cmServer);
+    }
+
+    private Policy builderPolicy(ContentId id, ContentRead content) throws CMException
+    {
+        Policy policy = (Policy) mock(Policy.class, withSettings().extraInterfaces(PreviewURLBuilder.class));
+        when(policy.getContentId()).thenReturn(new VersionedContentId(id.getMajor(), id.getMinor(), 1));
+        when(policy.getContent()).thenReturn(content);
+        when(((PreviewURLBuilder) policy).getPreviewURL(PREVIEW)).thenReturn(PREVIEW + "/" + id.getMinor());
+        when(cmServer.getPolicy(id)).thenReturn(policy);
+        return policy;
+    }
+
+    private static ContentRead failingContent() throws CMException
+    {
+        ContentRead content = (ContentRead) mock(ContentRead.class);
+        when(content.getContentReference("polopoly.Parent", "insertParentId")).thenThrow(new CMException("failing"));
+        return content;
+    }
+
+    public void testFallsBackPerContentWhenPathsFail() throws CMException
+    {
+        ContentId first = new ContentId(1, 500);
+        ContentId second = new ContentId(1, 501);
+        builderPolicy(first, failingContent());
+        builderPolicy(second, failingContent());
+
+        Map<ContentId, String> urls = target.getPreviewURLs(Arrays.asList(first, second), PREVIEW);
+
+        assertEquals(2, urls.size());
+        assertEquals(PREVIEW + "/500", urls.get(first));
+        assertEquals(PREVIEW + "/501", urls.get(second));
+    }
+
+    public void testOverriddenPreviewURLIsUsed() throws CMException
+    {
+        ContentId id = new ContentId(1, 510);
+        ContentBasePolicy policy = spy(new ContentBasePolicy());
+        doReturn(new VersionedContentId(1, 510, 1)).when(policy).getContentId();
+        doReturn(mock(ContentRead.class)).when(policy).getContent();
+        doReturn(PREVIEW + "/own").when(policy).getPreviewURL(PREVIEW);
+        when(cmServer.getPolicy(id)).thenReturn(policy);
+
+        Map<ContentId, String> urls = target.getPreviewURLs(Arrays.asList(id), PREVIEW);
+
+        assertEquals(PREVIEW + "/own", urls.get(id));
+    }
+
+    public void testFailingContentIsLeftOut() throws CMException
+    {
+        ContentId working = new ContentId(1, 520);
+        ContentId failing = new ContentId(1, 521);
+        ContentId missing = new ContentId(1, 522);
+        builderPolicy(working, failingContent());
+        Policy failingPolicy = builderPolicy(failing, failingContent());
+        when(((PreviewURLBuilder) failingPolicy).getPreviewURL(PREVIEW)).thenThrow(new IllegalStateException());
+
+        Map<ContentId, String> urls = target.getPreviewURLs(Arrays.asList(working, failing, missing), PREVIEW);
+
+        assertEquals(1, urls.size());
+        assertEquals(PREVIEW + "/520", urls.get(working));
+    }
+}
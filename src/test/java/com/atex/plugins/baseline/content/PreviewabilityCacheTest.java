@@ -0,0 +1,55 @@
+package com.atex.plugins.baseline.content;
+
+import static org.mockito.Mockito.spy;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.VersionedContentId;
+
+public class PreviewabilityCacheTest extends TestCase {
+    private static final VersionedContentId INPUT_TEMPLATE = new VersionedContentId(14, 100, 1);
+
+    static class PlainPolicy extends ContentBasePolicy {
+    }
+
+    public void testOutputTemplateAnswerIsKeyedByPolicyClass()
+    {
+        PreviewabilityCache target = new PreviewabilityCache(100);
+        target.setHasOutputTemplate(INPUT_TEMPLATE, ContentBasePolicy.class, true);
+
+        assertEquals(Boolean.TRUE, target.hasOutputTemplate(INPUT_TEMPLATE, ContentBasePolicy.class));
+        assertNull(target.hasOutputTemplate(INPUT_TEMPLATE, PlainPolicy.class));
+        assertNull(target.hasOutputTemplate(new VersionedContentId(14, 100, 2), ContentBasePolicy.class));
+    }
+
+    public void testOutputTemplateAnswerExpires() throws InterruptedException
+    {
+        PreviewabilityCache target = new PreviewabilityCache(100, 50);
+        target.setHasOutputTemplate(INPUT_TEMPLATE, ContentBasePolicy.class, false);
+        assertEquals(Boolean.FALSE, target.hasOutputTemplate(INPUT_TEMPLATE, ContentBasePolicy.class));
+
+        Thread.sleep(100);
+
+        assertNull(target.hasOutputTemplate(INPUT_TEMPLATE, ContentBasePolicy.class));
+    }
+
+    public void testInvalidateOutputTemplatesKeepsPages()
+    {
+        PreviewabilityCache target = new PreviewabilityCache(100);
+        target.setHasOutputTemplate(INPUT_TEMPLATE, ContentBasePolicy.class, false);
+        target.setPage(new VersionedContentId(1, 200, 3), true);
+
+        target.invalidateOutputTemplates();
+
+        assertNull(target.hasOutputTemplate(INPUT_TEMPLATE, ContentBasePolicy.class));
+        assertEquals(Boolean.TRUE, target.isPage(new VersionedContentId(1, 200, 4)));
+    }
+
+    public void testOverriddenOutputTemplateIsDetected()
+    {
+        assertFalse(ContentBasePolicy.overrides(ContentBasePolicy.class, "getOutputTemplate"));
+        assertFalse(ContentBasePolicy.overrides(PlainPolicy.class, "getOutputTemplate"));
+        // Spies override every method
+        assertTrue(ContentBasePolicy.overrides(spy(new PlainPolicy()).getClass(), "getOutputTemplate"));
+    }
+}
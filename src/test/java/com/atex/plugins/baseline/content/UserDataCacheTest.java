@@ -0,0 +1,65 @@
+package com.atex.plugins.baseline.content;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.client.ContentRead;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.cm.policy.UserDataPolicy;
+
+public class UserDataCacheTest extends TestCase {
+    private PolicyCMServer cmServer;
+    private ContentRead content;
+
+    protected void setUp() throws Exception
+    {
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        UserDataPolicy user = (UserDataPolicy) mock(UserDataPolicy.class);
+        content = (ContentRead) mock(ContentRead.class);
+        when(content.getName()).thenReturn("Jane Doe");
+        when(user.getContent()).thenReturn(content);
+        when(cmServer.getPolicy(any(ContentId.class))).thenReturn(user);
+    }
+
+    public void testUserDataIsExtractedAndKept() throws CMException
+    {
+        UserDataCache target = new UserDataCache(10, 60000);
+
+        UserData data = target.getUserData("jane", cmServer);
+
+        assertEquals("jane", data.getLogin());
+        assertEquals("Jane Doe", data.getName());
+        assertSame(data, target.getUserData("jane", cmServer));
+        verify(cmServer, times(1)).getPolicy(any(ContentId.class));
+    }
+
+    public void testKeptDataDoesNotFollowThePolicy() throws CMException
+    {
+        UserDataCache target = new UserDataCache(10, 60000);
+        target.getUserData("jane", cmServer);
+
+        when(content.getName()).thenReturn("Jane Smith");
+
+        assertEquals("Jane Doe", target.getUserData("jane", cmServer).getName());
+        target.invalidate("jane");
+        assertEquals("Jane Smith", target.getUserData("jane", cmServer).getName());
+    }
+
+    public void testExpiredDataIsReloaded() throws CMException, InterruptedException
+    {
+        UserDataCache target = new UserDataCache(10, 20);
+        target.getUserData("jane", cmServer);
+
+        Thread.sleep(50);
+        target.getUserData("jane", cmServer);
+
+        verify(cmServer, times(2)).getPolicy(any(ContentId.class));
+    }
+}
@@ -0,0 +1,152 @@
+package com.atex.plugins.baseline.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+
+public class AncestryIndexTest extends TestCase {
+    private ParentPathCache cache;
+    private AncestryIndex target;
+
+    /**
+     * Runs rebuilds on the calling thread.
+     */
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private ContentId root;
+    private ContentId news;
+    private ContentId sports;
+    private ContentId football;
+    private ContentId article;
+
+    protected void setUp() throws Exception
+    {
+        cache = new ParentPathCache(100);
+        target = new AncestryIndex(cache, 0, SAME_THREAD);
+
+        root = new ContentId(1, 1);
+        news = new ContentId(1, 2);
+        sports = new ContentId(1, 3);
+        football = new ContentId(1, 4);
+        article = new ContentId(1, 5);
+
+        link(root, null);
+        link(news, root);
+        link(sports, root);
+        link(football, sports);
+        link(article, football);
+    }
+
+    private void link(ContentId id, ContentId parentId)
+    {
+        cache.putPath(id, parentId, new ParentPathCache.Path(ContentIdList.of(id), true));
+    }
+
+    public void testContains()
+    {
+        assertTrue(target.contains(sports, article));
+        assertTrue(target.contains(root, article));
+        assertTrue(target.contains(article, article));
+        assertFalse(target.contains(news, article));
+        assertFalse(target.contains(article, sports));
+    }
+
+    public void testUnknownContentIsNotContained()
+    {
+        ContentId unknown = new ContentId(1, 99);
+
+        assertFalse(target.isIndexed(unknown));
+        assertFalse(target.contains(root, unknown));
+    }
+
+    public void testLowestCommonAncestor()
+    {
+        assertEquals(sports, target.getLowestCommonAncestor(article, sports));
+        assertEquals(root, target.getLowestCommonAncestor(article, news));
+        assertEquals(article, target.getLowestCommonAncestor(article, article));
+    }
+
+    public void testDescendants()
+    {
+        ContentIdList descendants = target.getDescendants(sports);
+
+        assertEquals(2, descendants.size());
+        assertTrue(descendants.containsIgnoreVersion(football));
+        assertTrue(descendants.containsIgnoreVersion(article));
+        assertEquals(0, target.getDescendants(article).size());
+    }
+
+    public void testReparentingIsPickedUp()
+    {
+        assertTrue(target.contains(sports, article));
+
+        link(football, news);
+
+        assertFalse(target.contains(sports, article));
+        assertTrue(target.contains(news, article));
+    }
+
+    public void testCyclesAreNotIndexed()
+    {
+        ContentId first = new ContentId(1, 10);
+        ContentId second = new ContentId(1, 11);
+        link(first, second);
+        link(second, first);
+
+        assertFalse(target.isIndexed(first));
+        assertEquals(5, target.size());
+    }
+
+    public void testContentBelowEvictedLinkIsNotIndexed()
+    {
+        cache = new ParentPathCache(2);
+        target = new AncestryIndex(cache, 0, SAME_THREAD);
+        link(root, null);
+        link(sports, root);
+        link(football, sports);
+        link(article, football);
+        assertTrue(target.contains(root, article));
+
+        // Touch the root link so that the sports link is the eldest
+        cache.checkParent(root, null);
+        link(news, root);
+
+        assertTrue(target.isIndexed(root));
+        assertFalse(target.isIndexed(sports));
+        assertFalse(target.isIndexed(article));
+        assertEquals(2, target.getDescendants(sports).size());
+        assertEquals(2, target.size());
+    }
+
+    public void testServesPreviousTreeWhileRebuilding()
+    {
+        final List<Runnable> rebuilds = new ArrayList<Runnable>();
+        target = new AncestryIndex(cache, 0, new Executor() {
+            public void execute(Runnable command)
+            {
+                rebuilds.add(command);
+            }
+        });
+        assertTrue(target.contains(sports, article));
+
+        link(football, news);
+
+        assertTrue(target.contains(sports, article));
+        assertTrue(target.contains(sports, article));
+        assertEquals(1, rebuilds.size());
+
+        rebuilds.get(0).run();
+
+        assertFalse(target.contains(sports, article));
+        assertTrue(target.contains(news, article));
+    }
+}
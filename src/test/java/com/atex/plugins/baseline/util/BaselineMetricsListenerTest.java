@@ -0,0 +1,55 @@
+package com.atex.plugins.baseline.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+
+import junit.framework.TestCase;
+
+public class BaselineMetricsListenerTest extends TestCase {
+    private MBeanServer server;
+    private BaselineMetricsListener target;
+
+    protected void setUp() throws Exception
+    {
+        server = ManagementFactory.getPlatformMBeanServer();
+        target = new BaselineMetricsListener();
+    }
+
+    private static ServletContextEvent event(String contextPath)
+    {
+        ServletContext context = (ServletContext) mock(ServletContext.class);
+        when(context.getContextPath()).thenReturn(contextPath);
+        return new ServletContextEvent(context);
+    }
+
+    public void testApplicationsSharingJvmRegisterOwnBeans() throws Exception
+    {
+        ServletContextEvent front = event("");
+        ServletContextEvent preview = event("/preview");
+        ObjectName frontName = BaselineMetrics.getObjectNames("/")[0];
+        ObjectName previewName = BaselineMetrics.getObjectNames("/preview")[0];
+        try {
+            target.contextInitialized(front);
+            target.contextInitialized(preview);
+
+            assertTrue(server.isRegistered(frontName));
+            assertTrue(server.isRegistered(previewName));
+
+            target.contextDestroyed(preview);
+
+            assertTrue(server.isRegistered(frontName));
+            assertFalse(server.isRegistered(previewName));
+        } finally {
+            target.contextDestroyed(front);
+            target.contextDestroyed(preview);
+        }
+        assertFalse(server.isRegistered(frontName));
+    }
+}
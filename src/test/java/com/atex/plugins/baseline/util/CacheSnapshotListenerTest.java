@@ -0,0 +1,44 @@
+package com.atex.plugins.baseline.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+
+import junit.framework.TestCase;
+
+public class CacheSnapshotListenerTest extends TestCase {
+    private File file;
+    private ServletContextEvent event;
+    private CacheSnapshotListener target;
+
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("baseline-snapshot", ".bin");
+        file.delete();
+
+        ServletContext context = (ServletContext) mock(ServletContext.class);
+        when(context.getInitParameter(CacheSnapshotStore.FILE_PROPERTY)).thenReturn(file.getPath());
+        event = new ServletContextEvent(context);
+        target = new CacheSnapshotListener();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        CacheSnapshotStore.shutdownStarted();
+        file.delete();
+    }
+
+    public void testWritesSnapshotWhenContextIsDestroyed()
+    {
+        target.contextInitialized(event);
+        assertFalse(file.exists());
+
+        target.contextDestroyed(event);
+
+        assertTrue(file.isFile());
+    }
+}
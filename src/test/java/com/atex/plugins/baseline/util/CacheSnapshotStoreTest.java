@@ -0,0 +1,116 @@
+package com.atex.plugins.baseline.util;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+public class CacheSnapshotStoreTest extends TestCase {
+    private File file;
+    private ContentId department;
+    private ContentId article;
+
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("baseline-snapshot", ".bin");
+        department = new ContentId(1, 100);
+        article = new ContentId(1, 200);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    private CacheSnapshotStore writeSnapshot() throws Exception
+    {
+        ParentPathCache paths = new ParentPathCache(100);
+        paths.putPath(new VersionedContentId(1, 100, 2), new ContentId(1, 1), new ParentPathCache.Path(ContentIdList
+                .of(department), true));
+        paths.putPath(new VersionedContentId(1, 200, 3), department, new ParentPathCache.Path(ContentIdList.of(
+                department).append(article), true));
+        PathSegmentCache segments = new PathSegmentCache(100);
+        segments.put(new VersionedContentId(1, 200, 3), "my-article");
+
+        CacheSnapshotStore store = new CacheSnapshotStore(file, paths, segments);
+        store.write();
+        return store;
+    }
+
+    public void testRestoresCaches() throws Exception
+    {
+        writeSnapshot();
+
+        ParentPathCache paths = new ParentPathCache(100);
+        PathSegmentCache segments = new PathSegmentCache(100);
+        assertTrue(new CacheSnapshotStore(file, paths, segments).load());
+
+        ParentPathCache.Path path = paths.getPath(article);
+        assertTrue(path.isRooted());
+        assertEquals(ContentIdList.of(department).append(article), path.getIds());
+        assertEquals("my-article", segments.get(new VersionedContentId(1, 200, 3)));
+
+        // Restored links still invalidate paths of re-parented contents
+        assertTrue(paths.checkParent(article, new ContentId(1, 300)));
+        assertNull(paths.getPath(article));
+    }
+
+    public void testCorruptSnapshotIsIgnored() throws Exception
+    {
+        writeSnapshot();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            long last = randomAccessFile.length() - 1;
+            randomAccessFile.seek(last);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(last);
+            randomAccessFile.write(value ^ 0xff);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        ParentPathCache paths = new ParentPathCache(100);
+        assertFalse(new CacheSnapshotStore(file, paths, new PathSegmentCache(100)).load());
+        assertEquals(0, paths.size());
+    }
+
+    public void testMissingSnapshotIsIgnored() throws Exception
+    {
+        file.delete();
+
+        assertFalse(new CacheSnapshotStore(file, new ParentPathCache(100), new PathSegmentCache(100)).load());
+    }
+
+    public void testRestoredLinksAreVerifiedAgainstCurrentVersions() throws Exception
+    {
+        writeSnapshot();
+
+        ParentPathCache paths = new ParentPathCache(100);
+        assertTrue(new CacheSnapshotStore(file, paths, new PathSegmentCache(100)).load());
+        assertTrue(paths.isRestored(article));
+
+        assertTrue(paths.verifyRestored(article, new VersionedContentId(1, 200, 3)));
+        assertFalse(paths.isRestored(article));
+        assertNotNull(paths.getPath(article));
+
+        // The department got a new version while the node was down
+        assertFalse(paths.verifyRestored(department, new VersionedContentId(1, 100, 4)));
+        assertNull(paths.getPath(article));
+    }
+
+    public void testShutdownWritesSnapshot() throws Exception
+    {
+        CacheSnapshotStore store = writeSnapshot();
+        store.start(60 * 60 * 1000L);
+        file.delete();
+
+        store.shutdown();
+
+        assertTrue(file.isFile());
+        assertTrue(new CacheSnapshotStore(file, new ParentPathCache(100), new PathSegmentCache(100)).load());
+    }
+}
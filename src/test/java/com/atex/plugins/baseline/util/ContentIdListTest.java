@@ -0,0 +1,74 @@
+package com.atex.plugins.baseline.util;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+public class ContentIdListTest extends TestCase {
+    private ContentId department;
+    private ContentId article;
+
+    protected void setUp() throws Exception
+    {
+        department = new ContentId(1, 100);
+        article = new ContentId(1, 200);
+    }
+
+    public void testElementsAreRecreated()
+    {
+        ContentIdList list = new ContentIdList(new ContentId[] { department, new VersionedContentId(1, 200, 3) });
+
+        assertEquals(2, list.size());
+        assertEquals(department, list.get(0));
+        assertEquals(new VersionedContentId(1, 200, 3), list.get(1));
+        assertFalse(list.get(0) instanceof VersionedContentId);
+    }
+
+    public void testAppendAndConcat()
+    {
+        ContentIdList path = ContentIdList.EMPTY.append(department).append(article);
+
+        assertEquals(Arrays.asList(department, article), path);
+        assertEquals(Arrays.asList(article, department), ContentIdList.of(article).concat(ContentIdList.of(department)));
+        assertSame(path, path.concat(ContentIdList.EMPTY));
+    }
+
+    public void testContainsIgnoreVersion()
+    {
+        ContentIdList list = new ContentIdList(new ContentId[] { department, new VersionedContentId(1, 200, 3) });
+
+        assertTrue(list.containsIgnoreVersion(article));
+        assertEquals(0, list.indexOfIgnoreVersion(new VersionedContentId(1, 100, 7)));
+        assertFalse(list.containsIgnoreVersion(new ContentId(1, 300)));
+    }
+
+    public void testSortedUnversioned()
+    {
+        ContentIdList list = ContentIdList.sortedUnversioned(Arrays.asList(article, new VersionedContentId(1, 100, 2),
+                department, new ContentId(2, 1)));
+
+        assertEquals(Arrays.asList(department, article, new ContentId(2, 1)), list);
+    }
+
+    public void testEqualLists()
+    {
+        assertEquals(ContentIdList.of(department).append(article), new ContentIdList(Arrays.asList(department, article)));
+        assertEquals(ContentIdList.of(department).append(article).hashCode(), new ContentIdList(Arrays.asList(
+                department, article)).hashCode());
+        assertFalse(ContentIdList.of(department).equals(new ContentIdList(new ContentId[] { new VersionedContentId(1,
+                100, 1) })));
+    }
+
+    public void testIsImmutable()
+    {
+        try {
+            ContentIdList.of(department).add(article);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.atex.plugins.baseline.util;
+
+import junit.framework.TestCase;
+
+public class OperationMetricsTest extends TestCase {
+    private OperationMetrics metrics;
+
+    protected void setUp() throws Exception
+    {
+        BaselineMetrics.getInstance().setEnabled(true);
+        metrics = new OperationMetrics("test");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        BaselineMetrics.getInstance().setEnabled(true);
+    }
+
+    public void testRecordsOperations()
+    {
+        metrics.stop(metrics.start(), true);
+        metrics.stop(metrics.start(), false);
+
+        assertEquals(2, metrics.getCount());
+        assertEquals(1, metrics.getErrorCount());
+
+        long[] histogram = metrics.getLatencyHistogram();
+        long total = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            total += histogram[i];
+        }
+        assertEquals(2, total);
+        assertEquals(metrics.getLatencyBucketLimitsMicros().length + 1, histogram.length);
+    }
+
+    public void testCacheHitRatio()
+    {
+        assertTrue(Double.isNaN(metrics.getCacheHitRatio()));
+
+        metrics.hit();
+        metrics.hit();
+        metrics.hit();
+        metrics.miss();
+
+        assertEquals(0.75, metrics.getCacheHitRatio(), 0.0001);
+    }
+
+    public void testFetchesPerOperation()
+    {
+        metrics.fetched(3);
+        metrics.fetched(1);
+        metrics.stop(metrics.start(), true);
+        metrics.stop(metrics.start(), true);
+
+        assertEquals(4, metrics.getCMFetches());
+        assertEquals(2.0, metrics.getCMFetchesPerOperation(), 0.0001);
+    }
+
+    public void testNothingRecordedWhenDisabled()
+    {
+        BaselineMetrics.getInstance().setEnabled(false);
+
+        metrics.stop(metrics.start(), true);
+        metrics.hit();
+        metrics.fetched(5);
+
+        assertEquals(0, metrics.getCount());
+        assertEquals(0, metrics.getCacheHits());
+        assertEquals(0, metrics.getCMFetches());
+    }
+
+    public void testReset()
+    {
+        metrics.stop(metrics.start(), true);
+        metrics.miss();
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getCount());
+        assertEquals(0, metrics.getCacheMisses());
+        assertEquals(0, metrics.getMaxTimeMicros());
+    }
+}
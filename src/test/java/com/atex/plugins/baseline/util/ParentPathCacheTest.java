@@ -0,0 +1,101 @@
+package com.atex.plugins.baseline.util;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+
+public class ParentPathCacheTest extends TestCase {
+    private ContentId department;
+    private ContentId otherDepartment;
+    private ContentId article;
+    private ContentId otherArticle;
+
+    protected void setUp() throws Exception
+    {
+        department = new ContentId(1, 100);
+        otherDepartment = new ContentId(1, 101);
+        article = new ContentId(1, 200);
+        otherArticle = new ContentId(1, 201);
+    }
+
+    private void put(ParentPathCache cache, ContentId id, ContentId parentId, ContentIdList path)
+    {
+        cache.putPath(id, parentId, new ParentPathCache.Path(path, true));
+    }
+
+    public void testInvalidateRemovesPathsThroughContent()
+    {
+        ParentPathCache cache = new ParentPathCache(100);
+        put(cache, department, null, ContentIdList.of(department));
+        put(cache, article, department, ContentIdList.of(department).append(article));
+        put(cache, otherArticle, otherDepartment, ContentIdList.of(otherDepartment).append(otherArticle));
+
+        cache.invalidate(department);
+
+        assertNull(cache.getPath(department));
+        assertNull(cache.getPath(article));
+        assertNotNull(cache.getPath(otherArticle));
+    }
+
+    public void testInvalidateAfterEviction()
+    {
+        ParentPathCache cache = new ParentPathCache(1);
+        put(cache, article, department, ContentIdList.of(department).append(article));
+        put(cache, otherArticle, department, ContentIdList.of(department).append(otherArticle));
+
+        cache.invalidate(department);
+
+        assertEquals(0, cache.size());
+    }
+
+    public void testPathsExpire() throws InterruptedException
+    {
+        ParentPathCache cache = new ParentPathCache(100, 1);
+        put(cache, article, department, ContentIdList.of(department).append(article));
+
+        Thread.sleep(10);
+
+        assertNull(cache.getPath(article));
+        assertEquals(0, cache.size());
+    }
+
+    public void testPathArraysAreIndependent()
+    {
+        ParentPathCache.Path path = new ParentPathCache.Path(ContentIdList.of(department).append(article), true);
+
+        ContentId[] first = path.toContentIdArray();
+        first[1] = department;
+        ContentId[] second = path.toContentIdArray();
+
+        assertEquals(2, second.length);
+        assertEquals(department, second[0]);
+        assertEquals(article, second[1]);
+    }
+
+    public void testEvictedLinksAreCounted()
+    {
+        ParentPathCache cache = new ParentPathCache(1);
+        put(cache, department, null, ContentIdList.of(department));
+        put(cache, article, department, ContentIdList.of(department).append(article));
+        long before = cache.getModificationCount();
+
+        put(cache, otherArticle, department, ContentIdList.of(department).append(otherArticle));
+
+        assertEquals(before + 2, cache.getModificationCount());
+        assertFalse(cache.getLinks().containsKey(department));
+    }
+
+    public void testLinkVersionIsKeptWhenReadUnversioned()
+    {
+        ParentPathCache cache = new ParentPathCache(10);
+        put(cache, new VersionedContentId(1, 200, 3), department, ContentIdList.of(department).append(article));
+
+        assertEquals(3, cache.getLinkVersion(article));
+
+        put(cache, article, department, ContentIdList.of(department).append(article));
+
+        assertEquals(3, cache.getLinkVersion(article));
+        assertEquals(0, cache.getLinkVersion(otherArticle));
+    }
+}
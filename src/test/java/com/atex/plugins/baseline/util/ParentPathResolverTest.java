@@ -0,0 +1,148 @@
+package com.atex.plugins.baseline.util;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.VersionedContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.client.ContentOperationFailedException;
+import com.polopoly.cm.client.ContentRead;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+public class ParentPathResolverTest extends TestCase {
+    private ParentPathResolver target;
+    private PolicyCMServer cmServer;
+
+    private Policy root;
+    private Policy department;
+    private Policy articleA;
+    private Policy articleB;
+
+    protected void setUp() throws Exception
+    {
+        target = spy(new ParentPathResolver(new ParentPathCache(100)));
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+
+        root = createPolicy(1, null);
+        department = createPolicy(2, root);
+        articleA = createPolicy(3, department);
+        articleB = createPolicy(4, department);
+
+        doReturn(true).when(target).isSiteRoot(root);
+    }
+
+    private Policy createPolicy(int minor, Policy parent) throws CMException
+    {
+        Policy policy = (Policy) mock(Policy.class);
+        ContentRead content = (ContentRead) mock(ContentRead.class);
+        when(policy.getContent()).thenReturn(content);
+        when(content.getContentId()).thenReturn(new VersionedContentId(1, minor, 100));
+        if (parent != null) {
+            ContentId parentId = parent.getContent().getContentId().getContentId();
+            when(content.getSecurityParentId()).thenReturn(parentId);
+        }
+        when(cmServer.getPolicy(new ContentId(1, minor))).thenReturn(policy);
+        return policy;
+    }
+
+    private ContentId id(Policy policy) throws CMException
+    {
+        return policy.getContent().getContentId().getContentId();
+    }
+
+    public void testGetParentPath() throws CMException
+    {
+        ContentId[] path = target.getParentPath(articleA.getContent(), cmServer);
+
+        assertEquals(2, path.length);
+        assertEquals(id(department), path[0]);
+        assertEquals(id(articleA), path[1]);
+    }
+
+    public void testSiblingReusesResolvedAncestors() throws CMException
+    {
+        target.getParentPath(articleA.getContent(), cmServer);
+        ContentId[] path = target.getParentPath(articleB.getContent(), cmServer);
+
+        assertEquals(2, path.length);
+        assertEquals(id(department), path[0]);
+        assertEquals(id(articleB), path[1]);
+        verify(cmServer, times(1)).getPolicy(id(department));
+        verify(cmServer, times(1)).getPolicy(id(root));
+    }
+
+    public void testReparentedAncestorInvalidatesPath() throws CMException
+    {
+        target.getParentPath(articleA.getContent(), cmServer);
+
+        // The department is moved directly below a content without parent
+        Policy orphan = createPolicy(5, null);
+        when(department.getContent().getSecurityParentId()).thenReturn(id(orphan));
+        target.validateCachedPath(department.getContent());
+
+        ContentId[] path = target.getParentPath(articleA.getContent(), cmServer);
+
+        assertEquals(1, path.length);
+        assertEquals(id(articleA), path[0]);
+    }
+
+    public void testReturnedPathIsACopy() throws CMException
+    {
+        target.getParentPath(articleA.getContent(), cmServer)[0] = null;
+
+        assertEquals(id(department), target.getParentPath(articleA.getContent(), cmServer)[0]);
+    }
+
+    public void testGetParentPaths() throws CMException
+    {
+        Policy orphan = createPolicy(5, null);
+
+        Map<ContentId, ContentId[]> paths = target.getParentPaths(Arrays.asList(id(articleA), id(articleB), id(orphan)),
+                cmServer);
+
+        assertEquals(3, paths.size());
+        ContentId[] pathA = paths.get(id(articleA));
+        assertEquals(2, pathA.length);
+        assertEquals(id(department), pathA[0]);
+        assertEquals(id(articleA), pathA[1]);
+        assertEquals(id(articleB), paths.get(id(articleB))[1]);
+        assertEquals(1, paths.get(id(orphan)).length);
+
+        // Shared ancestors are loaded once
+        verify(cmServer, times(1)).getPolicy(id(department));
+        verify(cmServer, times(1)).getPolicy(id(root));
+    }
+
+    public void testGetParentPathsFillsCache() throws CMException
+    {
+        target.getParentPaths(Arrays.asList(id(articleA)), cmServer);
+
+        ContentId[] path = target.getParentPath(articleB.getContent(), cmServer);
+
+        assertEquals(id(department), path[0]);
+        verify(cmServer, times(1)).getPolicy(id(department));
+    }
+
+    public void testGetParentPathsOfUnloadableContent() throws CMException
+    {
+        ContentId missing = new ContentId(1, 99);
+        ContentOperationFailedException failure = (ContentOperationFailedException) mock(ContentOperationFailedException.class);
+        when(cmServer.getPolicy(missing)).thenThrow(failure);
+
+        Map<ContentId, ContentId[]> paths = target.getParentPaths(Arrays.asList(missing), cmServer);
+
+        assertEquals(1, paths.get(missing).length);
+        assertEquals(missing, paths.get(missing)[0]);
+    }
+}
@@ -0,0 +1,123 @@
+package com.atex.plugins.baseline.util;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.client.CMException;
+import com.polopoly.cm.client.ContentOperationFailedException;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+import com.polopoly.user.server.Caller;
+
+public class PolicyBatchLoaderTest extends TestCase {
+    private static final int COUNT = 40;
+
+    private PolicyBatchLoader target;
+    private PolicyCMServer cmServer;
+    private ContentId[] ids;
+    private Policy[] policies;
+
+    /**
+     * The current caller of the mocked cm server, thread bound like the real
+     * one.
+     */
+    private final ThreadLocal<Caller> currentCaller = new ThreadLocal<Caller>();
+
+    protected void setUp() throws Exception
+    {
+        target = new PolicyBatchLoader(4);
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+
+        when(cmServer.getCurrentCaller()).thenAnswer(new Answer<Caller>() {
+            public Caller answer(InvocationOnMock invocation)
+            {
+                return currentCaller.get();
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation)
+            {
+                currentCaller.set((Caller) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cmServer).setCurrentCaller(any(Caller.class));
+
+        ids = new ContentId[COUNT];
+        policies = new Policy[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            ids[i] = new ContentId(1, 100 + i);
+            policies[i] = (Policy) mock(Policy.class);
+            when(cmServer.getPolicy(ids[i])).thenReturn(policies[i]);
+        }
+    }
+
+    public void testLoadsInOrder() throws CMException
+    {
+        Policy[] loaded = target.loadPolicies(cmServer, ids);
+
+        assertEquals(COUNT, loaded.length);
+        for (int i = 0; i < COUNT; i++) {
+            assertSame(policies[i], loaded[i]);
+        }
+    }
+
+    public void testUnloadableContentIsNull() throws CMException
+    {
+        ContentOperationFailedException failure = (ContentOperationFailedException) mock(
+                ContentOperationFailedException.class);
+        when(cmServer.getPolicy(ids[30])).thenThrow(failure);
+
+        Policy[] loaded = target.loadPolicies(cmServer, ids);
+
+        assertNull(loaded[30]);
+        assertSame(policies[31], loaded[31]);
+    }
+
+    public void testPoolThreadsLoadAsCaller() throws CMException
+    {
+        final Caller caller = (Caller) mock(Caller.class);
+        currentCaller.set(caller);
+        for (int i = 0; i < COUNT; i++) {
+            final Policy policy = policies[i];
+            when(cmServer.getPolicy(ids[i])).thenAnswer(new Answer<Policy>() {
+                public Policy answer(InvocationOnMock invocation)
+                {
+                    return currentCaller.get() == caller ? policy : null;
+                }
+            });
+        }
+
+        Policy[] loaded = target.loadPolicies(cmServer, ids);
+
+        for (int i = 0; i < COUNT; i++) {
+            assertSame(policies[i], loaded[i]);
+        }
+        assertSame(caller, currentCaller.get());
+    }
+
+    public void testPoliciesInContextAreNotLoaded() throws CMException
+    {
+        PolicyResolutionContext context = PolicyResolutionContext.begin();
+        try {
+            context.store(cmServer, ids[0], policies[0]);
+
+            Policy[] loaded = target.loadPolicies(cmServer, ids);
+
+            assertSame(policies[0], loaded[0]);
+            verify(cmServer, never()).getPolicy(ids[0]);
+            assertEquals(COUNT, context.size());
+        } finally {
+            context.end();
+        }
+    }
+}
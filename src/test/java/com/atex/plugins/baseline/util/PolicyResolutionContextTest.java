@@ -0,0 +1,99 @@
+package com.atex.plugins.baseline.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import junit.framework.TestCase;
+
+import com.polopoly.cm.ContentId;
+import com.polopoly.cm.policy.Policy;
+import com.polopoly.cm.policy.PolicyCMServer;
+
+public class PolicyResolutionContextTest extends TestCase {
+    private PolicyCMServer cmServer;
+    private ContentId articleId;
+    private Policy article;
+
+    protected void setUp() throws Exception
+    {
+        cmServer = (PolicyCMServer) mock(PolicyCMServer.class);
+        articleId = new ContentId(1, 100);
+        article = (Policy) mock(Policy.class);
+        when(cmServer.getPolicy(articleId)).thenReturn(article);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        while (PolicyResolutionContext.current() != null) {
+            PolicyResolutionContext.current().end();
+        }
+    }
+
+    public void testFetchesOncePerContext() throws Exception
+    {
+        PolicyResolutionContext context = PolicyResolutionContext.begin();
+        try {
+            assertSame(article, PolicyResolutionContext.getPolicy(cmServer, articleId));
+            assertSame(article, PolicyResolutionContext.getPolicy(cmServer, articleId));
+            assertSame(article, PolicyResolutionContext.getPolicy(cmServer, articleId));
+        } finally {
+            context.end();
+        }
+
+        verify(cmServer, times(1)).getPolicy(articleId);
+        assertEquals(3, context.getLookups());
+        assertEquals(2, context.getDeduplicated());
+    }
+
+    public void testFetchesEveryTimeWithoutContext() throws Exception
+    {
+        PolicyResolutionContext.getPolicy(cmServer, articleId);
+        PolicyResolutionContext.getPolicy(cmServer, articleId);
+
+        verify(cmServer, times(2)).getPolicy(articleId);
+    }
+
+    public void testNestedContextsShareOuterContext() throws Exception
+    {
+        PolicyResolutionContext outer = PolicyResolutionContext.begin();
+        PolicyResolutionContext inner = PolicyResolutionContext.begin();
+        assertSame(outer, inner);
+
+        inner.end();
+        assertSame(outer, PolicyResolutionContext.current());
+
+        outer.end();
+        assertNull(PolicyResolutionContext.current());
+    }
+
+    public void testBatchLoaderUsesContext() throws Exception
+    {
+        PolicyResolutionContext context = PolicyResolutionContext.begin();
+        try {
+            PolicyResolutionContext.getPolicy(cmServer, articleId);
+
+            Policy[] policies = new PolicyBatchLoader(1).loadPolicies(cmServer, new ContentId[] { articleId });
+            assertSame(article, policies[0]);
+        } finally {
+            context.end();
+        }
+
+        verify(cmServer, times(1)).getPolicy(articleId);
+    }
+
+    public void testOtherCMServerIsNotServed() throws Exception
+    {
+        PolicyCMServer otherServer = (PolicyCMServer) mock(PolicyCMServer.class);
+
+        PolicyResolutionContext context = PolicyResolutionContext.begin();
+        try {
+            PolicyResolutionContext.getPolicy(cmServer, articleId);
+            PolicyResolutionContext.getPolicy(otherServer, articleId);
+        } finally {
+            context.end();
+        }
+
+        verify(otherServer, times(1)).getPolicy(articleId);
+    }
+}
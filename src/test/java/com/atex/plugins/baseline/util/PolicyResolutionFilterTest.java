@@ -0,0 +1,82 @@
+package com.atex.plugins.baseline.util;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PolicyResolutionFilterTest extends TestCase {
+    private PolicyResolutionFilter target;
+    private ServletRequest request;
+    private ServletResponse response;
+    private FilterChain chain;
+
+    /**
+     * The context active while the chain ran.
+     */
+    private PolicyResolutionContext seen;
+
+    protected void setUp() throws Exception
+    {
+        target = new PolicyResolutionFilter();
+        request = (ServletRequest) mock(ServletRequest.class);
+        response = (ServletResponse) mock(ServletResponse.class);
+        chain = (FilterChain) mock(FilterChain.class);
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation)
+            {
+                seen = PolicyResolutionContext.current();
+                return null;
+            }
+        }).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    }
+
+    public void testRequestRunsWithinContext() throws IOException, ServletException
+    {
+        target.doFilter(request, response, chain);
+
+        assertNotNull(seen);
+        assertNull(PolicyResolutionContext.current());
+    }
+
+    public void testNestedRequestJoinsContext() throws IOException, ServletException
+    {
+        PolicyResolutionContext outer = PolicyResolutionContext.begin();
+        try {
+            target.doFilter(request, response, chain);
+
+            assertSame(outer, seen);
+            assertSame(outer, PolicyResolutionContext.current());
+        } finally {
+            outer.end();
+        }
+    }
+
+    public void testContextEndsOnFailure() throws IOException, ServletException
+    {
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws ServletException
+            {
+                throw new ServletException("failing");
+            }
+        }).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+        try {
+            target.doFilter(request, response, chain);
+            fail("Expected ServletException");
+        } catch (ServletException e) {
+            assertNull(PolicyResolutionContext.current());
+        }
+    }
+}